@@ -0,0 +1,91 @@
+/**
+ * AgentDrawBenchmark
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.benchmarks;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import uchicago.src.sim.gui.SimGraphics;
+import uk.ac.leeds.ccg.modeling.parallelrepast.complex.*;
+
+
+/**
+ * JMH benchmark of <CODE>Agent.draw()</CODE>, which the display calls for 
+ * every Agent on every update, drawing into an image off screen rather 
+ * than a window, so it runs headless.
+ * @version 1.3
+ */ 
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AgentDrawBenchmark {
+
+
+	private static final int AGENTS = 1000;
+
+	private Agent[] list = null;
+	private SimGraphics graphics = null;
+	private BufferedImage image = null;
+
+
+
+
+	@Setup
+	public void setUp() {
+
+		list = new Agent[AGENTS];
+		for (int i = 0; i < list.length; i++) {
+			list[i] = new Agent(i % 300, (i / 300) % 300);
+			for (int v = 0; v < i % 7; v++) {
+				list[i].incrementValue(); // So they're not all the same colour.
+			}
+		}
+		image = new BufferedImage(300, 300, BufferedImage.TYPE_INT_RGB);
+		graphics = new SimGraphics();
+		graphics.setGraphics((Graphics2D) image.getGraphics());
+		graphics.setDrawingParameters(1, 1, 1);
+
+	}
+
+
+
+
+	@TearDown
+	public void tearDown() {
+		image.flush();
+	}
+
+
+
+
+	/**
+	 * Draws each Agent once, at its own place; the time is per Agent.
+	 **/
+	@Benchmark
+	@OperationsPerInvocation(AGENTS)
+	public void draw() {
+
+		for (int i = 0; i < list.length; i++) {
+			graphics.setDrawingCoordinates(list[i].getX(), list[i].getY(), 0);
+			list[i].draw(graphics);
+		}
+
+	}
+
+// End of AgentDrawBenchmark.
+}
@@ -0,0 +1,127 @@
+/**
+ * AgentStoreBenchmark
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import uk.ac.leeds.ccg.modeling.parallelrepast.complex.*;
+
+
+/**
+ * JMH benchmark of Agents kept in an AgentStore, off the heap, against 
+ * Agent objects: packing them into a batch and back, and stepping 
+ * through them all. Run with <CODE>-prof gc</CODE> to see the allocation 
+ * each way.
+ * @version 1.3
+ */ 
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AgentStoreBenchmark {
+
+
+	@Param({"1000", "100000"})
+	public int agents;
+
+	private Agent[] list = null;
+	private AgentStore store = null;
+	private AgentView view = null;
+	private PackedAgentCodec codec = new PackedAgentCodec();
+	private AgentBuffer buffer = new AgentBuffer();
+
+
+
+
+	@Setup
+	public void setUp() {
+
+		list = new Agent[agents];
+		store = new AgentStore(agents);
+		for (int i = 0; i < list.length; i++) {
+			list[i] = new Agent(i % 300, (i / 300) % 300, i);
+			store.add(list[i]);
+		}
+		view = store.getView(0);
+		buffer.encode(codec, list, 0, list.length);
+
+	}
+
+
+
+
+	@Benchmark
+	public int packObjects() {
+		return buffer.encode(codec, list, 0, list.length);
+	}
+
+
+
+
+	@Benchmark
+	public int packStore() {
+		return store.encode(buffer, 0, store.size(), 0);
+	}
+
+
+
+
+	@Benchmark
+	public int unpackObjects() {
+		return buffer.decode(codec, list, 0);
+	}
+
+
+
+
+	@Benchmark
+	public int unpackStore() {
+		return store.decode(buffer, 0, 0);
+	}
+
+
+
+
+	@Benchmark
+	public int stepObjects() {
+
+		int sum = 0;
+		for (int i = 0; i < list.length; i++) {
+			list[i].incrementValue();
+			sum += list[i].getX();
+		}
+		return sum;
+
+	}
+
+
+
+
+	@Benchmark
+	public int stepStore() {
+
+		int sum = 0;
+		for (int i = 0; i < store.size(); i++) {
+			view.setIndex(i);
+			view.incrementValue();
+			sum += view.getX();
+		}
+		return sum;
+
+	}
+
+// End of AgentStoreBenchmark.
+}
@@ -0,0 +1,51 @@
+/**
+ * LocalNodes
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.benchmarks;
+
+import uk.ac.leeds.ccg.modeling.parallelrepast.complex.*;
+
+
+/**
+ * Starts the Model on a set of nodes as threads in one JVM, over a 
+ * LocalTransport, as the ScalingExperiment does, so the benchmarks drive 
+ * the Model itself, without a cluster or a display.<P>
+ * The caller gets node zero's Model; the other nodes sit in 
+ * <CODE>Model.waitForCommands()</CODE> until <CODE>atEnd()</CODE> is 
+ * called on it. Node zero keeps none of the Agents, as the NodeZeroWeight 
+ * is zero by default.</P>
+ * @version 1.3
+ */ 
+public class LocalNodes {
+
+
+
+
+	/**
+	 * Starts <CODE>nodes</CODE> nodes and returns node zero's Model, set 
+	 * up for <CODE>agents</CODE> Agents, but not built, so the caller can 
+	 * change anything else first.
+	 **/
+	public static Model start(int nodes, int agents) {
+
+		LocalTransport[] transports = LocalTransport.create(nodes);
+		Model.startNodes(transports);
+		Model model = new Model(transports[0]);
+		model.setTotalNumberOfAgents(agents);
+		model.setLogLevel("OFF");
+		return model;
+
+	}
+
+// End of LocalNodes.
+}
@@ -0,0 +1,68 @@
+/**
+ * SendCommandBenchmark
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import uk.ac.leeds.ccg.modeling.parallelrepast.complex.*;
+
+
+/**
+ * JMH benchmark of <CODE>Model.sendCommand()</CODE>, sending the "keep 
+ * running" command from node zero to the other nodes, with the nodes as 
+ * threads on a LocalTransport. As in a run, node zero doesn't wait for 
+ * the other nodes to act on it, so this is node zero's time sending it.
+ * @version 1.3
+ */ 
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SendCommandBenchmark {
+
+
+	@Param({"2", "4", "8"})
+	public int nodes;
+
+	private Model model = null;
+
+
+
+
+	@Setup
+	public void setUp() {
+		model = LocalNodes.start(nodes, nodes - 1);
+		model.buildModel();
+	}
+
+
+
+
+	@TearDown
+	public void tearDown() {
+		model.atEnd();
+	}
+
+
+
+
+	@Benchmark
+	public void sendCommand() {
+		model.sendCommand(0);
+	}
+
+// End of SendCommandBenchmark.
+}
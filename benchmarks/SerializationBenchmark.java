@@ -0,0 +1,125 @@
+/**
+ * SerializationBenchmark
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.benchmarks;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import uk.ac.leeds.ccg.modeling.parallelrepast.complex.*;
+
+
+/**
+ * JMH benchmark of getting Agents ready to send, and back again: Java 
+ * serialization, which is what MPI.OBJECT does, against packing them into 
+ * ints with a PackedAgentCodec, all of them or just the ones that have changed. 
+ * Deserializing makes new Agents, so unpacking does too, into an empty list, 
+ * to compare like with like.
+ * @version 1.3
+ */ 
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SerializationBenchmark {
+
+
+	@Param({"1000", "100000"})
+	public int agents;
+
+	private Agent[] list = null;
+	private byte[] serialized = null;
+	private PackedAgentCodec codec = new PackedAgentCodec();
+	private AgentBuffer buffer = new AgentBuffer();
+
+
+
+
+	@Setup
+	public void setUp() throws IOException {
+
+		list = new Agent[agents];
+		for (int i = 0; i < list.length; i++) {
+			list[i] = new Agent(i % 300, (i / 300) % 300);
+		}
+		serialized = serialize();
+		buffer.encode(codec, list, 0, list.length);
+		buffer.ensureChangesCapacity(codec, list.length);
+
+	}
+
+
+
+
+	@Benchmark
+	public byte[] serialize() throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(list);
+		out.close();
+		return bytes.toByteArray();
+
+	}
+
+
+
+
+	@Benchmark
+	public Object deserialize() throws IOException, ClassNotFoundException {
+
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized));
+		Object copy = in.readObject();
+		in.close();
+		return copy;
+
+	}
+
+
+
+
+	@Benchmark
+	public int pack() {
+		return buffer.encode(codec, list, 0, list.length);
+	}
+
+
+
+
+	@Benchmark
+	public Object[] unpack() {
+		Agent[] copy = new Agent[agents];
+		buffer.decode(codec, copy, 0);
+		return copy;
+	}
+
+
+
+
+	/**
+	 * Changes one Agent in ten, as a step might, and packs just those.
+	 **/
+	@Benchmark
+	public int packChanges() {
+
+		for (int i = 0; i < list.length; i = i + 10) {
+			list[i].incrementValue();
+		}
+		return buffer.encodeChanges(codec, list, 0, list.length);
+
+	}
+
+// End of SerializationBenchmark.
+}
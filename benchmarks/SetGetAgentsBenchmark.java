@@ -0,0 +1,118 @@
+/**
+ * SetGetAgentsBenchmark
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import uk.ac.leeds.ccg.modeling.parallelrepast.complex.*;
+
+
+/**
+ * JMH benchmark of sending Agents out from node zero and getting them 
+ * back, for different numbers of Agents and nodes, with the nodes as 
+ * threads on a LocalTransport.<P>
+ * The Model only sends Agents out with <CODE>setAgents()</CODE> when it's 
+ * built, so <CODE>buildModel</CODE> times a fresh Model being built, 
+ * which makes the Agents on node zero and sends them out. 
+ * <CODE>refreshAgents</CODE> gets all the Agents back with 
+ * <CODE>getAgents()</CODE>, which also rebuilds agentList, the list the 
+ * display draws.</P>
+ * @version 1.3
+ */ 
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SetGetAgentsBenchmark {
+
+
+	@Param({"2", "4", "8"})
+	public int nodes;
+
+	@Param({"1000", "100000"})
+	public int agents;
+
+	private Model model = null;
+
+
+
+
+	/**
+	 * A Model started but not yet built, made again for each call, as a 
+	 * Model is only built once.
+	 **/
+	@State(Scope.Benchmark)
+	public static class Unbuilt {
+
+
+		private Model model = null;
+
+
+
+
+		@Setup(Level.Invocation)
+		public void setUp(SetGetAgentsBenchmark benchmark) {
+			model = LocalNodes.start(benchmark.nodes, benchmark.agents);
+		}
+
+
+
+
+		@TearDown(Level.Invocation)
+		public void tearDown() {
+			model.atEnd();
+		}
+
+	}
+
+
+
+
+	@Setup
+	public void setUp() {
+
+		model = LocalNodes.start(nodes, agents);
+		model.setDeltaSync(false); // So every refresh gets all the Agents.
+		model.buildModel();
+
+	}
+
+
+
+
+	@TearDown
+	public void tearDown() {
+		model.atEnd();
+	}
+
+
+
+
+	@Benchmark
+	public void buildModel(Unbuilt unbuilt) {
+		unbuilt.model.buildModel();
+	}
+
+
+
+
+	@Benchmark
+	public void refreshAgents() {
+		model.refreshAgents();
+	}
+
+// End of SetGetAgentsBenchmark.
+}
@@ -0,0 +1,86 @@
+/**
+ * AbstractPartitioner
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+
+/**
+ * Does the sums common to the Partitioners - how many agents each node 
+ * gets for its weight - leaving subclasses to say which agents.
+ * @version 1.3
+ */ 
+public abstract class AbstractPartitioner implements Partitioner {
+
+
+
+
+	/**
+	 * Fills in the count for each node, in proportion to its weight.<P>
+	 * Each node gets the whole part of its share, and the agents left over 
+	 * go one each to the nodes with the largest fractions left, so no node 
+	 * ends up more than one agent over its share. This stops the final node 
+	 * picking up the whole remainder and holding everyone else up. If the 
+	 * weights are all zero, they are treated as equal.</P>
+	 **/
+	public static void splitCounts(int numberOfAgents, double[] weights, int[] counts) {
+
+		double totalWeight = 0.0;
+		for (int i = 0; i < weights.length; i++) {
+			totalWeight = totalWeight + weights[i];
+		}
+
+		double[] remainders = new double[weights.length];
+		int given = 0;
+		for (int i = 0; i < weights.length; i++) {
+			double share = (totalWeight > 0.0) 
+				? (numberOfAgents * weights[i]) / totalWeight 
+				: (double) numberOfAgents / weights.length;
+			counts[i] = (int) Math.floor(share);
+			remainders[i] = share - counts[i];
+			given = given + counts[i];
+		}
+
+		// Hand out what's left to the largest remainders.
+
+		while (given < numberOfAgents) {
+			int largest = 0;
+			for (int i = 1; i < weights.length; i++) {
+				if (remainders[i] > remainders[largest]) {
+					largest = i;
+				}
+			}
+			counts[largest]++;
+			remainders[largest] = -1.0;
+			given++;
+		}
+
+	}
+
+
+
+
+	/**
+	 * Gets the order that leaves the agents where they are.
+	 **/
+	protected static int[] identityOrder(int numberOfAgents) {
+
+		int[] order = new int[numberOfAgents];
+		for (int i = 0; i < numberOfAgents; i++) {
+			order[i] = i;
+		}
+		return order;
+
+	}
+
+// End of AbstractPartitioner.
+}
@@ -33,6 +33,12 @@ public class Agent implements Serializable, Drawable, CustomProbeable {
 	private int y = 0;
 	private int id = 0; // Identification number for the individual agent. 
 	public static int n = 0;  // Number that changes each time a new agent is created.
+	public static final int PACKED_SIZE = 4; // Number of ints used by pack() and unpack().
+	public static final int ID_CHANGED = 1; // Bits in changedFields.
+	public static final int X_CHANGED = 2;
+	public static final int Y_CHANGED = 4;
+	public static final int VALUE_CHANGED = 8;
+	private transient int changedFields = 0; // Which fields have changed since the Agent was last sent.
 
 
 	/** 
@@ -49,11 +55,41 @@ public class Agent implements Serializable, Drawable, CustomProbeable {
         
         
         
+	/** 
+	 * Sets the Agent's x and y coordinates and ID number, for when the 
+	 * caller hands out the IDs, as nodes making their own Agents do. 
+	 * This leaves <CODE>n</CODE> alone, which isn't safe to share 
+	 * between threads.
+	 **/
+	public Agent(int x, int y, int id) {
+		this.x = x;
+		this.y = y;
+		this.id = id;
+	}
+
+
+        
+        
+        
+	/** 
+	 * Makes an Agent from the ints written by <CODE>pack()</CODE>, 
+	 * starting at the given offset in the buffer. 
+	 * This doesn't take a new ID number, as the Agent already has one.
+	 **/
+	public Agent(int[] buffer, int offset) {
+		unpack(buffer, offset);
+	}
+
+
+        
+        
+        
 	/**
 	 * Increase the Agent's value by one.
 	 **/
 	public void incrementValue () {
 		value++;
+		changedFields |= VALUE_CHANGED;
 	}
 
 
@@ -94,11 +130,30 @@ public class Agent implements Serializable, Drawable, CustomProbeable {
         
         
         
+	/**
+	 * Moves the Agent to the given x and y coordinates.
+	 **/
+	public void moveTo(int x, int y) {
+		if (x != this.x) {
+			this.x = x;
+			changedFields |= X_CHANGED;
+		}
+		if (y != this.y) {
+			this.y = y;
+			changedFields |= Y_CHANGED;
+		}
+	}
+
+
+        
+        
+        
 	/**
 	 * Sets the Agent's ID number.
 	 **/
 	public void setId( int id ) {
         	this.id = id;
+		changedFields |= ID_CHANGED;
 	}
     
 
@@ -116,6 +171,99 @@ public class Agent implements Serializable, Drawable, CustomProbeable {
         
         
         
+	/**
+	 * Writes the Agent's state into the buffer as PACKED_SIZE ints, 
+	 * starting at the given offset, so it can be sent as MPI.INT 
+	 * rather than serialized as an MPI.OBJECT. 
+	 **/
+	public void pack(int[] buffer, int offset) {
+		buffer[offset] = id;
+		buffer[offset + 1] = x;
+		buffer[offset + 2] = y;
+		buffer[offset + 3] = value;
+	}
+
+
+        
+        
+        
+	/**
+	 * Sets the Agent's state from PACKED_SIZE ints written by <CODE>pack()</CODE>, 
+	 * starting at the given offset in the buffer.
+	 **/
+	public void unpack(int[] buffer, int offset) {
+		id = buffer[offset];
+		x = buffer[offset + 1];
+		y = buffer[offset + 2];
+		value = buffer[offset + 3];
+	}
+
+
+        
+        
+        
+	/**
+	 * Gets a bit mask of the fields that have changed since <CODE>clearChangedFields()</CODE> 
+	 * was last called, made of ID_CHANGED, X_CHANGED, Y_CHANGED and VALUE_CHANGED.
+	 **/
+	public int getChangedFields() {
+		return changedFields;
+	}
+
+
+        
+        
+        
+	/**
+	 * Marks all the Agent's fields as unchanged.
+	 **/
+	public void clearChangedFields() {
+		changedFields = 0;
+	}
+
+
+        
+        
+        
+	/**
+	 * Writes the changed fields into the buffer, starting at the given offset, 
+	 * as the changedFields mask followed by the values of the changed fields 
+	 * in the same order as <CODE>pack()</CODE>. Returns the number of ints written, 
+	 * which is at most PACKED_SIZE + 1. The fields are then marked as unchanged.
+	 **/
+	public int packChanges(int[] buffer, int offset) {
+		int position = offset;
+		buffer[position++] = changedFields;
+		if ((changedFields & ID_CHANGED) != 0) buffer[position++] = id;
+		if ((changedFields & X_CHANGED) != 0) buffer[position++] = x;
+		if ((changedFields & Y_CHANGED) != 0) buffer[position++] = y;
+		if ((changedFields & VALUE_CHANGED) != 0) buffer[position++] = value;
+		changedFields = 0;
+		return position - offset;
+	}
+
+
+        
+        
+        
+	/**
+	 * Sets the fields written by <CODE>packChanges()</CODE>, starting at the given offset 
+	 * in the buffer, and returns the number of ints read.
+	 **/
+	public int unpackChanges(int[] buffer, int offset) {
+		int position = offset;
+		int changes = buffer[position++];
+		if ((changes & ID_CHANGED) != 0) id = buffer[position++];
+		if ((changes & X_CHANGED) != 0) x = buffer[position++];
+		if ((changes & Y_CHANGED) != 0) y = buffer[position++];
+		if ((changes & VALUE_CHANGED) != 0) value = buffer[position++];
+		return position - offset;
+	}
+
+
+        
+        
+        
 	/**
 	 * Required by RePast - draws a rectangle on a given Graphics object.
 	 **/
@@ -0,0 +1,45 @@
+/**
+ * AgentBehaviour
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+
+/**
+ * What an agent does each step, separated out so a ThreadedStepper can 
+ * run it on several agents at once, on different threads.<P>
+ * As <CODE>stepAgent()</CODE> can be called for different agents at the 
+ * same time, it must keep to the following, or the results will depend 
+ * on how the threads happen to run:</P>
+ * <UL>
+ * <LI>Only change the agent passed in. Other agents, and anything else 
+ * shared, can be read, but only if nothing changes them during the step.</LI>
+ * <LI>Don't rely on the order the agents are stepped in.</LI>
+ * <LI>Don't call Repast or MPI, which expect to be called from one thread. 
+ * Anything that needs them should be done before or after the step.</LI>
+ * <LI>Anything the agents draw on together, like a random number generator, 
+ * has to be safe to share between threads, or one for each agent or thread.</LI>
+ * </UL>
+ * @version 1.3
+ */ 
+public interface AgentBehaviour {
+
+
+
+
+	/**
+	 * Does one step's work for the agent.
+	 **/
+	public void stepAgent(Object agent);
+
+// End of AgentBehaviour.
+}
@@ -0,0 +1,237 @@
+/**
+ * AgentBuffer
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ *
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is
+ * reproduced, and versions developed outside the University of Leeds have attached
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/
+ * This work is offered "as is" and without warranty.
+ *
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+
+/**
+ * A reusable int buffer that batches of agents are packed into by an
+ * AgentCodec, ready to send as MPI.INT.<P>
+ * Each batch starts with a header of HEADER_SIZE ints - the codec version
+ * and the number of agents - followed by the agents themselves.
+ * Batches of changes, from a DeltaAgentCodec, have the same header, with the
+ * number of change records, and then each record is the index of the agent
+ * in the array followed by whatever the codec wrote.
+ * Several batches can sit one after another in the same buffer, at
+ * different offsets, for example one for each node in a Scatterv or Gatherv.
+ * The buffer only grows, keeping what is already in it when it does, so once
+ * it's big enough for the largest set of batches a node sends or receives,
+ * no more arrays are made.</P>
+ * @version 1.3
+ */
+public class AgentBuffer {
+
+
+	public static final int HEADER_SIZE = 2;
+
+	private int[] ints = new int[HEADER_SIZE];
+
+
+
+
+	/**
+	 * Gets the ints underlying the buffer, to hand to MPI.
+	 * Don't keep hold of this, as it changes if the buffer grows.
+	 **/
+	public int[] getInts() {
+		return ints;
+	}
+
+
+
+
+	/**
+	 * Gets the number of ints needed for a batch of <CODE>count</CODE> agents,
+	 * including the header.
+	 **/
+	public static int getLength(AgentCodec codec, int count) {
+		return HEADER_SIZE + (count * codec.getPackedSize());
+	}
+
+
+
+
+	/**
+	 * Makes sure the buffer can hold <CODE>length</CODE> ints, keeping
+	 * anything already in it.
+	 **/
+	public void ensureLength(int length) {
+		if (ints.length < length) {
+			int[] bigger = new int[length];
+			System.arraycopy(ints, 0, bigger, 0, ints.length);
+			ints = bigger;
+		}
+	}
+
+
+
+
+	/**
+	 * Makes sure the buffer can hold a batch of <CODE>count</CODE> agents.
+	 **/
+	public void ensureCapacity(AgentCodec codec, int count) {
+		ensureLength(getLength(codec, count));
+	}
+
+
+
+
+	/**
+	 * Packs <CODE>count</CODE> agents, starting at <CODE>agents[from]</CODE>, into
+	 * the buffer as a batch, and returns the number of ints to send.
+	 **/
+	public int encode(AgentCodec codec, Object[] agents, int from, int count) {
+		return encode(codec, agents, from, count, 0);
+	}
+
+
+
+
+	/**
+	 * Packs <CODE>count</CODE> agents, starting at <CODE>agents[from]</CODE>, into
+	 * the buffer as a batch starting at <CODE>offset</CODE>, and returns the
+	 * number of ints written.
+	 **/
+	public int encode(AgentCodec codec, Object[] agents, int from, int count, int offset) {
+		int length = getLength(codec, count);
+		ensureLength(offset + length);
+		ints[offset] = codec.getVersion();
+		ints[offset + 1] = count;
+		codec.encode(agents, from, count, ints, offset + HEADER_SIZE);
+		return length;
+	}
+
+
+
+
+	/**
+	 * Unpacks the batch in the buffer into the array, starting at
+	 * <CODE>agents[to]</CODE>, and returns the number of agents unpacked.
+	 * @throws IllegalStateException if the batch was packed with a different codec version.
+	 **/
+	public int decode(AgentCodec codec, Object[] agents, int to) {
+		return decode(codec, agents, to, 0);
+	}
+
+
+
+
+	/**
+	 * Unpacks the batch starting at <CODE>offset</CODE> in the buffer into the
+	 * array, starting at <CODE>agents[to]</CODE>, and returns the number of
+	 * agents unpacked.
+	 * @throws IllegalStateException if the batch was packed with a different codec version.
+	 **/
+	public int decode(AgentCodec codec, Object[] agents, int to, int offset) {
+		checkVersion(codec, offset);
+		int count = ints[offset + 1];
+		codec.decode(ints, offset + HEADER_SIZE, count, agents, to);
+		return count;
+	}
+
+
+
+
+	/**
+	 * Gets the most ints a batch of changes for <CODE>count</CODE> agents can need,
+	 * including the header.
+	 **/
+	public static int getMaxChangesLength(DeltaAgentCodec codec, int count) {
+		return HEADER_SIZE + (count * (1 + codec.getMaxChangeSize()));
+	}
+
+
+
+
+	/**
+	 * Packs just the agents that have changed, out of the <CODE>count</CODE> starting
+	 * at <CODE>agents[from]</CODE>, into the buffer as a batch of changes, and returns
+	 * the number of ints to send. The indices in the records are relative to
+	 * <CODE>from</CODE>.
+	 **/
+	public int encodeChanges(DeltaAgentCodec codec, Object[] agents, int from, int count) {
+		ensureChangesCapacity(codec, count);
+		int records = 0;
+		int position = HEADER_SIZE;
+		for (int i = 0; i < count; i++) {
+			int written = codec.encodeChanges(agents[from + i], ints, position + 1);
+			if (written > 0) {
+				ints[position] = i;
+				position = position + 1 + written;
+				records++;
+			}
+		}
+		ints[0] = codec.getVersion();
+		ints[1] = records;
+		return position;
+	}
+
+
+
+
+	/**
+	 * Applies the batch of changes in the buffer to the agents, offsetting the
+	 * indices in the records by <CODE>to</CODE>, and returns the number of
+	 * records applied.
+	 * @throws IllegalStateException if the batch was packed with a different codec version.
+	 **/
+	public int decodeChanges(DeltaAgentCodec codec, Object[] agents, int to) {
+		return decodeChanges(codec, agents, to, 0);
+	}
+
+
+
+
+	/**
+	 * Applies the batch of changes starting at <CODE>offset</CODE> in the buffer
+	 * to the agents, offsetting the indices in the records by <CODE>to</CODE>,
+	 * and returns the number of records applied.
+	 * @throws IllegalStateException if the batch was packed with a different codec version.
+	 **/
+	public int decodeChanges(DeltaAgentCodec codec, Object[] agents, int to, int offset) {
+		checkVersion(codec, offset);
+		int records = ints[offset + 1];
+		int position = offset + HEADER_SIZE;
+		for (int i = 0; i < records; i++) {
+			int index = ints[position];
+			position = position + 1 + codec.decodeChanges(ints, position + 1, agents[to + index]);
+		}
+		return records;
+	}
+
+
+
+
+	/**
+	 * Makes sure the buffer can hold a batch of changes for <CODE>count</CODE> agents.
+	 **/
+	public void ensureChangesCapacity(DeltaAgentCodec codec, int count) {
+		ensureLength(getMaxChangesLength(codec, count));
+	}
+
+
+
+
+	/**
+	 * Checks the batch starting at <CODE>offset</CODE> was packed with the
+	 * codec's version.
+	 **/
+	private void checkVersion(AgentCodec codec, int offset) {
+		if (ints[offset] != codec.getVersion()) {
+			throw new IllegalStateException("Agent batch has codec version " + ints[offset]
+				+ " but codec is version " + codec.getVersion());
+		}
+	}
+
+// End of AgentBuffer.
+}
@@ -0,0 +1,69 @@
+/**
+ * AgentCodec
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+
+/**
+ * Implemented by classes that know how to turn a particular type of agent into 
+ * ints and back, so the agents can be sent between nodes as MPI.INT rather 
+ * than serialized as MPI.OBJECT.<P>
+ * Each agent takes up a fixed number of ints (<CODE>getPackedSize()</CODE>), so 
+ * the position of any agent in a buffer is known without reading the ones 
+ * before it. Batches are written with a header carrying the codec's version 
+ * (see <CODE>AgentBuffer</CODE>), so a node with a different layout for the 
+ * agents is caught rather than read as rubbish. If you change the layout, 
+ * change the version.</P>
+ * <P>To use your own agent class, implement this and hand it to the Model's 
+ * <CODE>setAgents()</CODE> and <CODE>getAgents()</CODE>.</P>
+ * @version 1.3
+ */ 
+public interface AgentCodec {
+
+
+
+
+	/**
+	 * Gets the version of the layout, written into the header of each batch.
+	 **/
+	public int getVersion();
+
+
+
+
+	/**
+	 * Gets the number of ints each agent is packed into.
+	 **/
+	public int getPackedSize();
+
+
+
+
+	/**
+	 * Packs <CODE>count</CODE> agents, starting at <CODE>agents[from]</CODE>, into the 
+	 * buffer starting at <CODE>offset</CODE>.
+	 **/
+	public void encode(Object[] agents, int from, int count, int[] buffer, int offset);
+
+
+
+
+	/**
+	 * Unpacks <CODE>count</CODE> agents from the buffer starting at <CODE>offset</CODE> into 
+	 * the array starting at <CODE>agents[to]</CODE>. Agents already in the array should be 
+	 * updated in place, and new agents made where the array is empty.
+	 **/
+	public void decode(int[] buffer, int offset, int count, Object[] agents, int to);
+
+// End of AgentCodec.
+}
@@ -0,0 +1,300 @@
+/**
+ * AgentOutput
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.StringTokenizer;
+
+
+/**
+ * Streams chosen fields of a node's Agents to the node's own files, on 
+ * the ticks asked for, so data can be collected without gathering it to 
+ * node zero, and the rate it can be written goes up with the number of 
+ * nodes.<P>
+ * The data are columnar: for each tick written, a block of each chosen 
+ * field in turn, one int for each Agent, in the order of the FIELDS. 
+ * They go in <CODE>rank-N.cols</CODE>, only ever added to, through a 
+ * direct buffer. Each block has an entry in <CODE>rank-N.index</CODE>, 
+ * after a header of MAGIC, FORMAT and the mask of fields: the tick, the 
+ * number of Agents, and where the block starts in the data file, so a 
+ * reader can go straight to any tick, and any field in it. 
+ * AgentOutputReader merges the files from all the nodes.</P>
+ * <P>The data file can be read while it's being written, up to the last 
+ * entry in the index, as the index only gets each entry once its block 
+ * is written. When a run restarts from a checkpoint, <CODE>trim()</CODE> 
+ * cuts the files back to the ticks up to it first, so blocks the failed 
+ * run wrote after the checkpoint aren't read alongside the new ones.</P>
+ * @version 1.3
+ */ 
+public class AgentOutput {
+
+
+	public static final int MAGIC = 0x50524f43; // "PROC"
+	public static final int FORMAT = 1;
+	public static final String[] FIELDS = {"id", "x", "y", "value"};
+	public static final int ALL_FIELDS = (1 << FIELDS.length) - 1;
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int INDEX_HEADER_BYTES = 12; // MAGIC, FORMAT and the fields.
+	private static final int ENTRY_BYTES = 16; // Tick, count and start of each block.
+
+	private int fields = ALL_FIELDS; // Mask of the FIELDS written, bit i for FIELDS[i].
+	private FileChannel data = null;
+	private DataOutputStream index = null;
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private long position = 0; // Bytes written to the data file so far.
+
+
+
+
+	/**
+	 * Opens the node's files in the directory, making the directory if need 
+	 * be, to write the fields in the mask. The files are started again, 
+	 * unless <CODE>append</CODE> is true and they're already there with the 
+	 * same fields, as when a run is restarted.
+	 **/
+	public AgentOutput(File directory, int rank, int fields, boolean append) throws IOException {
+
+		this.fields = fields & ALL_FIELDS;
+		directory.mkdirs();
+		File dataFile = new File(directory, getDataName(rank));
+		File indexFile = new File(directory, getIndexName(rank));
+		append = append && dataFile.exists() && indexFile.exists() && (readFields(indexFile) == this.fields);
+
+		data = new FileOutputStream(dataFile, append).getChannel();
+		position = data.size();
+		index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, append)));
+		if (!append) {
+			index.writeInt(MAGIC);
+			index.writeInt(FORMAT);
+			index.writeInt(this.fields);
+			index.flush();
+		}
+
+	}
+
+
+
+
+	/**
+	 * Gets the name of a node's data file.
+	 **/
+	public static String getDataName(int rank) {
+		return "rank-" + rank + ".cols";
+	}
+
+
+
+
+	/**
+	 * Gets the name of a node's index file.
+	 **/
+	public static String getIndexName(int rank) {
+		return "rank-" + rank + ".index";
+	}
+
+
+
+
+	/**
+	 * Gets the mask of fields from a list of their names, separated by 
+	 * commas, such as "x,y". Names that aren't FIELDS are ignored.
+	 **/
+	public static int parseFields(String names) {
+
+		int mask = 0;
+		StringTokenizer tokens = new StringTokenizer(names, ", ");
+		while (tokens.hasMoreTokens()) {
+			String name = tokens.nextToken();
+			for (int i = 0; i < FIELDS.length; i++) {
+				if (FIELDS[i].equalsIgnoreCase(name)) {
+					mask |= 1 << i;
+				}
+			}
+		}
+		return mask;
+
+	}
+
+
+
+
+	/**
+	 * Gets the mask of fields from the header of an index file, or -1 if 
+	 * it isn't one.
+	 **/
+	static int readFields(File indexFile) throws IOException {
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+		try {
+			if ((in.readInt() != MAGIC) || (in.readInt() != FORMAT)) {
+				return -1;
+			}
+			return in.readInt();
+		} catch (EOFException eofe) {
+			return -1;
+		} finally {
+			in.close();
+		}
+
+	}
+
+
+
+
+	/**
+	 * Cuts a node's files in the directory back to the blocks for ticks up 
+	 * to <CODE>tick</CODE>, dropping those after it, and any block or entry 
+	 * only partly written, as when a run restarts from a checkpoint at that 
+	 * tick. Does nothing if the files aren't there.
+	 **/
+	public static void trim(File directory, int rank, int tick) throws IOException {
+
+		File dataFile = new File(directory, getDataName(rank));
+		File indexFile = new File(directory, getIndexName(rank));
+		if (!dataFile.exists() || !indexFile.exists()) {
+			return;
+		}
+		int fields = readFields(indexFile);
+		if (fields < 0) {
+			return;
+		}
+
+		long indexLength = INDEX_HEADER_BYTES;
+		long dataLength = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+		try {
+			in.readInt(); // MAGIC, FORMAT and the fields, already checked.
+			in.readInt();
+			in.readInt();
+			while (true) {
+				int blockTick = in.readInt();
+				int count = in.readInt();
+				long start = in.readLong();
+				if (blockTick > tick) {
+					break;
+				}
+				indexLength = indexLength + ENTRY_BYTES;
+				dataLength = start + (4L * count * Integer.bitCount(fields));
+			}
+		} catch (EOFException eofe) {
+			// The end of the entries.
+		} finally {
+			in.close();
+		}
+
+		setLength(indexFile, indexLength);
+		setLength(dataFile, Math.min(dataLength, dataFile.length()));
+
+	}
+
+
+
+
+	/**
+	 * Cuts a file down to the given length.
+	 **/
+	private static void setLength(File file, long length) throws IOException {
+
+		RandomAccessFile cut = new RandomAccessFile(file, "rw");
+		try {
+			cut.setLength(length);
+		} finally {
+			cut.close();
+		}
+
+	}
+
+
+
+
+	/**
+	 * Writes a block of the chosen fields of <CODE>count</CODE> Agents, 
+	 * starting at <CODE>agents[from]</CODE>, for the tick, and its entry 
+	 * in the index.
+	 **/
+	public void write(int tick, Agent[] agents, int from, int count) throws IOException {
+
+		long start = position;
+		for (int field = 0; field < FIELDS.length; field++) {
+			if ((fields & (1 << field)) == 0) {
+				continue;
+			}
+			for (int i = from; i < from + count; i++) {
+				if (buffer.remaining() < 4) {
+					flushBuffer();
+				}
+				buffer.putInt(getField(agents[i], field));
+			}
+		}
+		flushBuffer();
+
+		index.writeInt(tick);
+		index.writeInt(count);
+		index.writeLong(start);
+		index.flush();
+
+	}
+
+
+
+
+	/**
+	 * Gets one of the FIELDS of an Agent.
+	 **/
+	private static int getField(Agent agent, int field) {
+
+		switch (field) {
+			case (0) :
+				return agent.getId();
+			case (1) :
+				return agent.getX();
+			case (2) :
+				return agent.getY();
+			default :
+				return agent.getValue();
+		}
+
+	}
+
+
+
+
+	/**
+	 * Writes out what's in the buffer.
+	 **/
+	private void flushBuffer() throws IOException {
+
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			position = position + data.write(buffer);
+		}
+		buffer.clear();
+
+	}
+
+
+
+
+	/**
+	 * Closes the files.
+	 **/
+	public void close() throws IOException {
+		data.close();
+		index.close();
+	}
+
+// End of AgentOutput.
+}
@@ -0,0 +1,282 @@
+/**
+ * AgentOutputReader
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+
+/**
+ * Reads the files written by each node's AgentOutput as if they were one, 
+ * merging the nodes' blocks for a tick in rank order.<P>
+ * Only the indexes are read when the reader is made. The data are read 
+ * when asked for, one field of one tick at a time, straight from where 
+ * each node's block holds it, so a reader can pick out a few ticks or 
+ * fields from a large run without going through the rest. If a node 
+ * wrote a tick more than once, as after a restart, its last block counts.</P>
+ * <P>It can also be run from the command line, to print ticks as CSV:</P>
+ * <PRE>
+ * java uk.ac.leeds.ccg.modeling.parallelrepast.complex.AgentOutputReader output [-ticks 10,20] [-fields x,y]
+ * </PRE>
+ * @version 1.3
+ */ 
+public class AgentOutputReader {
+
+
+	private int fields = 0; // Mask of the fields in the files.
+	private FileChannel[] data = null; // Each node's data file, in rank order.
+	private TreeMap[] blocks = null; // For each node, tick to {count, start} of its block.
+
+
+
+
+	/**
+	 * Reads the indexes of the files in the directory.
+	 * @throws IOException if there aren't any, or the nodes wrote different fields.
+	 **/
+	public AgentOutputReader(String directory) throws IOException {
+
+		File folder = new File(directory);
+		TreeMap ranks = new TreeMap();
+		String[] names = folder.list();
+		for (int i = 0; (names != null) && (i < names.length); i++) {
+			if (names[i].startsWith("rank-") && names[i].endsWith(".index")) {
+				try {
+					ranks.put(Integer.valueOf(names[i].substring(5, names[i].length() - 6)), names[i]);
+				} catch (NumberFormatException nfe) {
+					// Not one of ours.
+				}
+			}
+		}
+		if (ranks.isEmpty()) {
+			throw new IOException("No Agent output in " + directory);
+		}
+
+		data = new FileChannel[ranks.size()];
+		blocks = new TreeMap[ranks.size()];
+		Iterator rankIterator = ranks.keySet().iterator();
+		for (int r = 0; r < data.length; r++) {
+			int rank = ((Integer) rankIterator.next()).intValue();
+			File indexFile = new File(folder, AgentOutput.getIndexName(rank));
+			int rankFields = AgentOutput.readFields(indexFile);
+			if ((rankFields < 0) || ((r > 0) && (rankFields != fields))) {
+				throw new IOException(indexFile + " isn't an index of the same fields as rank-0");
+			}
+			fields = rankFields;
+			blocks[r] = readIndex(indexFile);
+			data[r] = new RandomAccessFile(new File(folder, AgentOutput.getDataName(rank)), "r").getChannel();
+		}
+
+	}
+
+
+
+
+	/**
+	 * Reads the entries in an index file into a map from each tick to the 
+	 * number of Agents and the start of the block.
+	 **/
+	private static TreeMap readIndex(File indexFile) throws IOException {
+
+		TreeMap entries = new TreeMap();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+		try {
+			in.readInt(); // MAGIC, FORMAT and the fields, already checked.
+			in.readInt();
+			in.readInt();
+			while (true) {
+				int tick = in.readInt();
+				int count = in.readInt();
+				long start = in.readLong();
+				entries.put(Integer.valueOf(tick), new long[] {count, start});
+			}
+		} catch (EOFException eofe) {
+			// The end of the entries, or part of one still being written.
+		} finally {
+			in.close();
+		}
+		return entries;
+
+	}
+
+
+
+
+	/**
+	 * Gets the mask of the fields in the files, bit i for AgentOutput.FIELDS[i].
+	 **/
+	public int getFields() {
+		return fields;
+	}
+
+
+
+
+	/**
+	 * Gets the ticks any node wrote, in order.
+	 **/
+	public int[] getTicks() {
+
+		TreeSet ticks = new TreeSet();
+		for (int r = 0; r < blocks.length; r++) {
+			ticks.addAll(blocks[r].keySet());
+		}
+		int[] list = new int[ticks.size()];
+		Iterator iterator = ticks.iterator();
+		for (int i = 0; i < list.length; i++) {
+			list[i] = ((Integer) iterator.next()).intValue();
+		}
+		return list;
+
+	}
+
+
+
+
+	/**
+	 * Gets the number of Agents written at the tick, over all the nodes.
+	 **/
+	public int getCount(int tick) {
+
+		int count = 0;
+		for (int r = 0; r < blocks.length; r++) {
+			long[] block = (long[]) blocks[r].get(Integer.valueOf(tick));
+			if (block != null) {
+				count = count + (int) block[0];
+			}
+		}
+		return count;
+
+	}
+
+
+
+
+	/**
+	 * Reads one field of all the Agents written at the tick, one node's 
+	 * block after another in rank order.
+	 * @throws IllegalArgumentException if the field wasn't written.
+	 **/
+	public int[] read(int tick, int field) throws IOException {
+
+		if ((field < 0) || (field >= AgentOutput.FIELDS.length) || ((fields & (1 << field)) == 0)) {
+			throw new IllegalArgumentException("Field " + field + " isn't in the Agent output");
+		}
+		int[] values = new int[getCount(tick)];
+		int column = Integer.bitCount(fields & ((1 << field) - 1)); // Fields before it in each block.
+		int position = 0;
+		for (int r = 0; r < blocks.length; r++) {
+			long[] block = (long[]) blocks[r].get(Integer.valueOf(tick));
+			if ((block == null) || (block[0] == 0)) {
+				continue;
+			}
+			int count = (int) block[0];
+			ByteBuffer bytes = ByteBuffer.allocate(count * 4);
+			long start = block[1] + ((long) column * count * 4);
+			while (bytes.hasRemaining()) {
+				if (data[r].read(bytes, start + bytes.position()) < 0) {
+					throw new EOFException("Agent output for rank " + r + " ends part way through tick " + tick);
+				}
+			}
+			bytes.flip();
+			bytes.asIntBuffer().get(values, position, count);
+			position = position + count;
+		}
+		return values;
+
+	}
+
+
+
+
+	/**
+	 * Closes the files.
+	 **/
+	public void close() throws IOException {
+		for (int r = 0; r < data.length; r++) {
+			data[r].close();
+		}
+	}
+
+
+
+
+	/**
+	 * Prints the Agent output in a directory as CSV, a row for each Agent 
+	 * at each tick: the tick and then the fields. Options:
+	 * <UL>
+	 * <LI>-ticks: the ticks to print, separated by commas, rather than all of them.</LI>
+	 * <LI>-fields: the fields to print, such as "x,y", rather than all of them.</LI>
+	 * </UL>
+	 **/
+	public static void main(String [] args) throws IOException {
+
+		String directory = "output";
+		int[] ticks = null;
+		int wanted = AgentOutput.ALL_FIELDS;
+		for (int i = 0; i < args.length; i++) {
+			if ("-ticks".equals(args[i])) {
+				StringTokenizer tokens = new StringTokenizer(args[++i], ", ");
+				ticks = new int[tokens.countTokens()];
+				for (int t = 0; t < ticks.length; t++) {
+					ticks[t] = Integer.parseInt(tokens.nextToken());
+				}
+			} else if ("-fields".equals(args[i])) {
+				wanted = AgentOutput.parseFields(args[++i]);
+			} else if (args[i].startsWith("-")) {
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			} else {
+				directory = args[i];
+			}
+		}
+
+		AgentOutputReader reader = new AgentOutputReader(directory);
+		wanted = wanted & reader.getFields();
+		if (ticks == null) {
+			ticks = reader.getTicks();
+		}
+		PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+		out.print("tick");
+		for (int f = 0; f < AgentOutput.FIELDS.length; f++) {
+			if ((wanted & (1 << f)) != 0) {
+				out.print("," + AgentOutput.FIELDS[f]);
+			}
+		}
+		out.println();
+
+		int[][] columns = new int[AgentOutput.FIELDS.length][];
+		for (int t = 0; t < ticks.length; t++) {
+			for (int f = 0; f < columns.length; f++) {
+				columns[f] = ((wanted & (1 << f)) != 0) ? reader.read(ticks[t], f) : null;
+			}
+			int count = reader.getCount(ticks[t]);
+			for (int i = 0; i < count; i++) {
+				out.print(ticks[t]);
+				for (int f = 0; f < columns.length; f++) {
+					if (columns[f] != null) {
+						out.print("," + columns[f][i]);
+					}
+				}
+				out.println();
+			}
+		}
+		out.flush();
+		reader.close();
+
+	}
+
+// End of AgentOutputReader.
+}
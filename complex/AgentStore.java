@@ -0,0 +1,355 @@
+/**
+ * AgentStore
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+
+/**
+ * A standalone utility that holds Agents' state outside the Java heap, in 
+ * a direct ByteBuffer, rather than as an Agent object each, so the Agents 
+ * it holds are nothing for the garbage collector to trace, and unpacking 
+ * a batch into it makes no objects.<P>
+ * The Model doesn't use it: it keeps its Agents as Agent objects, and 
+ * packs them through an AgentBuffer. The store is for code of your own 
+ * that wants Agents held this way, and AgentStoreBenchmark measures it 
+ * against Agent objects.</P>
+ * <P>Each Agent is PACKED_SIZE ints, in the same order <CODE>Agent.pack()</CODE> 
+ * writes them - ID, x, y and value - one after another, so a run of Agents 
+ * in the store is already a batch body as a PackedAgentCodec would pack it. 
+ * <CODE>encode()</CODE> and <CODE>decode()</CODE> therefore move a batch 
+ * in and out of an AgentBuffer as one bulk copy, rather than a call for 
+ * each Agent, and batches from a store and from Agent objects can be sent 
+ * to each other. The Agents are reached by their index, or through an 
+ * AgentView, which reads and writes the store in place.</P>
+ * <P>The changed fields of each Agent, as in <CODE>Agent.getChangedFields()</CODE>, 
+ * are kept in a second buffer, so the Agents' own ints stay packed.</P>
+ * <P>A store isn't safe to grow from more than one thread, but once it's 
+ * big enough, threads can read and write different Agents in it at the 
+ * same time, each through its own AgentViews.</P>
+ * @version 1.3
+ */ 
+public class AgentStore {
+
+
+	private static final int ID = 0; // Offsets of the fields in each Agent's ints.
+	private static final int X = 1;
+	private static final int Y = 2;
+	private static final int VALUE = 3;
+
+	private IntBuffer ints = null; // PACKED_SIZE ints for each Agent.
+	private IntBuffer changes = null; // Changed fields of each Agent.
+	private int size = 0;
+	private int capacity = 0;
+
+
+
+
+	/**
+	 * Makes a store with room for <CODE>capacity</CODE> Agents; it grows 
+	 * if more are added.
+	 **/
+	public AgentStore(int capacity) {
+		allocate(Math.max(1, capacity));
+	}
+
+
+
+
+	/**
+	 * Gets the number of Agents in the store.
+	 **/
+	public int size() {
+		return size;
+	}
+
+
+
+
+	/**
+	 * Gets the number of Agents the store can hold without growing.
+	 **/
+	public int getCapacity() {
+		return capacity;
+	}
+
+
+
+
+	/**
+	 * Makes sure the store can hold <CODE>count</CODE> Agents, keeping 
+	 * those already in it.
+	 **/
+	public void ensureCapacity(int count) {
+
+		if (count <= capacity) {
+			return;
+		}
+		IntBuffer oldInts = ints;
+		IntBuffer oldChanges = changes;
+		allocate(Math.max(count, capacity + (capacity >> 1)));
+		oldInts.clear().limit(size * Agent.PACKED_SIZE);
+		ints.put(oldInts);
+		oldChanges.clear().limit(size);
+		changes.put(oldChanges);
+
+	}
+
+
+
+
+	/**
+	 * Sets the number of Agents in the store, growing it if need be. 
+	 * New Agents are all zero.
+	 **/
+	public void setSize(int newSize) {
+
+		ensureCapacity(newSize);
+		for (int i = size * Agent.PACKED_SIZE; i < newSize * Agent.PACKED_SIZE; i++) {
+			ints.put(i, 0);
+		}
+		for (int i = size; i < newSize; i++) {
+			changes.put(i, 0);
+		}
+		size = newSize;
+
+	}
+
+
+
+
+	/**
+	 * Adds an Agent to the end of the store and returns its index.
+	 **/
+	public int add(int id, int x, int y, int value) {
+
+		ensureCapacity(size + 1);
+		int base = size * Agent.PACKED_SIZE;
+		ints.put(base + ID, id);
+		ints.put(base + X, x);
+		ints.put(base + Y, y);
+		ints.put(base + VALUE, value);
+		changes.put(size, 0);
+		return size++;
+
+	}
+
+
+
+
+	/**
+	 * Adds a copy of the Agent to the end of the store and returns its index.
+	 **/
+	public int add(Agent agent) {
+		return add(agent.getId(), agent.getX(), agent.getY(), agent.getValue());
+	}
+
+
+
+
+	/**
+	 * Empties the store, keeping its memory.
+	 **/
+	public void clear() {
+		size = 0;
+	}
+
+
+
+
+	/**
+	 * Gets an AgentView of the Agent at the index.
+	 **/
+	public AgentView getView(int index) {
+		return new AgentView(this, index);
+	}
+
+
+
+
+	/**
+	 * Makes an Agent object with the state of the Agent at the index, for 
+	 * code that needs one, such as the display.
+	 **/
+	public Agent toAgent(int index) {
+
+		int[] packed = new int[Agent.PACKED_SIZE];
+		IntBuffer agentInts = ints.duplicate(); // Its own position, so other threads can use the store.
+		agentInts.position(index * Agent.PACKED_SIZE);
+		agentInts.get(packed, 0, Agent.PACKED_SIZE);
+		return new Agent(packed, 0);
+
+	}
+
+
+
+
+	public int getId(int index) {
+		return ints.get((index * Agent.PACKED_SIZE) + ID);
+	}
+
+
+
+
+	public int getX(int index) {
+		return ints.get((index * Agent.PACKED_SIZE) + X);
+	}
+
+
+
+
+	public int getY(int index) {
+		return ints.get((index * Agent.PACKED_SIZE) + Y);
+	}
+
+
+
+
+	public int getValue(int index) {
+		return ints.get((index * Agent.PACKED_SIZE) + VALUE);
+	}
+
+
+
+
+	/**
+	 * Increases the value of the Agent at the index by one, as 
+	 * <CODE>Agent.incrementValue()</CODE> does.
+	 **/
+	public void incrementValue(int index) {
+		int position = (index * Agent.PACKED_SIZE) + VALUE;
+		ints.put(position, ints.get(position) + 1);
+		changes.put(index, changes.get(index) | Agent.VALUE_CHANGED);
+	}
+
+
+
+
+	/**
+	 * Moves the Agent at the index, as <CODE>Agent.moveTo()</CODE> does.
+	 **/
+	public void moveTo(int index, int x, int y) {
+
+		int base = index * Agent.PACKED_SIZE;
+		int changed = changes.get(index);
+		if (ints.get(base + X) != x) {
+			ints.put(base + X, x);
+			changed |= Agent.X_CHANGED;
+		}
+		if (ints.get(base + Y) != y) {
+			ints.put(base + Y, y);
+			changed |= Agent.Y_CHANGED;
+		}
+		changes.put(index, changed);
+
+	}
+
+
+
+
+	/**
+	 * Gets the fields of the Agent at the index that have changed since 
+	 * they were last cleared, as a mask of Agent.ID_CHANGED etc.
+	 **/
+	public int getChangedFields(int index) {
+		return changes.get(index);
+	}
+
+
+
+
+	/**
+	 * Marks all the fields of the Agent at the index as unchanged.
+	 **/
+	public void clearChangedFields(int index) {
+		changes.put(index, 0);
+	}
+
+
+
+
+	/**
+	 * Packs <CODE>count</CODE> Agents, starting at index <CODE>from</CODE>, into 
+	 * the buffer as a batch starting at <CODE>offset</CODE>, in the same form 
+	 * as a PackedAgentCodec, and returns the number of ints written. The 
+	 * Agents are marked as unchanged.
+	 **/
+	public int encode(AgentBuffer buffer, int from, int count, int offset) {
+
+		int length = AgentBuffer.HEADER_SIZE + (count * Agent.PACKED_SIZE);
+		buffer.ensureLength(offset + length);
+		int[] target = buffer.getInts();
+		target[offset] = PackedAgentCodec.VERSION;
+		target[offset + 1] = count;
+		IntBuffer batchInts = ints.duplicate(); // Its own position, so other threads can use the store.
+		batchInts.position(from * Agent.PACKED_SIZE);
+		batchInts.get(target, offset + AgentBuffer.HEADER_SIZE, count * Agent.PACKED_SIZE);
+		for (int i = from; i < from + count; i++) {
+			changes.put(i, 0);
+		}
+		return length;
+
+	}
+
+
+
+
+	/**
+	 * Unpacks the batch starting at <CODE>offset</CODE> in the buffer into 
+	 * the store, starting at index <CODE>to</CODE>, growing the store if 
+	 * need be, and returns the number of Agents unpacked.
+	 * @throws IllegalStateException if the batch wasn't packed in the form of a PackedAgentCodec.
+	 **/
+	public int decode(AgentBuffer buffer, int to, int offset) {
+
+		int[] source = buffer.getInts();
+		if (source[offset] != PackedAgentCodec.VERSION) {
+			throw new IllegalStateException("Agent batch has codec version " + source[offset]
+				+ " but the store needs version " + PackedAgentCodec.VERSION);
+		}
+		int count = source[offset + 1];
+		if (to + count > size) {
+			setSize(to + count);
+		}
+		IntBuffer batchInts = ints.duplicate(); // Its own position, so other threads can use the store.
+		batchInts.position(to * Agent.PACKED_SIZE);
+		batchInts.put(source, offset + AgentBuffer.HEADER_SIZE, count * Agent.PACKED_SIZE);
+		for (int i = to; i < to + count; i++) {
+			changes.put(i, 0);
+		}
+		return count;
+
+	}
+
+
+
+
+	/**
+	 * Makes the buffers for <CODE>newCapacity</CODE> Agents, in the 
+	 * machine's own byte order so the ints don't need swapping.
+	 **/
+	private void allocate(int newCapacity) {
+
+		ints = ByteBuffer.allocateDirect(newCapacity * Agent.PACKED_SIZE * 4)
+			.order(ByteOrder.nativeOrder()).asIntBuffer();
+		changes = ByteBuffer.allocateDirect(newCapacity * 4)
+			.order(ByteOrder.nativeOrder()).asIntBuffer();
+		capacity = newCapacity;
+
+	}
+
+// End of AgentStore.
+}
@@ -0,0 +1,120 @@
+/**
+ * AgentView
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+
+/**
+ * Looks at one Agent in an AgentStore, with the same methods as an Agent, 
+ * reading and writing the store in place.<P>
+ * A view can be moved from one Agent to the next with <CODE>setIndex()</CODE>, 
+ * so one view is enough to step through a whole store without making 
+ * anything for each Agent. A view belongs to one thread, but threads with 
+ * views of their own can use different Agents of the same store at once.</P>
+ * @version 1.3
+ */ 
+public class AgentView {
+
+
+	private AgentStore store = null;
+	private int index = 0;
+
+
+
+
+	/**
+	 * Makes a view of the Agent at the index in the store.
+	 **/
+	public AgentView(AgentStore store, int index) {
+		this.store = store;
+		this.index = index;
+	}
+
+
+
+
+	/**
+	 * Moves the view to the Agent at the index.
+	 **/
+	public void setIndex(int index) {
+		this.index = index;
+	}
+
+
+
+
+	/**
+	 * Gets the index of the Agent the view is on.
+	 **/
+	public int getIndex() {
+		return index;
+	}
+
+
+
+
+	public int getId() {
+		return store.getId(index);
+	}
+
+
+
+
+	public int getX() {
+		return store.getX(index);
+	}
+
+
+
+
+	public int getY() {
+		return store.getY(index);
+	}
+
+
+
+
+	public int getValue() {
+		return store.getValue(index);
+	}
+
+
+
+
+	public void incrementValue() {
+		store.incrementValue(index);
+	}
+
+
+
+
+	public void moveTo(int x, int y) {
+		store.moveTo(index, x, y);
+	}
+
+
+
+
+	public int getChangedFields() {
+		return store.getChangedFields(index);
+	}
+
+
+
+
+	public void clearChangedFields() {
+		store.clearChangedFields(index);
+	}
+
+// End of AgentView.
+}
@@ -0,0 +1,38 @@
+/**
+ * BlockPartitioner
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+
+/**
+ * Gives each node a run of agents next to each other in the list, 
+ * in the order they are already in.
+ * @version 1.3
+ */ 
+public class BlockPartitioner extends AbstractPartitioner {
+
+
+
+
+	/**
+	 * Splits the agents into runs, sized by the weights.
+	 **/
+	public int[] partition(Object[] agents, double[] weights, int[] counts) {
+
+		splitCounts(agents.length, weights, counts);
+		return identityOrder(agents.length);
+
+	}
+
+// End of BlockPartitioner.
+}
@@ -0,0 +1,336 @@
+/**
+ * Checkpoint
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+import java.io.*;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Properties;
+import java.util.StringTokenizer;
+
+
+/**
+ * Writes each node's share of the Agents to its own file, so a run can 
+ * be picked up again from the same tick, and reads them back, on any 
+ * number of nodes.<P>
+ * At a checkpoint, each node maps a file in the directory, named by the 
+ * tick and its rank, into memory and copies its Agents into it, packed 
+ * as a PackedAgentCodec batch, after a header of HEADER_SIZE ints: MAGIC, 
+ * FORMAT, the tick, the seed, the rank and the number of nodes. The nodes 
+ * write at the same time, and the file system rather than node zero carries 
+ * the data. Once they all have, node zero writes the manifest, a properties 
+ * file with the tick, the seed and the number of Agents in each file, which 
+ * marks the checkpoint as complete; files without one are ignored. Nothing 
+ * else needs saving, as the Agents' random numbers come from the seed and 
+ * the tick.</P>
+ * <P>The files, read together in rank order, hold the whole list of Agents, 
+ * so a node restarting can take any run of them with <CODE>read()</CODE>, 
+ * mapping just the files it overlaps. With more or fewer nodes than wrote 
+ * them, the runs just fall differently. The directory needs to be one all 
+ * the nodes can see.</P>
+ * @version 1.3
+ */ 
+public class Checkpoint {
+
+
+	public static final int MAGIC = 0x50524350; // "PRCP"
+	public static final int FORMAT = 1;
+	public static final int HEADER_SIZE = 6;
+
+	private File manifest = null;
+	private File directory = null;
+	private int tick = 0;
+	private int seed = 0;
+	private int[] counts = null; // Number of Agents in each node's file.
+	private int[] starts = null; // Where each node's Agents start in the whole list.
+
+
+
+
+	/**
+	 * Reads the manifest of a checkpoint. If given a directory, this reads 
+	 * the manifest with the latest tick in it.
+	 * @throws IOException if there's no manifest, or it can't be read.
+	 **/
+	public Checkpoint(String path) throws IOException {
+
+		manifest = new File(path);
+		if (manifest.isDirectory()) {
+			manifest = findLatest(manifest);
+		}
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(manifest);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+
+		directory = manifest.getAbsoluteFile().getParentFile();
+		try {
+			tick = Integer.parseInt(properties.getProperty("tick"));
+			seed = Integer.parseInt(properties.getProperty("seed"));
+			StringTokenizer tokens = new StringTokenizer(properties.getProperty("counts"), ",");
+			counts = new int[tokens.countTokens()];
+			starts = new int[counts.length];
+			int start = 0;
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = Integer.parseInt(tokens.nextToken().trim());
+				starts[i] = start;
+				start = start + counts[i];
+			}
+		} catch (RuntimeException re) {
+			throw new IOException("Bad checkpoint manifest " + manifest + ": " + re);
+		}
+
+	}
+
+
+
+
+	/**
+	 * Gets the manifest file with the latest tick in the directory.
+	 * @throws IOException if there isn't one.
+	 **/
+	private static File findLatest(File directory) throws IOException {
+
+		File latest = null;
+		int latestTick = -1;
+		String[] names = directory.list();
+		for (int i = 0; (names != null) && (i < names.length); i++) {
+			if (names[i].startsWith("checkpoint-") && names[i].endsWith(".properties")) {
+				try {
+					int tick = Integer.parseInt(names[i].substring(11, names[i].length() - 11));
+					if (tick > latestTick) {
+						latestTick = tick;
+						latest = new File(directory, names[i]);
+					}
+				} catch (NumberFormatException nfe) {
+					// Not one of ours.
+				}
+			}
+		}
+		if (latest == null) {
+			throw new IOException("No checkpoint in " + directory);
+		}
+		return latest;
+
+	}
+
+
+
+
+	/**
+	 * Gets the name of the manifest for the tick.
+	 **/
+	public static String getManifestName(int tick) {
+		return "checkpoint-" + tick + ".properties";
+	}
+
+
+
+
+	/**
+	 * Gets the name of a node's file for the tick.
+	 **/
+	public static String getFileName(int tick, int rank) {
+		return "checkpoint-" + tick + "-rank-" + rank + ".bin";
+	}
+
+
+
+
+	/**
+	 * Writes a node's file for the tick into the directory, making the 
+	 * directory if need be. The file holds the header followed by the first 
+	 * <CODE>length</CODE> ints in the buffer, which should be a batch packed 
+	 * with a PackedAgentCodec. The file is mapped into memory and forced 
+	 * to the disk before this returns.
+	 **/
+	public static void write(File directory, int tick, int seed, int rank, int nodes, 
+			AgentBuffer buffer, int length) throws IOException {
+
+		directory.mkdirs();
+		RandomAccessFile file = new RandomAccessFile(new File(directory, getFileName(tick, rank)), "rw");
+		try {
+			long bytes = 4L * (HEADER_SIZE + length);
+			file.setLength(bytes);
+			MappedByteBuffer mapped = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+			IntBuffer ints = mapped.asIntBuffer();
+			ints.put(MAGIC).put(FORMAT).put(tick).put(seed).put(rank).put(nodes);
+			ints.put(buffer.getInts(), 0, length);
+			mapped.force();
+		} finally {
+			file.close();
+		}
+
+	}
+
+
+
+
+	/**
+	 * Writes the manifest for the tick, once every node has written its file, 
+	 * with the number of Agents each wrote. It's written under another name 
+	 * and then renamed, so it's either all there or not there at all.
+	 **/
+	public static void writeManifest(File directory, int tick, int seed, int[] counts) throws IOException {
+
+		StringBuffer list = new StringBuffer();
+		int agents = 0;
+		for (int i = 0; i < counts.length; i++) {
+			list.append((i == 0) ? "" : ",").append(counts[i]);
+			agents = agents + counts[i];
+		}
+		Properties properties = new Properties();
+		properties.setProperty("tick", String.valueOf(tick));
+		properties.setProperty("seed", String.valueOf(seed));
+		properties.setProperty("nodes", String.valueOf(counts.length));
+		properties.setProperty("agents", String.valueOf(agents));
+		properties.setProperty("counts", list.toString());
+
+		File manifest = new File(directory, getManifestName(tick));
+		File partial = new File(directory, getManifestName(tick) + ".part");
+		OutputStream out = new FileOutputStream(partial);
+		try {
+			properties.store(out, "Parallel Repast checkpoint");
+		} finally {
+			out.close();
+		}
+		manifest.delete();
+		if (!partial.renameTo(manifest)) {
+			throw new IOException("Couldn't rename " + partial + " to " + manifest);
+		}
+
+	}
+
+
+
+
+	/**
+	 * Deletes the manifest for the tick, so the checkpoint is no longer used.
+	 **/
+	public static void deleteManifest(File directory, int tick) {
+		new File(directory, getManifestName(tick)).delete();
+	}
+
+
+
+
+	/**
+	 * Deletes a node's file for the tick.
+	 **/
+	public static void delete(File directory, int tick, int rank) {
+		new File(directory, getFileName(tick, rank)).delete();
+	}
+
+
+
+
+	/**
+	 * Gets the path of the checkpoint's manifest.
+	 **/
+	public String getPath() {
+		return manifest.getPath();
+	}
+
+
+
+
+	/**
+	 * Gets the tick the checkpoint was taken at.
+	 **/
+	public int getTick() {
+		return tick;
+	}
+
+
+
+
+	/**
+	 * Gets the seed the run was using.
+	 **/
+	public int getSeed() {
+		return seed;
+	}
+
+
+
+
+	/**
+	 * Gets the number of nodes that wrote the checkpoint.
+	 **/
+	public int getNodes() {
+		return counts.length;
+	}
+
+
+
+
+	/**
+	 * Gets the number of Agents in the checkpoint.
+	 **/
+	public int getAgentCount() {
+		return (counts.length == 0) ? 0 : starts[counts.length - 1] + counts[counts.length - 1];
+	}
+
+
+
+
+	/**
+	 * Reads <CODE>count</CODE> Agents, starting at <CODE>from</CODE> in the 
+	 * whole list, into the array starting at <CODE>agents[to]</CODE>, as new 
+	 * Agents. Only the files that hold them are mapped.
+	 * @throws IOException if a file is missing, or isn't the one the manifest says.
+	 **/
+	public void read(int from, int count, Agent[] agents, int to) throws IOException {
+
+		int[] packed = new int[0];
+		for (int rank = 0; rank < counts.length; rank++) {
+
+			int first = Math.max(from, starts[rank]);
+			int last = Math.min(from + count, starts[rank] + counts[rank]);
+			if (first >= last) {
+				continue;
+			}
+
+			RandomAccessFile file = new RandomAccessFile(new File(directory, getFileName(tick, rank)), "r");
+			try {
+				IntBuffer ints = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length()).asIntBuffer();
+				if ((ints.get(0) != MAGIC) || (ints.get(1) != FORMAT) || (ints.get(2) != tick) 
+						|| (ints.get(4) != rank) || (ints.get(HEADER_SIZE) != PackedAgentCodec.VERSION) 
+						|| (ints.get(HEADER_SIZE + 1) != counts[rank])) {
+					throw new IOException("Checkpoint file " + getFileName(tick, rank) 
+						+ " doesn't match its manifest");
+				}
+				int length = (last - first) * Agent.PACKED_SIZE;
+				if (packed.length < length) {
+					packed = new int[length];
+				}
+				ints.position(HEADER_SIZE + AgentBuffer.HEADER_SIZE + ((first - starts[rank]) * Agent.PACKED_SIZE));
+				ints.get(packed, 0, length);
+				for (int i = 0; i < last - first; i++) {
+					agents[to + (first - from) + i] = new Agent(packed, i * Agent.PACKED_SIZE);
+				}
+			} finally {
+				file.close();
+			}
+
+		}
+
+	}
+
+// End of Checkpoint.
+}
@@ -0,0 +1,56 @@
+/**
+ * CyclicPartitioner
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+
+/**
+ * Deals the agents out to the nodes in turn, like cards, skipping nodes that 
+ * have had their share. This mixes up agents from all parts of the list, which 
+ * helps if the cost of an agent depends on where it is in the list.
+ * @version 1.3
+ */ 
+public class CyclicPartitioner extends AbstractPartitioner {
+
+
+
+
+	/**
+	 * Deals the agents out, with each node getting the number the weights say.
+	 **/
+	public int[] partition(Object[] agents, double[] weights, int[] counts) {
+
+		splitCounts(agents.length, weights, counts);
+
+		int[] starts = new int[counts.length];
+		for (int i = 1; i < counts.length; i++) {
+			starts[i] = starts[i - 1] + counts[i - 1];
+		}
+		int[] dealt = new int[counts.length];
+
+		int[] order = new int[agents.length];
+		int node = 0;
+		for (int i = 0; i < agents.length; i++) {
+			while (dealt[node] == counts[node]) {
+				node = (node + 1) % counts.length;
+			}
+			order[starts[node] + dealt[node]] = i;
+			dealt[node]++;
+			node = (node + 1) % counts.length;
+		}
+		return order;
+
+	}
+
+// End of CyclicPartitioner.
+}
@@ -0,0 +1,64 @@
+/**
+ * DeltaAgentCodec
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+
+/**
+ * An AgentCodec that can also pack just the parts of an agent that have changed 
+ * since it was last sent, so nodes only need to send back the agents that 
+ * changed in a tick.<P>
+ * The agent class needs to keep track of which of its fields have changed. 
+ * A change record is written as a bit mask of the changed fields followed by 
+ * their values, and so varies in length up to <CODE>getMaxChangeSize()</CODE> ints.</P>
+ * @version 1.3
+ */ 
+public interface DeltaAgentCodec extends AgentCodec {
+
+
+
+
+	/**
+	 * Gets the largest number of ints a change record can take up.
+	 **/
+	public int getMaxChangeSize();
+
+
+
+
+	/**
+	 * Packs the fields of the agent that have changed into the buffer, starting at 
+	 * <CODE>offset</CODE>, marks the agent as unchanged, and returns the number of 
+	 * ints written. Returns zero, and writes nothing, if nothing has changed.
+	 **/
+	public int encodeChanges(Object agent, int[] buffer, int offset);
+
+
+
+
+	/**
+	 * Applies a change record from the buffer, starting at <CODE>offset</CODE>, to the 
+	 * agent, and returns the number of ints read.
+	 **/
+	public int decodeChanges(int[] buffer, int offset, Object agent);
+
+
+
+
+	/**
+	 * Marks the agent as unchanged, for example after it has been sent in full.
+	 **/
+	public void clearChanges(Object agent);
+
+// End of DeltaAgentCodec.
+}
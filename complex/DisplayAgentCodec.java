@@ -0,0 +1,94 @@
+/**
+ * DisplayAgentCodec
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+
+/**
+ * An AgentCodec for this example's <CODE>Agent</CODE> class that packs 
+ * just what the display needs to draw it: x, y and value, with no ID.<P>
+ * Node zero uses it to get the Agents the other nodes made for themselves 
+ * when they're first built, so it can draw them without being sent the 
+ * rest. An Agent made from it has an ID of -1 until it's next sent in 
+ * full, so node zero asks for a full resync straight after.</P>
+ * @version 1.3
+ */ 
+public class DisplayAgentCodec implements AgentCodec {
+
+
+	public static final int VERSION = 2;
+	public static final int PACKED_SIZE = 3; // x, y and value.
+
+
+
+
+	/**
+	 * Gets the version of the layout: x, y, value.
+	 **/
+	public int getVersion() {
+		return VERSION;
+	}
+
+
+
+
+	/**
+	 * Gets the number of ints each Agent is packed into.
+	 **/
+	public int getPackedSize() {
+		return PACKED_SIZE;
+	}
+
+
+
+
+	/**
+	 * Packs the Agents' x, y and value.
+	 **/
+	public void encode(Object[] agents, int from, int count, int[] buffer, int offset) {
+		for (int i = 0; i < count; i++) {
+			Agent agent = (Agent) agents[from + i];
+			int position = offset + (i * PACKED_SIZE);
+			buffer[position] = agent.getX();
+			buffer[position + 1] = agent.getY();
+			buffer[position + 2] = agent.getValue();
+		}
+	}
+
+
+
+
+	/**
+	 * Unpacks the Agents' x, y and value, keeping the IDs of those already 
+	 * in the list, and making new ones, with an ID of -1, where needed.
+	 **/
+	public void decode(int[] buffer, int offset, int count, Object[] agents, int to) {
+
+		int[] packed = new int[Agent.PACKED_SIZE];
+		for (int i = 0; i < count; i++) {
+			int position = offset + (i * PACKED_SIZE);
+			packed[0] = (agents[to + i] == null) ? -1 : ((Agent) agents[to + i]).getId();
+			packed[1] = buffer[position];
+			packed[2] = buffer[position + 1];
+			packed[3] = buffer[position + 2];
+			if (agents[to + i] == null) {
+				agents[to + i] = new Agent(packed, 0);
+			} else {
+				((Agent) agents[to + i]).unpack(packed, 0);
+			}
+		}
+
+	}
+
+// End of DisplayAgentCodec.
+}
@@ -0,0 +1,108 @@
+/**
+ * HilbertPartitioner
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+import uchicago.src.sim.gui.Drawable;
+import java.util.Arrays;
+
+
+/**
+ * Orders the agents along a Hilbert curve through the space, using their x and 
+ * y coordinates, and then gives each node a run along the curve. The curve 
+ * keeps points that are near each other in the space near each other along it, 
+ * so each node gets agents that are mostly close together, which is what you 
+ * want if agents deal with their neighbours.<P>
+ * The agents need to be Drawable, for <CODE>getX()</CODE> and <CODE>getY()</CODE>.</P>
+ * @version 1.3
+ */ 
+public class HilbertPartitioner extends AbstractPartitioner {
+
+
+	private int side = 1; // The curve covers a square this big, a power of two.
+
+
+
+
+	/**
+	 * Sets up the curve to cover a space of the given width and height.
+	 **/
+	public HilbertPartitioner(int width, int height) {
+
+		while ((side < width) || (side < height)) {
+			side = side * 2;
+		}
+
+	}
+
+
+
+
+	/**
+	 * Sorts the agents by their distance along the curve and splits them 
+	 * into runs, sized by the weights.
+	 **/
+	public int[] partition(Object[] agents, double[] weights, int[] counts) {
+
+		splitCounts(agents.length, weights, counts);
+
+		// Sort the distances with the index of each agent tucked into the 
+		// bottom of the same long, which sorts along with it.
+
+		long[] keys = new long[agents.length];
+		for (int i = 0; i < agents.length; i++) {
+			Drawable agent = (Drawable) agents[i];
+			keys[i] = (distanceAlongCurve(agent.getX(), agent.getY()) << 32) | i;
+		}
+		Arrays.sort(keys);
+
+		int[] order = new int[agents.length];
+		for (int i = 0; i < agents.length; i++) {
+			order[i] = (int) (keys[i] & 0xFFFFFFFFL);
+		}
+		return order;
+
+	}
+
+
+
+
+	/**
+	 * Gets how far along the curve the point x, y is. 
+	 **/
+	public long distanceAlongCurve(int x, int y) {
+
+		long distance = 0;
+		for (int s = side / 2; s > 0; s = s / 2) {
+			int rx = ((x & s) > 0) ? 1 : 0;
+			int ry = ((y & s) > 0) ? 1 : 0;
+			distance = distance + ((long) s * (long) s * ((3 * rx) ^ ry));
+
+			// Rotate the quadrant so the curve inside it joins up.
+
+			if (ry == 0) {
+				if (rx == 1) {
+					x = side - 1 - x;
+					y = side - 1 - y;
+				}
+				int swap = x;
+				x = y;
+				y = swap;
+			}
+		}
+		return distance;
+
+	}
+
+// End of HilbertPartitioner.
+}
@@ -0,0 +1,540 @@
+/**
+ * LocalTransport
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+
+/**
+ * A Transport between threads in one JVM, each thread standing in for 
+ * a node, so the model can run on one machine without MPI, or be tried 
+ * out on a laptop.<P>
+ * Every pair of nodes has a channel, and a message is a copy of the ints 
+ * sent, handed across the channel to be copied into the receive buffer. 
+ * Nothing is serialized, and sends never wait, as the copy is taken 
+ * straight away, so the sender can reuse its buffer as soon as the send 
+ * returns. Receives are matched to messages with the same tag in the 
+ * order they were posted, as in MPI. The collectives are made of sends 
+ * and receives, on tags below zero that models can't use.</P>
+ * <P>Use <CODE>create()</CODE> to make the transports for all the nodes, 
+ * then hand one to each thread.</P>
+ * @version 1.3
+ */ 
+public class LocalTransport implements Transport {
+
+
+	private static final int BCAST_TAG = -1; // Tags for the collectives.
+	private static final int GATHER_TAG = -2;
+	private static final int SCATTER_TAG = -3;
+	private static final int ALLTOALL_TAG = -4;
+	private static final int BARRIER_TAG = -5;
+
+	private static final long START = System.nanoTime(); // For wtime().
+
+	private Group group = null;
+	private int rank = 0;
+	private int splits = 0; // Number of splits so far, which names the new groups.
+	private int[] empty = new int[0];
+
+
+
+
+	/**
+	 * Makes the transports for a group of <CODE>size</CODE> nodes, 
+	 * the <CODE>i</CODE>th being for node <CODE>i</CODE>.
+	 **/
+	public static LocalTransport[] create(int size) {
+
+		Group group = new Group(size);
+		LocalTransport[] transports = new LocalTransport[size];
+		for (int i = 0; i < size; i++) {
+			transports[i] = new LocalTransport(group, i);
+		}
+		return transports;
+
+	}
+
+
+
+
+	/**
+	 * Makes the transport for node <CODE>rank</CODE> of the group.
+	 **/
+	private LocalTransport(Group group, int rank) {
+
+		this.group = group;
+		this.rank = rank;
+
+	}
+
+
+
+
+	/**
+	 * Gets this node's rank in the group.
+	 **/
+	public int getRank() {
+		return rank;
+	}
+
+
+
+
+	/**
+	 * Gets the number of nodes in the group.
+	 **/
+	public int getSize() {
+		return group.size;
+	}
+
+
+
+
+	/**
+	 * Copies the ints and hands them to node <CODE>destination</CODE>.
+	 **/
+	public void send(int[] buffer, int offset, int count, int destination, int tag) throws TransportException {
+
+		checkRank(destination);
+		int[] copy = new int[count];
+		System.arraycopy(buffer, offset, copy, 0, count);
+		group.channels[destination][rank].put(tag, copy);
+
+	}
+
+
+
+
+	/**
+	 * Waits for a message from node <CODE>source</CODE> and copies it into the buffer.
+	 **/
+	public void recv(int[] buffer, int offset, int count, int source, int tag) throws TransportException {
+		irecv(buffer, offset, count, source, tag).complete();
+	}
+
+
+
+
+	/**
+	 * As <CODE>send()</CODE>, which never waits, so the request is already complete.
+	 **/
+	public TransportRequest isend(int[] buffer, int offset, int count, int destination, int tag) throws TransportException {
+
+		send(buffer, offset, count, destination, tag);
+		return new LocalRequest(null, tag, null, 0, 0, true);
+
+	}
+
+
+
+
+	/**
+	 * Posts a receive, which takes the first message with the tag from 
+	 * node <CODE>source</CODE> not taken by an earlier receive.
+	 **/
+	public TransportRequest irecv(int[] buffer, int offset, int count, int source, int tag) throws TransportException {
+
+		checkRank(source);
+		Channel channel = group.channels[rank][source];
+		LocalRequest request = new LocalRequest(channel, tag, buffer, offset, count, false);
+		channel.post(request);
+		return request;
+
+	}
+
+
+
+
+	/**
+	 * Sends, then receives. As sends never wait, this can't deadlock.
+	 **/
+	public void sendrecv(int[] sendBuffer, int sendOffset, int sendCount, int destination, int sendTag, 
+			int[] receiveBuffer, int receiveOffset, int receiveCount, int source, int receiveTag) throws TransportException {
+
+		send(sendBuffer, sendOffset, sendCount, destination, sendTag);
+		recv(receiveBuffer, receiveOffset, receiveCount, source, receiveTag);
+
+	}
+
+
+
+
+	/**
+	 * Node <CODE>root</CODE> sends the ints to each other node in turn.
+	 **/
+	public void bcast(int[] buffer, int offset, int count, int root) throws TransportException {
+
+		if (rank == root) {
+			for (int i = 0; i < group.size; i++) {
+				if (i != root) {
+					send(buffer, offset, count, i, BCAST_TAG);
+				}
+			}
+		} else {
+			recv(buffer, offset, count, root, BCAST_TAG);
+		}
+
+	}
+
+
+
+
+	/**
+	 * Each node sends its ints to node <CODE>root</CODE>.
+	 **/
+	public void gather(int[] sendBuffer, int sendOffset, int count, 
+			int[] receiveBuffer, int receiveOffset, int root) throws TransportException {
+
+		if (rank == root) {
+			for (int i = 0; i < group.size; i++) {
+				if (i == root) {
+					System.arraycopy(sendBuffer, sendOffset, receiveBuffer, receiveOffset + (i * count), count);
+				} else {
+					recv(receiveBuffer, receiveOffset + (i * count), count, i, GATHER_TAG);
+				}
+			}
+		} else {
+			send(sendBuffer, sendOffset, count, root, GATHER_TAG);
+		}
+
+	}
+
+
+
+
+	/**
+	 * Each node sends its ints to node <CODE>root</CODE>.
+	 **/
+	public void gatherv(int[] sendBuffer, int sendOffset, int sendCount, 
+			int[] receiveBuffer, int receiveOffset, int[] receiveCounts, int[] starts, int root) throws TransportException {
+
+		if (rank == root) {
+			for (int i = 0; i < group.size; i++) {
+				if (i == root) {
+					System.arraycopy(sendBuffer, sendOffset, receiveBuffer, receiveOffset + starts[i], sendCount);
+				} else {
+					recv(receiveBuffer, receiveOffset + starts[i], receiveCounts[i], i, GATHER_TAG);
+				}
+			}
+		} else {
+			send(sendBuffer, sendOffset, sendCount, root, GATHER_TAG);
+		}
+
+	}
+
+
+
+
+	/**
+	 * Node <CODE>root</CODE> sends each other node its ints in turn.
+	 **/
+	public void scatterv(int[] sendBuffer, int sendOffset, int[] sendCounts, int[] starts, 
+			int[] receiveBuffer, int receiveOffset, int receiveCount, int root) throws TransportException {
+
+		if (rank == root) {
+			for (int i = 0; i < group.size; i++) {
+				if (i == root) {
+					System.arraycopy(sendBuffer, sendOffset + starts[i], receiveBuffer, receiveOffset, receiveCount);
+				} else {
+					send(sendBuffer, sendOffset + starts[i], sendCounts[i], i, SCATTER_TAG);
+				}
+			}
+		} else {
+			recv(receiveBuffer, receiveOffset, receiveCount, root, SCATTER_TAG);
+		}
+
+	}
+
+
+
+
+	/**
+	 * Each node sends to every other node, then receives from every other node.
+	 **/
+	public void alltoall(int[] sendBuffer, int sendOffset, int count, 
+			int[] receiveBuffer, int receiveOffset) throws TransportException {
+
+		for (int i = 0; i < group.size; i++) {
+			if (i != rank) {
+				send(sendBuffer, sendOffset + (i * count), count, i, ALLTOALL_TAG);
+			}
+		}
+		System.arraycopy(sendBuffer, sendOffset + (rank * count), receiveBuffer, receiveOffset + (rank * count), count);
+		for (int i = 0; i < group.size; i++) {
+			if (i != rank) {
+				recv(receiveBuffer, receiveOffset + (i * count), count, i, ALLTOALL_TAG);
+			}
+		}
+
+	}
+
+
+
+
+	/**
+	 * Each node sends to every other node, then receives from every other node.
+	 **/
+	public void alltoallv(int[] sendBuffer, int sendOffset, int[] sendCounts, int[] sendStarts, 
+			int[] receiveBuffer, int receiveOffset, int[] receiveCounts, int[] receiveStarts) throws TransportException {
+
+		for (int i = 0; i < group.size; i++) {
+			if (i != rank) {
+				send(sendBuffer, sendOffset + sendStarts[i], sendCounts[i], i, ALLTOALL_TAG);
+			}
+		}
+		System.arraycopy(sendBuffer, sendOffset + sendStarts[rank], 
+			receiveBuffer, receiveOffset + receiveStarts[rank], sendCounts[rank]);
+		for (int i = 0; i < group.size; i++) {
+			if (i != rank) {
+				recv(receiveBuffer, receiveOffset + receiveStarts[i], receiveCounts[i], i, ALLTOALL_TAG);
+			}
+		}
+
+	}
+
+
+
+
+	/**
+	 * Every node tells node zero it has arrived, and node zero tells them 
+	 * all to go once they have.
+	 **/
+	public void barrier() throws TransportException {
+
+		if (rank == 0) {
+			for (int i = 1; i < group.size; i++) {
+				recv(empty, 0, 0, i, BARRIER_TAG);
+			}
+			for (int i = 1; i < group.size; i++) {
+				send(empty, 0, 0, i, BARRIER_TAG);
+			}
+		} else {
+			send(empty, 0, 0, 0, BARRIER_TAG);
+			recv(empty, 0, 0, 0, BARRIER_TAG);
+		}
+
+	}
+
+
+
+
+	/**
+	 * Gathers every node's colour and key to node zero, which sends them all 
+	 * back out, so each node can work out its new group and rank. The new 
+	 * groups are shared between their nodes by looking them up in this group 
+	 * by the number of the split and the colour.
+	 **/
+	public Transport split(int colour, int key) throws TransportException {
+
+		int[] mine = {colour, key};
+		int[] all = new int[2 * group.size];
+		gather(mine, 0, 2, all, 0, 0);
+		bcast(all, 0, all.length, 0);
+		int split = splits++;
+		if (colour < 0) {
+			return null;
+		}
+
+		// Nodes with the same colour are ranked by key, then by their old rank.
+
+		int newSize = 0;
+		int newRank = 0;
+		for (int i = 0; i < group.size; i++) {
+			if (all[2 * i] == colour) {
+				newSize++;
+				if ((all[(2 * i) + 1] < key) || ((all[(2 * i) + 1] == key) && (i < rank))) {
+					newRank++;
+				}
+			}
+		}
+		return new LocalTransport(group.getSubgroup(split, colour, newSize), newRank);
+
+	}
+
+
+
+
+	/**
+	 * Gets the time in seconds since this class was loaded.
+	 **/
+	public double wtime() {
+		return (System.nanoTime() - START) / 1.0e9;
+	}
+
+
+
+
+	/**
+	 * Does nothing, as there's nothing to shut down.
+	 **/
+	public void shutdown() {
+	}
+
+
+
+
+	/**
+	 * Checks a rank is in the group.
+	 **/
+	private void checkRank(int other) throws TransportException {
+
+		if ((other < 0) || (other >= group.size)) {
+			throw new TransportException("No node " + other + " in a group of " + group.size);
+		}
+
+	}
+
+
+
+
+	/**
+	 * The channels between a group of nodes, and the groups split from it.
+	 **/
+	private static class Group {
+
+
+		private int size = 0;
+		private Channel[][] channels = null; // By receiver, then sender.
+		private HashMap subgroups = new HashMap();
+
+
+		Group(int size) {
+			this.size = size;
+			channels = new Channel[size][size];
+			for (int i = 0; i < size; i++) {
+				for (int j = 0; j < size; j++) {
+					channels[i][j] = new Channel();
+				}
+			}
+		}
+
+
+		synchronized Group getSubgroup(int split, int colour, int size) {
+			String name = split + ":" + colour;
+			Group subgroup = (Group) subgroups.get(name);
+			if (subgroup == null) {
+				subgroup = new Group(size);
+				subgroups.put(name, subgroup);
+			}
+			return subgroup;
+		}
+
+	}
+
+
+
+
+	/**
+	 * Messages from one node to another waiting to be received, and receives 
+	 * waiting for messages, each in the order they arrived.
+	 **/
+	private static class Channel {
+
+
+		private LinkedList messages = new LinkedList(); // Each an Integer tag and an int[].
+		private LinkedList receives = new LinkedList();
+
+
+		synchronized void put(int tag, int[] ints) {
+			for (Iterator i = receives.iterator(); i.hasNext(); ) {
+				LocalRequest request = (LocalRequest) i.next();
+				if (request.tag == tag) {
+					i.remove();
+					request.fill(ints);
+					notifyAll();
+					return;
+				}
+			}
+			messages.add(new Object[] {Integer.valueOf(tag), ints});
+		}
+
+
+		synchronized void post(LocalRequest request) {
+			for (Iterator i = messages.iterator(); i.hasNext(); ) {
+				Object[] message = (Object[]) i.next();
+				if (((Integer) message[0]).intValue() == request.tag) {
+					i.remove();
+					request.fill((int[]) message[1]);
+					return;
+				}
+			}
+			receives.add(request);
+		}
+
+
+		synchronized void waitFor(LocalRequest request) throws InterruptedException {
+			while (!request.done) {
+				wait();
+			}
+		}
+
+	}
+
+
+
+
+	/**
+	 * A receive, complete once a message has been copied into its buffer.
+	 **/
+	private static class LocalRequest implements TransportRequest {
+
+
+		private Channel channel = null;
+		private int tag = 0;
+		private int[] buffer = null;
+		private int offset = 0;
+		private int count = 0;
+		private boolean done = false;
+		private String error = null;
+
+
+		LocalRequest(Channel channel, int tag, int[] buffer, int offset, int count, boolean done) {
+			this.channel = channel;
+			this.tag = tag;
+			this.buffer = buffer;
+			this.offset = offset;
+			this.count = count;
+			this.done = done;
+		}
+
+
+		void fill(int[] ints) {
+			if (ints.length > count) {
+				error = "Message of " + ints.length + " ints is too long for a receive of " + count;
+			} else {
+				System.arraycopy(ints, 0, buffer, offset, ints.length);
+			}
+			done = true;
+		}
+
+
+		public void complete() throws TransportException {
+			if (channel != null) {
+				try {
+					channel.waitFor(this);
+				} catch (InterruptedException ie) {
+					throw new TransportException("Interrupted waiting for a message", ie);
+				}
+			}
+			if (error != null) {
+				throw new TransportException(error);
+			}
+		}
+
+	}
+
+// End of LocalTransport.
+}
@@ -0,0 +1,338 @@
+/**
+ * MPITransport
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+import mpi.*;
+
+
+/**
+ * A Transport over an MPI communicator, sending everything as MPI.INT. 
+ * Each node is a separate process, started by mpirun or prunjava.
+ * @version 1.3
+ */ 
+public class MPITransport implements Transport {
+
+
+	private Intracomm comm = null;
+	private boolean world = false; // Whether this is COMM_WORLD, which shutdown() finalizes.
+	private int rank = 0;
+	private int size = 1;
+
+
+
+
+	/**
+	 * Starts MPI and returns a transport over COMM_WORLD.
+	 **/
+	public static MPITransport init(String[] args) throws TransportException {
+
+		try {
+			MPI.Init(args);
+		} catch (MPIException mpiE) {
+			throw new TransportException("MPI.Init failed", mpiE);
+		}
+		MPITransport transport = new MPITransport(MPI.COMM_WORLD);
+		transport.world = true;
+		return transport;
+
+	}
+
+
+
+
+	/**
+	 * Makes a transport over the given communicator, which MPI must 
+	 * already have been started for.
+	 **/
+	public MPITransport(Intracomm comm) throws TransportException {
+
+		this.comm = comm;
+		try {
+			rank = comm.Rank();
+			size = comm.Size();
+		} catch (MPIException mpiE) {
+			throw new TransportException("Can't get rank and size", mpiE);
+		}
+
+	}
+
+
+
+
+	/**
+	 * Gets this node's rank in the group.
+	 **/
+	public int getRank() {
+		return rank;
+	}
+
+
+
+
+	/**
+	 * Gets the number of nodes in the group.
+	 **/
+	public int getSize() {
+		return size;
+	}
+
+
+
+
+	/**
+	 * As <CODE>Comm.Send()</CODE>.
+	 **/
+	public void send(int[] buffer, int offset, int count, int destination, int tag) throws TransportException {
+		try {
+			comm.Send(buffer, offset, count, MPI.INT, destination, tag);
+		} catch (MPIException mpiE) {
+			throw new TransportException("Send failed", mpiE);
+		}
+	}
+
+
+
+
+	/**
+	 * As <CODE>Comm.Recv()</CODE>.
+	 **/
+	public void recv(int[] buffer, int offset, int count, int source, int tag) throws TransportException {
+		try {
+			comm.Recv(buffer, offset, count, MPI.INT, source, tag);
+		} catch (MPIException mpiE) {
+			throw new TransportException("Recv failed", mpiE);
+		}
+	}
+
+
+
+
+	/**
+	 * As <CODE>Comm.Isend()</CODE>.
+	 **/
+	public TransportRequest isend(int[] buffer, int offset, int count, int destination, int tag) throws TransportException {
+		try {
+			return new MPIRequest(comm.Isend(buffer, offset, count, MPI.INT, destination, tag));
+		} catch (MPIException mpiE) {
+			throw new TransportException("Isend failed", mpiE);
+		}
+	}
+
+
+
+
+	/**
+	 * As <CODE>Comm.Irecv()</CODE>.
+	 **/
+	public TransportRequest irecv(int[] buffer, int offset, int count, int source, int tag) throws TransportException {
+		try {
+			return new MPIRequest(comm.Irecv(buffer, offset, count, MPI.INT, source, tag));
+		} catch (MPIException mpiE) {
+			throw new TransportException("Irecv failed", mpiE);
+		}
+	}
+
+
+
+
+	/**
+	 * As <CODE>Comm.Sendrecv()</CODE>.
+	 **/
+	public void sendrecv(int[] sendBuffer, int sendOffset, int sendCount, int destination, int sendTag, 
+			int[] receiveBuffer, int receiveOffset, int receiveCount, int source, int receiveTag) throws TransportException {
+		try {
+			comm.Sendrecv(sendBuffer, sendOffset, sendCount, MPI.INT, destination, sendTag, 
+				receiveBuffer, receiveOffset, receiveCount, MPI.INT, source, receiveTag);
+		} catch (MPIException mpiE) {
+			throw new TransportException("Sendrecv failed", mpiE);
+		}
+	}
+
+
+
+
+	/**
+	 * As <CODE>Intracomm.Bcast()</CODE>.
+	 **/
+	public void bcast(int[] buffer, int offset, int count, int root) throws TransportException {
+		try {
+			comm.Bcast(buffer, offset, count, MPI.INT, root);
+		} catch (MPIException mpiE) {
+			throw new TransportException("Bcast failed", mpiE);
+		}
+	}
+
+
+
+
+	/**
+	 * As <CODE>Intracomm.Gather()</CODE>.
+	 **/
+	public void gather(int[] sendBuffer, int sendOffset, int count, 
+			int[] receiveBuffer, int receiveOffset, int root) throws TransportException {
+		try {
+			comm.Gather(sendBuffer, sendOffset, count, MPI.INT, receiveBuffer, receiveOffset, count, MPI.INT, root);
+		} catch (MPIException mpiE) {
+			throw new TransportException("Gather failed", mpiE);
+		}
+	}
+
+
+
+
+	/**
+	 * As <CODE>Intracomm.Gatherv()</CODE>.
+	 **/
+	public void gatherv(int[] sendBuffer, int sendOffset, int sendCount, 
+			int[] receiveBuffer, int receiveOffset, int[] receiveCounts, int[] starts, int root) throws TransportException {
+		try {
+			comm.Gatherv(sendBuffer, sendOffset, sendCount, MPI.INT, 
+				receiveBuffer, receiveOffset, receiveCounts, starts, MPI.INT, root);
+		} catch (MPIException mpiE) {
+			throw new TransportException("Gatherv failed", mpiE);
+		}
+	}
+
+
+
+
+	/**
+	 * As <CODE>Intracomm.Scatterv()</CODE>.
+	 **/
+	public void scatterv(int[] sendBuffer, int sendOffset, int[] sendCounts, int[] starts, 
+			int[] receiveBuffer, int receiveOffset, int receiveCount, int root) throws TransportException {
+		try {
+			comm.Scatterv(sendBuffer, sendOffset, sendCounts, starts, MPI.INT, 
+				receiveBuffer, receiveOffset, receiveCount, MPI.INT, root);
+		} catch (MPIException mpiE) {
+			throw new TransportException("Scatterv failed", mpiE);
+		}
+	}
+
+
+
+
+	/**
+	 * As <CODE>Intracomm.Alltoall()</CODE>.
+	 **/
+	public void alltoall(int[] sendBuffer, int sendOffset, int count, 
+			int[] receiveBuffer, int receiveOffset) throws TransportException {
+		try {
+			comm.Alltoall(sendBuffer, sendOffset, count, MPI.INT, receiveBuffer, receiveOffset, count, MPI.INT);
+		} catch (MPIException mpiE) {
+			throw new TransportException("Alltoall failed", mpiE);
+		}
+	}
+
+
+
+
+	/**
+	 * As <CODE>Intracomm.Alltoallv()</CODE>.
+	 **/
+	public void alltoallv(int[] sendBuffer, int sendOffset, int[] sendCounts, int[] sendStarts, 
+			int[] receiveBuffer, int receiveOffset, int[] receiveCounts, int[] receiveStarts) throws TransportException {
+		try {
+			comm.Alltoallv(sendBuffer, sendOffset, sendCounts, sendStarts, MPI.INT, 
+				receiveBuffer, receiveOffset, receiveCounts, receiveStarts, MPI.INT);
+		} catch (MPIException mpiE) {
+			throw new TransportException("Alltoallv failed", mpiE);
+		}
+	}
+
+
+
+
+	/**
+	 * As <CODE>Intracomm.Barrier()</CODE>.
+	 **/
+	public void barrier() throws TransportException {
+		try {
+			comm.Barrier();
+		} catch (MPIException mpiE) {
+			throw new TransportException("Barrier failed", mpiE);
+		}
+	}
+
+
+
+
+	/**
+	 * As <CODE>Intracomm.Split()</CODE>. Negative colours are passed to MPI 
+	 * as MPI.UNDEFINED, and give null.
+	 **/
+	public Transport split(int colour, int key) throws TransportException {
+		try {
+			Intracomm split = comm.Split((colour < 0) ? MPI.UNDEFINED : colour, key);
+			return ((colour < 0) || (split == null)) ? null : new MPITransport(split);
+		} catch (MPIException mpiE) {
+			throw new TransportException("Split failed", mpiE);
+		}
+	}
+
+
+
+
+	/**
+	 * As <CODE>MPI.Wtime()</CODE>.
+	 **/
+	public double wtime() {
+		return MPI.Wtime();
+	}
+
+
+
+
+	/**
+	 * Finalizes MPI, if this is the transport over COMM_WORLD.
+	 **/
+	public void shutdown() throws TransportException {
+		if (world) {
+			try {
+				MPI.Finalize();
+			} catch (MPIException mpiE) {
+				throw new TransportException("Finalize failed", mpiE);
+			}
+		}
+	}
+
+
+
+
+	/**
+	 * Wraps an MPI Request.
+	 **/
+	private static class MPIRequest implements TransportRequest {
+
+
+		private Request request = null;
+
+
+		MPIRequest(Request request) {
+			this.request = request;
+		}
+
+
+		public void complete() throws TransportException {
+			try {
+				request.Wait();
+			} catch (MPIException mpiE) {
+				throw new TransportException("Wait failed", mpiE);
+			}
+		}
+
+	}
+
+// End of MPITransport.
+}
@@ -13,11 +13,12 @@
 **/
 package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
 
-import mpi.*;  
 import uchicago.src.sim.engine.SimpleModel; 
 import uchicago.src.sim.engine.SimInit;
 import uchicago.src.sim.engine.Controller;
 import uchicago.src.sim.gui.*;
+import uchicago.src.sim.analysis.OpenSequenceGraph;
+import uchicago.src.sim.analysis.Sequence;
 import uchicago.src.sim.space.Object2DTorus;
 import uchicago.src.reflector.ListPropertyDescriptor;
 import java.io.*;
@@ -42,7 +43,7 @@ import java.awt.*;
  * @author <A href="http://www.geog.leeds.ac.uk/people/a.evans/">Andy Evans</A> and <A href="http://www.geog.leeds.ac.uk/people/h.parry/">Hazel Parry</A> 
  * @version 1.2
  */ 
-public class Model extends SimpleModel { 
+public class Model extends SimpleModel implements AgentBehaviour { 
     
 	/**
 	 *
@@ -53,8 +54,34 @@ public class Model extends SimpleModel {
 	 * v.1.2: HP : 30 Aug 2004: Altered getAgents() and setAgents() methods and minor 
 	 *		            alterations to steps to enable correct agent passing 
 	 *		   	    (as MPI.OBJECT). 
+	 * v.1.3: 17 Oct 2026: sendCommand() broadcasts the command rather than sending it to each node in turn.
+	 * v.1.3: 17 Oct 2026: Added run-ahead command so other nodes can run several ticks between syncs.
+	 * v.1.3: 17 Oct 2026: Agents are packed into int arrays and sent as MPI.INT rather than MPI.OBJECT.
+	 * v.1.3: 17 Oct 2026: setAgents() and getAgents() generalized to object arrays packed by an AgentCodec.
+	 * v.1.3: 17 Oct 2026: postStep() can send back just the Agents that changed, with a full resync on request.
+	 * v.1.3: 17 Oct 2026: setAgents() and getAgents() use Scatterv and Gatherv on one buffer rather than a Send/Recv per node.
+	 * v.1.3: 17 Oct 2026: Added pipelined postStep, with agents sent back by Isend/Irecv while the next tick runs.
+	 * v.1.3: 17 Oct 2026: Node zero can take a weighted share of the Agents to step.
+	 * v.1.3: 17 Oct 2026: Agents are split between nodes by a Partitioner, with the remainder spread evenly.
+	 * v.1.3: 17 Oct 2026: Added rebalancing of Agents between nodes from their measured step times.
+	 * v.1.3: 17 Oct 2026: Added spatial decomposition of the world into tiles, with halo exchange and Agent migration.
+	 * v.1.3: 17 Oct 2026: Agents can be stepped by several threads on each node, with a ThreadedStepper.
+	 * v.1.3: 17 Oct 2026: Messages go through a Transport, so nodes can be MPI processes or threads in one JVM.
+	 * v.1.3: 17 Oct 2026: Added -shm option, sending messages between nodes on the same machine through shared memory.
+	 * v.1.3: 17 Oct 2026: Progress messages go to a RankLog file for each node, at a level, rather than System.out.
+	 * v.1.3: 17 Oct 2026: Added timing of each phase on each node, gathered to node zero and written to a TimingReport.
+	 * v.1.3: 17 Oct 2026: The model can be run without a DisplaySurface, for the ScalingExperiment.
+	 * v.1.3: 17 Oct 2026: Added distributed initialisation, with each node making its own Agents from a shared seed.
+	 * v.1.3: 17 Oct 2026: Random numbers come from a RandomStream keyed by Agent and tick, rather than Math.random().
+	 * v.1.3: 17 Oct 2026: Added DisplayInterval, so Agents are only gathered on ticks that are drawn, and a -batch mode.
+	 * v.1.3: 17 Oct 2026: Added checkpoints, each node writing its own Agents to a mapped file, and restarting from them.
+	 * v.1.3: 17 Oct 2026: Added OutputInterval, for each node to stream its Agents to its own columnar files.
+	 * v.1.3: 17 Oct 2026: Added WireEncoding, which sends batches of Agents as varint deltas, deflated if large.
+	 * v.1.3: 17 Oct 2026: With distributed initialisation, node zero only gets the Agents made on the other nodes to draw them, and just x, y and value.
+	 * v.1.3: 17 Oct 2026: MoveDistance is sent to the other nodes, and Agents in a tile move to the emptiest cell round them.
 	 **/ 
 
+	private Transport transport = null; // How messages get between nodes.
 	private int nodeRank = 0;
     private int numberOfNodes = 0;
     private int modelIteration = 0;
@@ -63,40 +90,117 @@ public class Model extends SimpleModel {
     private Object2DTorus world;
     private Object2DDisplay agentDisplay;
 	private Agent[] localAgentList = null; 
-    private int nodeChunkSize = 0;
-	private int finalNodeChunkSize = 0;
 	private int width = 300;
 	private int height = 300; 
+	private int syncInterval = 1;
+	private int runAheadRemaining = 0;
+	private DeltaAgentCodec agentCodec = new PackedAgentCodec();
+	private AgentCodec displayCodec = new DisplayAgentCodec(); // Just what's drawn, for Agents made on the other nodes.
+	private AgentBuffer agentBuffer = new AgentBuffer(); // Reused for packing agents to send and receive.
+	private boolean deltaSync = true;
+	private boolean resyncRequested = false;
+	private boolean changesOnly = false; // Whether the next gather is just changes. 
+	private int[] nodeAgentCounts = null; // Number of agents on each node.
+	private int[] nodeAgentStarts = null; // Where each node's agents start in the full list.
+	private int[] batchLengths = null; // Ints in each node's batch, for Scatterv and Gatherv.
+	private int[] batchStarts = null; // Where each node's batch starts in agentBuffer.
+	private int[] lengthArray = new int[1]; 
+	private int[] noInts = new int[0]; // For the sides of a Scatterv or Gatherv that aren't used.
+	private boolean pipelined = false;
+	private AgentBuffer[] pipelineBuffers = {new AgentBuffer(), new AgentBuffer()}; // Double buffer for pipelining.
+	private TransportRequest[] pipelineSends = new TransportRequest[2]; // Outstanding isend for each buffer, on other nodes.
+	private TransportRequest[][] pipelineReceives = new TransportRequest[2][]; // Outstanding irecvs for each buffer, on node zero.
+	private int pipelineTurn = 0; // Which buffer the next tick uses.
+	private double nodeZeroWeight = 0.0; // Share of the agents node zero takes, relative to another node.
+	private String nodeWeights = ""; // Shares of the other nodes, separated by commas.
+	private String partitioning = "block"; // Which Partitioner to use.
+	private int rebalanceInterval = 0; // Ticks between checks on the balance of work; zero for never.
+	private double rebalanceThreshold = 0.1; // How far the slowest node can be over the mean before rebalancing.
+	private int lastRebalance = 0; // Tick of the last check.
+	private long stepNanos = 0; // Time spent stepping Agents since the last check.
+	private double transferNanosPerAgent = 1000.0; // Time to send an Agent, measured in setAgents.
+	private boolean spatialDecomposition = false; // Whether the other nodes each look after a tile of the world.
+	private int haloWidth = 1; // Width of the cells round each tile copied from its neighbours.
+	private int moveDistance = 0; // Furthest an Agent moves in x or y each tick.
+	private TorusDecomposition decomposition = null; // The tiles, when spatialDecomposition is on.
+	private int threads = 1; // Threads stepping Agents on each node; zero for one per processor.
+	private ThreadedStepper stepper = null; // Made when first needed, for the number of threads.
+	private boolean exitAtEnd = false; // Whether other nodes exit the process in atEnd, when it's their own.
+	private RankLog log = null; // Where this node's messages go; per-Agent ones are at TRACE.
+	private String logLevel = "INFO"; // Level of the logs, set on node zero and sent to the other nodes.
+	private PhaseTimer timer = new PhaseTimer(); // Time in each phase, and messages, since the last report.
+	private int timingInterval = 0; // Ticks between gathering the timers to node zero; zero for never.
+	private String timingFile = "timing.csv"; // Where node zero writes them; ".json" for JSON.
+	private boolean timingGraph = false; // Whether node zero graphs them.
+	private TimingReport timingReport = null;
+	private OpenSequenceGraph timingGraphWindow = null;
+	private int lastTimingReport = 0; // Tick the timers were last gathered.
+	private boolean distributedInit = false; // Whether each node makes its own Agents, rather than node zero.
+	private int seed = 0; // Seed all the random numbers come from; zero for one from the clock.
+	private ThreadLocal agentRandom = null; // A RandomStream for each thread stepping Agents.
+	private int displayInterval = 1; // Ticks between gathering the Agents to node zero and drawing them.
+	private int lastGather = 0; // Tick the Agents were last gathered for drawing.
+	private boolean gatherAtSync = true; // Whether the Agents come back at the end of a run-ahead block.
+	private boolean drawAtBuild = true; // Whether Agents made on the other nodes come back to be drawn.
+	private int stopAt = 0; // Tick node zero stops the run at; zero for never.
+	private boolean batch = false; // Whether node zero runs without a display.
+	private int checkpointInterval = 0; // Ticks between checkpoints; zero for never.
+	private String checkpointDir = "checkpoints"; // Where each node writes its checkpoint files.
+	private String restartFrom = ""; // Checkpoint, or directory of them, to start from; empty for a new run.
+	private Checkpoint restart = null; // The checkpoint being restarted from, while the model is built.
+	private int lastCheckpoint = 0; // Tick of the last checkpoint.
+	private int[] checkpointTicks = {-1, -1}; // Ticks of this node's last two checkpoints, the older first.
+	private int outputInterval = 0; // Ticks between each node writing out its Agents; zero for never.
+	private String outputDir = "output"; // Where each node writes them.
+	private String outputFields = "id,x,y,value"; // Which of the Agents' fields are written.
+	private AgentOutput output = null; // This node's files, while outputInterval is more than zero.
+	private boolean wireEncoding = false; // Whether batches between node zero and the others go through a WireCodec.
+	private int compressAbove = 4096; // Bytes of varints at which a batch is deflated too; zero for never.
+	private WireCodec wireCodec = null; // Made when the model is built, if wireEncoding is on.
+	private AgentBuffer wireBuffer = new AgentBuffer(); // Encoded batches, as sent.
+	private int[] wireLengths = null; // Ints in each node's encoded batch.
+	private int[] wireStarts = null; // Where each node's encoded batch starts in wireBuffer.
 
         
 	/**
-     * Constructor sets up model on node zero and sets up the MPI variables.<P>
+     * Constructor sets up model on node zero and sets up the node variables.<P>
 	 * On node zero, this does all the setting up that Repast demands and 
- 	 * sets the model so it knows the number of nodes and its own node number.  
-	 * On other nodes, it just does the latter, but it also sets up a localAgentList 
-     * which will contain an ~even split of Agents between the processors. 
+ 	 * sets the model so it knows the number of nodes and its own node number, 
+	 * from the Transport it sends messages with. 
+	 * On other nodes, it just does the latter. Their localAgentList, 
+     * which will contain their share of the Agents, is set up in buildModel, 
+     * once the Agents are made and node zero has split them with a Partitioner.
    	**/
-	public Model(int nodeRank, int numberOfNodes) {
+	public Model(Transport transport) {
 		
 		
-		this.nodeRank = nodeRank;
-		this.numberOfNodes = numberOfNodes;
-
-		// Set size of agent arrays on various nodes. Note that if the 
-		// numberOfNodes is not a factor of totalNumberOfAgents there
-		// will be a remainder that is dealt with on the final node.
-
-		nodeChunkSize = totalNumberOfAgents / (numberOfNodes - 1);			
-		finalNodeChunkSize = nodeChunkSize + (totalNumberOfAgents % (numberOfNodes - 1));
+		this.transport = new TimedTransport(transport, timer);
+		this.nodeRank = transport.getRank();
+		this.numberOfNodes = transport.getSize();
+		this.log = new RankLog(nodeRank, System.getProperty("parallelrepast.logs", "logs"), 
+			RankLog.parseLevel(logLevel));
+
+		nodeAgentCounts = new int[numberOfNodes];
+		nodeAgentStarts = new int[numberOfNodes];
+		batchLengths = new int[numberOfNodes];
+		batchStarts = new int[numberOfNodes];
+		wireLengths = new int[numberOfNodes];
+		wireStarts = new int[numberOfNodes];
                 
 		// For node zero, set up the model name and user interface.
-		// for other nodes, set up the Agent list of an even size, 
-		// but remember that if numberOfNodes is not a factor of totalNumberOfAgents
-		// there is a remainder that needs to be taken up by the last node.
+		// For other nodes, the Agent list is set up once node zero 
+		// has said how many Agents each node gets.
  
 		if (nodeRank == 0) {
 
 			name = "Model";
+			params = new String[] {"SyncInterval", "DeltaSync", "Pipelined", "NodeZeroWeight", 
+				"NodeWeights", "Partitioning", "RebalanceInterval", "RebalanceThreshold", 
+				"SpatialDecomposition", "HaloWidth", "MoveDistance", "Threads", "LogLevel", 
+				"TimingInterval", "TimingFile", "TimingGraph", "TotalNumberOfAgents", 
+				"DistributedInit", "Seed", "DisplayInterval", "StopAt", "CheckpointInterval", 
+				"CheckpointDir", "RestartFrom", "OutputInterval", "OutputDir", "OutputFields", 
+				"WireEncoding", "CompressAbove"};
 			localAgentList = new Agent[totalNumberOfAgents]; 
                         
 				// AJE XXXX It's a bit clunky to have this as well as the
@@ -104,17 +208,193 @@ public class Model extends SimpleModel {
 				// but need to work out the equivalent to arraycopy.
 			
 
-		} else if (nodeRank < (numberOfNodes - 1)) {
+		}	
 
-			localAgentList = new Agent[nodeChunkSize];
-		
+    	}
 
-		} else { // final node
 
-			localAgentList = new Agent[finalNodeChunkSize];
 
-		}	
-    	}
+
+
+	/**
+	 * Sets up how many agents each node has, and works out where each node's 
+	 * agents start in the full list, which is what Scatterv and Gatherv need. 
+	 * Node zero's agents, if it has any, are the first in the list. On other 
+	 * nodes, this also sets up the localAgentList to fit.
+	**/
+	private void setUpPartition(int[] counts) {
+
+		int largest = 0;
+		int start = 0;
+		for (int i = 0; i < numberOfNodes; i++) {
+			nodeAgentCounts[i] = counts[i];
+			nodeAgentStarts[i] = start;
+			start = start + counts[i];
+			if ((i > 0) && (counts[i] > largest)) {
+				largest = counts[i];
+			}
+		}
+
+		if ((nodeRank != 0) && ((localAgentList == null) || (localAgentList.length != nodeAgentCounts[nodeRank]))) {
+			localAgentList = new Agent[nodeAgentCounts[nodeRank]];
+		}
+
+		// A buffer big enough for the largest chunk will do for 
+		// packing any node's agents.
+
+		agentBuffer.ensureCapacity(agentCodec, largest);
+		agentBuffer.ensureChangesCapacity(agentCodec, largest);
+
+	}
+
+
+
+
+
+	/**
+	 * On node zero, splits the Agents between the nodes with the partitioner 
+	 * and puts localAgentList into the order it gives, so each node's Agents 
+	 * sit together in the list. Then tells the other nodes how many Agents 
+	 * they are getting.
+	**/
+	private void partitionAgents() {
+
+		int[] counts = new int[numberOfNodes];
+		if (isLocalInit()) {
+
+			// The Agents don't exist yet, so just split the numbers, 
+			// by area with a spatial decomposition.
+
+			double[] weights = getWeightsForNodes();
+			if (decomposition != null) {
+				weights[0] = 0.0;
+				for (int i = 1; i < numberOfNodes; i++) {
+					weights[i] = decomposition.getTileArea(i - 1);
+				}
+			}
+			AbstractPartitioner.splitCounts(totalNumberOfAgents, weights, counts);
+
+		} else {
+
+			int[] order = getPartitioner().partition(localAgentList, getWeightsForNodes(), counts);
+			Agent[] ordered = new Agent[localAgentList.length];
+			for (int i = 0; i < order.length; i++) {
+				ordered[i] = localAgentList[order[i]];
+			}
+			localAgentList = ordered;
+
+		}
+
+		setUpPartition(counts);
+		try {
+			transport.bcast(counts, 0, numberOfNodes, 0);
+		} catch (TransportException transportE) {
+			transportE.printStackTrace();
+		}
+
+	}
+
+
+
+
+
+	/**
+	 * On other nodes, gets the number of agents each node has from node zero's 
+	 * partitionAgents().
+	**/
+	private void receivePartition() {
+
+		int[] counts = new int[numberOfNodes];
+		try {
+			transport.bcast(counts, 0, numberOfNodes, 0);
+		} catch (TransportException transportE) {
+			transportE.printStackTrace();
+		}
+		setUpPartition(counts);
+
+	}
+
+
+
+
+
+	/**
+	 * Makes the Partitioner named by the partitioning parameter: 
+	 * "block" (the default), "cyclic" or "hilbert". With a spatial 
+	 * decomposition, the Agents always go to the node with their tile.
+	**/
+	private Partitioner getPartitioner() {
+
+		if (decomposition != null) {
+			return new TilePartitioner(decomposition);
+		} else if ("cyclic".equalsIgnoreCase(partitioning)) {
+			return new CyclicPartitioner();
+		} else if ("hilbert".equalsIgnoreCase(partitioning)) {
+			return new HilbertPartitioner(width, height);
+		}
+		return new BlockPartitioner();
+
+	}
+
+
+
+
+
+	/**
+	 * If spatialDecomposition is on, splits the world into a tile for each 
+	 * node other than zero, and connects the nodes with tiles so they can 
+	 * swap halos and Agents without involving node zero. Every node must 
+	 * call this at the same time, as the communicator for the nodes with 
+	 * tiles is split off from the Model's Transport.
+	**/
+	private void setUpDecomposition() {
+
+		decomposition = null;
+		if (!spatialDecomposition || (numberOfNodes < 2)) {
+			return;
+		}
+
+		decomposition = new TorusDecomposition(width, height, numberOfNodes - 1, haloWidth);
+		try {
+			Transport tileNodes = transport.split((nodeRank == 0) ? 0 : 1, nodeRank);
+			if (nodeRank != 0) {
+				decomposition.connect(tileNodes);
+			}
+		} catch (TransportException transportE) {
+			transportE.printStackTrace();
+		}
+
+	}
+
+
+
+
+
+	/**
+	 * Gets the weight of each node's share of the Agents: nodeZeroWeight for 
+	 * node zero, and for the others the values in nodeWeights, in order, or 
+	 * one for any nodes that aren't given. If node zero is the only node, 
+	 * it has them all.
+	**/
+	private double[] getWeightsForNodes() {
+
+		double[] weights = new double[numberOfNodes];
+		weights[0] = (numberOfNodes == 1) ? 1.0 : nodeZeroWeight;
+		for (int i = 1; i < numberOfNodes; i++) {
+			weights[i] = 1.0;
+		}
+
+		StringTokenizer tokens = new StringTokenizer(nodeWeights, ", ");
+		for (int i = 1; (i < numberOfNodes) && tokens.hasMoreTokens(); i++) {
+			try {
+				weights[i] = Math.max(0.0, Double.parseDouble(tokens.nextToken()));
+			} catch (NumberFormatException nfe) {
+				nfe.printStackTrace();
+			}
+		}
+		return weights;
+
+	}
 
 
 
@@ -129,6 +409,38 @@ public class Model extends SimpleModel {
          * method itself directly, and we can't(?) do method calls across processors,
          * this method allows node zero to use variable setting to initiate method
          * calls on other processors.<P>
+         * Command "5" is the run-ahead command. It comes with a second int, the 
+         * number of ticks to run, and the node runs them all without waiting 
+         * to be told about each phase, only meeting node zero again when it 
+         * hands its agents back at the end, unless command "14" has said 
+         * not to with a zero, as node zero isn't drawing them that often.<BR>
+         * The int sent with the postStep command "4", and command "6", say whether 
+         * the next time the agents are sent back to node zero it should be just the 
+         * ones that have changed (1) or all of them (0). With the postStep command 
+         * only, "2" says to send them all without waiting, for pipelining.<BR>
+         * Command "7" runs <CODE>rebalance()</CODE>, and command "8" sets the number 
+         * of threads stepping Agents to the int sent with it.<BR>
+         * Command "10" sets the level of the node's RankLog, from RankLog.OFF to 
+         * RankLog.TRACE, to the int sent with it. Command "11" runs 
+         * <CODE>reportTiming()</CODE>. Command "12" sets the seed the random 
+         * numbers come from to the int sent with it, and command "13" says 
+         * whether the next buildModel is to make the node's own Agents (1) or 
+         * not (0).<BR>
+         * Commands "15" and "17" come with the length of a String, which follows 
+         * as a broadcast of that many chars, from <CODE>sendString()</CODE>: 
+         * the directory to write checkpoints to, and the checkpoint the next 
+         * buildModel restarts from, if any. Command "16" runs <CODE>checkpoint()</CODE>.<BR>
+         * Command "18" is the same, for the directory each node writes its Agents 
+         * to, and commands "19" and "20" send the mask of fields written and the 
+         * number of ticks between writing them, for the next buildModel.<BR>
+         * Command "21" sets up the WireCodec for the batches of Agents sent to 
+         * and from node zero: zero for none, or one more than compressAbove.<BR>
+         * Command "22" sets moveDistance, how far the Agents move each tick, 
+         * to the int sent with it, and command "23" says whether Agents the 
+         * next buildModel makes for itself are sent back to node zero to be 
+         * drawn (1) or not (0).<BR>
+         * The int sent with the buildModel command "1" is zero, or one more than 
+         * the halo width if the world is to be split into tiles.</P>
          * <P>To do</P>
          * <UL>
          * <LI>Not totally convinced the ints need wrapping in arrays...</LI>
@@ -137,7 +449,7 @@ public class Model extends SimpleModel {
 	public void waitForCommands () {
 
 		int whatToDo = 0;
-		int[] whatToDoArray = new int[1];
+		int[] whatToDoArray = new int[2];
 		whatToDoArray[0] = 0;
 
 		// Loop until whatToDo equal to a message to end - in this case "9".
@@ -148,10 +460,12 @@ public class Model extends SimpleModel {
 
 			try {
 
-			MPI.COMM_WORLD.Recv(whatToDoArray, 0, 1,  MPI.INT, 0, 50);
+			timer.enter(PhaseTimer.WAIT);
+			transport.bcast(whatToDoArray, 0, 2, 0);
+			timer.enter(PhaseTimer.OTHER);
 
-			} catch (MPIException mpiE) {
-				mpiE.printStackTrace();
+			} catch (TransportException transportE) {
+				transportE.printStackTrace();
 			} 
 
 			// Convert message into int.
@@ -176,6 +490,8 @@ public class Model extends SimpleModel {
 					break;
 
 				case (1) :
+					spatialDecomposition = (whatToDoArray[1] > 0);
+					haloWidth = Math.max(0, whatToDoArray[1] - 1);
 					buildModel();
 					break;
 				
@@ -188,14 +504,95 @@ public class Model extends SimpleModel {
 					break;
 
 				case (4) :
-					postStep();
+					changesOnly = (whatToDoArray[1] == 1);
+					if (whatToDoArray[1] == 2) {
+						sendAgentsAhead();
+					} else {
+						postStep();
+					}
+					break;
+
+				case (5) :
+					runAhead(whatToDoArray[1]);
+					break;
+
+				case (6) :
+					changesOnly = (whatToDoArray[1] == 1);
 					break;
 
+				case (7) :
+					rebalance();
+					break;
+
+				case (8) :
+					setThreads(whatToDoArray[1]);
+					break;
 
 				case (9) :
 					atEnd();
 					break;
 
+				case (10) :
+					log.setLevel(whatToDoArray[1]);
+					break;
+
+				case (11) :
+					reportTiming();
+					break;
+
+				case (12) :
+					setSeed(whatToDoArray[1]);
+					break;
+
+				case (13) :
+					distributedInit = (whatToDoArray[1] == 1);
+					break;
+
+				case (14) :
+					gatherAtSync = (whatToDoArray[1] == 1);
+					break;
+
+				case (15) :
+					checkpointDir = receiveString(whatToDoArray[1]);
+					break;
+
+				case (16) :
+					checkpoint();
+					break;
+
+				case (17) :
+					openRestart(receiveString(whatToDoArray[1]));
+					break;
+
+				case (18) :
+					outputDir = receiveString(whatToDoArray[1]);
+					break;
+
+				case (19) :
+					outputFields = "";
+					for (int i = 0; i < AgentOutput.FIELDS.length; i++) {
+						if ((whatToDoArray[1] & (1 << i)) != 0) {
+							outputFields = outputFields + AgentOutput.FIELDS[i] + ",";
+						}
+					}
+					break;
+
+				case (20) :
+					outputInterval = whatToDoArray[1];
+					break;
+
+				case (21) :
+					setUpWireCodec(whatToDoArray[1]);
+					break;
+
+				case (22) :
+					setMoveDistance(whatToDoArray[1]);
+					break;
+
+				case (23) :
+					drawAtBuild = (whatToDoArray[1] == 1);
+					break;
+
 			} // End of switch.
 
 		} // End of while.
@@ -211,30 +608,45 @@ public class Model extends SimpleModel {
 	 * preStep(), step() or postStep() etc, depending on int whatToDo passed in. Remember that  
 	 * these nodes are waiting in the waitForCommands method, and this is where this message 
    	 * should be picked up.<BR> 
-	 * The waitForCommands method will then call this method on nodes greater than zero. 
+	 * The waitForCommands method will then call this method on nodes greater than zero.<P>
+	 * The command goes out as a broadcast from node zero rather than a Send to each node 
+	 * in turn, so the MPI library can fan it out as a tree and the cost grows with the 
+	 * log of the number of nodes rather than linearly. Because it is a collective, every 
+	 * other node must be sat in the matching Bcast in waitForCommands.</P>
 	**/  
 	public void sendCommand(int whatToDo) {
 
-		int[] whatToDoArray = new int[whatToDo];
-		whatToDoArray[0] = whatToDo;
+		sendCommand(whatToDo, 0);
 
-		for (int i = 1; i < numberOfNodes; i++) {
+	}
 
-	    		try {
 
-     		    		MPI.COMM_WORLD.Send(whatToDoArray, 0, 1,  MPI.INT, i, 50);	
 
-			} catch (MPIException mpiE) {
-					
-				mpiE.printStackTrace();
 
-			} catch (Exception e) {
-					
-				e.printStackTrace();
 
-			}
-		   	    
-		}  // end for
+	/**
+	 * As sendCommand(int), but with an int argument for the command to use, 
+	 * for example the number of ticks for a run-ahead.
+	**/  
+	public void sendCommand(int whatToDo, int argument) {
+
+		int[] whatToDoArray = new int[2];
+		whatToDoArray[0] = whatToDo;
+		whatToDoArray[1] = argument;
+
+    		try {
+
+     		    	transport.bcast(whatToDoArray, 0, 2, 0);	
+
+		} catch (TransportException transportE) {
+				
+			transportE.printStackTrace();
+
+		} catch (Exception e) {
+				
+			e.printStackTrace();
+
+		}
 
 	} // end what to do
 
@@ -242,6 +654,54 @@ public class Model extends SimpleModel {
 
 
 
+	/**
+	 * From node zero, sends a command with the length of a String, such as a 
+	 * file name, and then the String itself, as a broadcast of its chars. 
+	 * The other nodes get it with <CODE>receiveString()</CODE>.
+	**/  
+	private void sendString(int whatToDo, String text) {
+
+		int[] chars = new int[text.length()];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = text.charAt(i);
+		}
+		sendCommand(whatToDo, chars.length);
+		try {
+			transport.bcast(chars, 0, chars.length, 0);
+		} catch (TransportException transportE) {
+			transportE.printStackTrace();
+		}
+
+	}
+
+
+
+
+
+	/**
+	 * On other nodes, gets the String of the given length sent after a 
+	 * command by <CODE>sendString()</CODE>.
+	**/  
+	private String receiveString(int length) {
+
+		int[] chars = new int[length];
+		try {
+			transport.bcast(chars, 0, length, 0);
+		} catch (TransportException transportE) {
+			transportE.printStackTrace();
+		}
+		StringBuffer text = new StringBuffer(length);
+		for (int i = 0; i < length; i++) {
+			text.append((char) chars[i]);
+		}
+		return text.toString();
+
+	}
+
+
+
+
+
 	/** 
 	 * This is needed by Repast - it sets up the initial display.
      * This is only done on node zero, as all other nodes wait 
@@ -250,6 +710,10 @@ public class Model extends SimpleModel {
     	public void setup() {
 
 	  	super.setup();   
+		if (batch) {
+			dsurf = null; // Nothing to draw, so the Agents stay on their nodes.
+			return;
+		}
 		dsurf = new DisplaySurface(this, "Model Display" );
 	        registerDisplaySurface("Model Display", dsurf);            
 
@@ -262,7 +726,20 @@ public class Model extends SimpleModel {
     /** 
 	 * This is needed by Repast - it sets up the initial model.
      * This is only done on node zero, as all other nodes wait 
-     * at the constructor code.
+     * at the constructor code.<P>
+     * Usually node zero makes all the Agents and sends each node its share. 
+     * With distributedInit on, node zero just tells each node how many 
+     * Agents it has, and they make them at the same time, in 
+     * <CODE>makeAgents()</CODE>, so starting up doesn't wait on node zero 
+     * or need all the Agents in its memory at once. If there's a display, 
+     * node zero then gathers them once, with just their x, y and value, to 
+     * draw them; otherwise it leaves them where they are. Either way, it gets 
+     * them in full the next time it gathers them, to draw or rebalance.</P>
+     * <P>If restartFrom names a checkpoint, the run instead carries on from 
+     * its tick, with its seed and Agents, on however many nodes there are 
+     * now. Each node reads its own share from the checkpoint's files, as in 
+     * <CODE>makeAgents()</CODE>, except with a spatial decomposition, when 
+     * node zero reads them all and sends them to the tiles they're in.</P>
 	**/      
 	public void buildModel() {
 		
@@ -271,44 +748,240 @@ public class Model extends SimpleModel {
 
 		if (nodeRank == 0) { 	
                     
-			sendCommand(1);	// Tell other nodes to buildModel.
+			sendCommand(10, log.getLevel()); // Tell other nodes what to log.
+			sendCommand(8, threads); // Tell other nodes how many threads to step with.
+			sendCommand(22, moveDistance); // And how far the agents move.
+			openRestart(restartFrom);
+			if (seed == 0) {
+				setSeed((int) System.currentTimeMillis());
+			}
+			sendCommand(12, seed); // Tell other nodes where random numbers come from.
+			sendCommand(13, distributedInit ? 1 : 0); // Tell other nodes whether to make their own agents, 
+			drawAtBuild = (dsurf != null) && (displayInterval > 0);
+			sendCommand(23, drawAtBuild ? 1 : 0); // and whether to send them back to be drawn.
+			sendString(15, checkpointDir); // Tell other nodes where checkpoints go.
+			sendString(17, (restart != null) ? restart.getPath() : ""); // And whether to restart from one.
+			sendString(18, outputDir); // Tell other nodes where to write their agents out, 
+			sendCommand(19, AgentOutput.parseFields(outputFields)); // which fields, 
+			sendCommand(20, outputInterval); // and how often.
+			setUpWireCodec(wireEncoding ? compressAbove + 1 : 0);
+			sendCommand(21, wireEncoding ? compressAbove + 1 : 0); // Tell other nodes how to encode agents.
+			sendCommand(1, spatialDecomposition ? haloWidth + 1 : 0);	// Tell other nodes to buildModel.
 			world = new Object2DTorus(width, height);
+			openTimingReport();
+			openOutput();
+
+			if (isLocalInit()) {
+
+				// Split the numbers, make node zero's share, if it has one, 
+				// and get just enough of the rest back from the other nodes 
+				// to draw them, if there's anything to draw them on. Node 
+				// zero hasn't got them in full, so the next gather is too.
+
+				buildDisplay();
+				setUpDecomposition();
+				partitionAgents();
+				makeAgents();
+				changesOnly = false;
+				if (numberOfNodes > 1) {
+					if (drawAtBuild) {
+						gatherAllAgents(displayCodec);
+					}
+					requestResync();
+				}
+				for (int i = 0; i < localAgentList.length; i++) {
+					if (localAgentList[i] != null) {
+						world.putObjectAt(localAgentList[i].getX(), localAgentList[i].getY(), localAgentList[i]);
+					}
+				}
+				if (numberOfNodes == 1) {
+					agentList.clear();
+					agentList.addAll(Arrays.asList(localAgentList));
+				}
+				return;
+
+			}
 
-                        // Build the Agents and store them on node zero for the mo.
+                        // Build the Agents, or read them from the checkpoint, 
+                        // and store them on node zero for the mo.
                         
+			if (restart != null) {
+				try {
+					restart.read(0, totalNumberOfAgents, localAgentList, 0);
+				} catch (IOException ioe) {
+					ioe.printStackTrace();
+				}
+			}
+			RandomStream random = new RandomStream(seed);
 			for ( int i = 0; i < totalNumberOfAgents; i++ ) {
-                		int x = (int) (Math.random() * (double) width);
-                		int y = (int) (Math.random() * (double) height);
-                		Agent agent = new Agent(x, y);
-                		agentList.add(agent);
-				localAgentList[i] = agent;	// This double set of arrays is clunky.
-				world.putObjectAt(x, y, agent);
+				if (restart == null) {
+					random.reset(i, 0); // The same place and ID makeAgents() would give it.
+                			int x = random.nextInt(width);
+                			int y = random.nextInt(height);
+                			localAgentList[i] = new Agent(x, y, i);
+				}
+                		Agent agent = localAgentList[i];
+                		agentList.add(agent);	// This double set of arrays is clunky.
+				world.putObjectAt(agent.getX(), agent.getY(), agent);
             		}
 			
 			buildDisplay();
+			setUpDecomposition(); // Splits the world into tiles, if wanted.
+			partitionAgents(); // Works out which agents go to which nodes.
 			setAgents(localAgentList); // Sends agents out to nodes.
 			
 			
 			
 		} else {
                     
-			// If other nodes, get in sent agents.
+			// If other nodes, find out how many agents are coming, 
+			// then get in sent agents and rebuild them from their ints.
                     
-			int size = localAgentList.length;					
+			openOutput();
+			setUpDecomposition();
+			receivePartition();
+			if (isLocalInit()) {
+				makeAgents();
+				if (decomposition != null) {
+					fillCells();
+				}
+				changesOnly = false;
+				if (drawAtBuild) {
+					returnAgents(displayCodec); // Just what node zero needs to draw them.
+				}
+				return;
+			}
+			setBatchLayout(agentCodec);
 			try {
- 				MPI.COMM_WORLD.Recv(localAgentList, 0, size, MPI.OBJECT, 0, 50);
-			} catch (MPIException mpiE) {
-				mpiE.printStackTrace();
+				if (wireCodec != null) {
+					receiveEncoded();
+				} else {
+ 					transport.scatterv(noInts, 0, batchLengths, batchStarts, 
+						agentBuffer.getInts(), 0, batchLengths[nodeRank], 0);
+				}
+			} catch (TransportException transportE) {
+				transportE.printStackTrace();
+			}
+			int phase = timer.enter(PhaseTimer.SERIALIZE);
+			agentBuffer.decode(agentCodec, localAgentList, 0);
+			timer.enter(phase);
+			if (decomposition != null) {
+				fillCells();
 			}
 			
-			for (int i = 0; i < localAgentList.length; i++) {			
-				System.out.println("node = " + nodeRank + ": Agent " + localAgentList[i].getId() + " Value = " + localAgentList[i].getValue() + " RECEIVED ");
+			if (log.isEnabled(RankLog.TRACE)) {
+				for (int i = 0; i < localAgentList.length; i++) {			
+					log.log(RankLog.TRACE, "node = " + nodeRank + ": Agent " + localAgentList[i].getId() + " Value = " + localAgentList[i].getValue() + " RECEIVED ");
 				
+				}
 			}
 		}
 
 
      	} // End of buildModel.
+
+
+
+
+
+	/**
+	 * Makes this node's share of the Agents, with distributedInit on, at 
+	 * random places in the world, or in the node's tile with a spatial 
+	 * decomposition.<P>
+	 * Each Agent's ID is its place in the whole list, counting from the 
+	 * start of the node's share, so the nodes make IDs that never clash 
+	 * without having to agree on them, or share <CODE>Agent.n</CODE>. 
+	 * Its place comes from the RandomStream for the seed node zero sent 
+	 * out, keyed by its ID, so without a spatial decomposition the Agents 
+	 * are where node zero would have put them, whatever the number of nodes.</P>
+	 * <P>When restarting, the node's share is read from the checkpoint 
+	 * instead, the same run of the whole list it would have made.</P>
+	**/
+	private void makeAgents() {
+
+		int count = nodeAgentCounts[nodeRank];
+		int firstId = nodeAgentStarts[nodeRank];
+		if (restart != null) {
+			try {
+				restart.read(firstId, count, localAgentList, 0);
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+			return;
+		}
+		int[] bounds = (decomposition != null) ? decomposition.getBounds() : new int[] {0, 0, width, height};
+		RandomStream random = new RandomStream(seed);
+
+		for (int i = 0; i < count; i++) {
+			random.reset(firstId + i, 0);
+			int x = bounds[0] + random.nextInt(bounds[2] - bounds[0]);
+			int y = bounds[1] + random.nextInt(bounds[3] - bounds[1]);
+			localAgentList[i] = new Agent(x, y, firstId + i); // Node zero's share starts at zero.
+		}
+
+	}
+
+
+
+
+
+	/**
+	 * Gets whether each node makes its own Agents when the model is built, 
+	 * with distributedInit on, or reads its own from the checkpoint it's 
+	 * restarting from. With a spatial decomposition, node zero reads the 
+	 * checkpoint, as each Agent has to go to the node with its tile. 
+	 * Either way, node zero only gets the Agents back to draw them, with 
+	 * the DisplayAgentCodec, until it next needs them all.
+	**/
+	private boolean isLocalInit() {
+
+		if (restart != null) {
+			return !spatialDecomposition;
+		}
+		return distributedInit;
+
+	}
+
+
+
+
+
+	/**
+	 * Reads the manifest of the checkpoint at the path, if it isn't empty, 
+	 * for the next buildModel to restart from, and carries on the tick 
+	 * count from it. On node zero, this also takes the seed and number of 
+	 * Agents from it, which are sent to the other nodes, and if given a 
+	 * directory, picks the latest checkpoint in it. If the checkpoint can't 
+	 * be read, the run starts from the beginning.
+	**/
+	private void openRestart(String path) {
+
+		restart = null;
+		checkpointTicks[0] = -1; // Don't delete the checkpoints of an earlier run.
+		checkpointTicks[1] = -1;
+		if (path.length() > 0) {
+			try {
+				restart = new Checkpoint(path);
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+		}
+		if (restart == null) {
+			return;
+		}
+
+		modelIteration = restart.getTick();
+		if (nodeRank == 0) {
+			setSeed(restart.getSeed());
+			setTotalNumberOfAgents(restart.getAgentCount());
+			lastGather = modelIteration;
+			lastRebalance = modelIteration;
+			lastCheckpoint = modelIteration;
+			log.log(RankLog.INFO, "Restarting from " + restart.getPath() + " at tick " + modelIteration 
+				+ ", written by " + restart.getNodes() + " nodes");
+		}
+
+	}
  
  
 
@@ -319,7 +992,10 @@ public class Model extends SimpleModel {
 	 * On node zero, the method sends out messages to 
    	 * the other nodes telling them to preStep(). Remember that these nodes are waiting 
  	 * in the waitForCommands method, and this is where this message should be picked up. 
-	 * That method will then call this method on nodes greater than zero. 
+	 * That method will then call this method on nodes greater than zero.<P>
+	 * If the syncInterval is greater than one, node zero instead sends a single 
+	 * run-ahead command at the start of each block of syncInterval ticks, and 
+	 * sends nothing else until the block is over.</P>
 	**/  
 	public void preStep() {
 
@@ -329,14 +1005,28 @@ public class Model extends SimpleModel {
         	modelIteration++;
 
 		if (nodeRank == 0) {
-			sendCommand(2);
+			if (runAheadRemaining > 0) {
+				// Other nodes are already running this tick.
+			} else if (syncInterval > 1) {
+				drainPipeline();
+				runAheadRemaining = syncInterval;
+				gatherAtSync = isGatherDue(modelIteration + syncInterval - 1);
+				changesOnly = getChangesOnly();
+				sendCommand(14, gatherAtSync ? 1 : 0); // Whether to send agents back at the end.
+				sendCommand(6, changesOnly ? 1 : 0); // How to send agents back at the end.
+				sendCommand(5, syncInterval); // Run ahead syncInterval ticks.
+			} else {
+				sendCommand(2);
+			}
 		}
 
 		// This is where you'd do the preStep work on all the nodes 
 		// or all the nodes except zero, depending on whether you want 
   	 	// to use zero for processing.
 
-		System.out.println("Prestep done on processor " + nodeRank + " for model iteration " + modelIteration);
+		if (log.isEnabled(RankLog.DEBUG)) {
+			log.log(RankLog.DEBUG, "Prestep done on processor " + nodeRank + " for model iteration " + modelIteration);
+		}
 	
     
 	} // End of preStep.
@@ -350,23 +1040,27 @@ public class Model extends SimpleModel {
 	 * On node zero, the method sends out messages to 
    	 * the other nodes telling them to step(). Remember that these nodes are waiting 
  	 * in the waitForCommands method, and this is where this message should be picked up. 
-	 * That method will then call this method on nodes greater than zero. 
+	 * That method will then call this method on nodes greater than zero.<P>
+	 * Node zero steps its own share of the Agents, if it has one, after 
+	 * telling the other nodes to step theirs.</P>
 	**/  
     public void step() {
 
 		if (nodeRank == 0) {
                     
-			sendCommand(3); // Run step.
+			if (runAheadRemaining == 0) {
+				sendCommand(3); // Run step.
+			}
+			stepAgents(0, nodeAgentCounts[0]);
+			writeOutput();
                         
 		} else {
 
-			// Do something on each other node (in this case, increment the
-                        // agents internal value).
-
-			for (int i = 0; i < localAgentList.length; i++) {
-				localAgentList[i].incrementValue();
-				System.out.println("Agent " + localAgentList[i].getId() + " value = " + localAgentList[i].getValue());
+			stepAgents(0, localAgentList.length);
+			if (decomposition != null) {
+				exchangeSpace();
 			}
+			writeOutput();
 
 		}
 
@@ -374,7 +1068,9 @@ public class Model extends SimpleModel {
 		// or all the nodes except zero, depending on whether you want 
   	 	// to use zero for processing.
 
-		System.out.println("Step done on processor " + nodeRank + " for model iteration " + modelIteration);
+		if (log.isEnabled(RankLog.DEBUG)) {
+			log.log(RankLog.DEBUG, "Step done on processor " + nodeRank + " for model iteration " + modelIteration);
+		}
 
      } // End of step.
 
@@ -387,30 +1083,84 @@ public class Model extends SimpleModel {
 	 * On node zero, the method sends out messages to 
    	 * the other nodes telling them to postStep(). Remember that these nodes are waiting 
  	 * in the waitForCommands method, and this is where this message should be picked up. 
-	 * That method will then call this method on nodes greater than zero. 
+	 * That method will then call this method on nodes greater than zero.<P>
+	 * If deltaSync is on, the other nodes only send back the Agents that have 
+	 * changed since they last sent them, unless a resync has been requested.</P>
+	 * <P>With a spatial decomposition the other nodes always send all 
+	 * their Agents, as which Agents each node has changes as they move, 
+	 * and pipelining and rebalancing are off for the same reason.</P>
+	 * <P>If pipelined is on, the other nodes send all their Agents back without 
+	 * waiting for node zero to get them, and go straight on to the next tick. 
+	 * Node zero starts receiving them, but only waits for, and displays, the 
+	 * previous tick's Agents. The display is therefore always exactly one tick 
+	 * behind the model, never more, in exchange for the other nodes no longer 
+	 * sitting idle while node zero gathers and redraws.</P>
+	 * <P>Node zero only gets the Agents back on ticks it draws them, every 
+	 * displayInterval ticks, or when it needs them to rebalance, so the 
+	 * model can run faster than the display. Without a display, in batch 
+	 * mode, that's never, unless asked with <CODE>refreshAgents()</CODE>. 
+	 * Pipelining then shows the Agents from the last tick drawn. The 
+	 * Agents the other nodes keep always stay up to date.</P>
 	**/  
 	public void postStep() {
 		
 		// In this example, we get back a value from each Agent 
 		// on the other nodes and display it.
 		
+		// When running ahead, node zero only gets the agents back at the 
+		// end of the block.
+		
 		if (nodeRank == 0) {
 					
-			sendCommand(4);  // Run post-step.   
+			if (runAheadRemaining > 0) {
+				runAheadRemaining--;
+				if ((runAheadRemaining == 0) && gatherAtSync) {
+					lastGather = modelIteration;
+					gatherAgents();
+					updateDisplay();
+				}
+			} else if (!isGatherDue(modelIteration)) {
+				// Not drawing this tick, so leave the agents where they are.
+			} else if (pipelined && (decomposition == null)) {
+				lastGather = modelIteration;
+				changesOnly = false;
+				sendCommand(4, 2);  // Run post-step, pipelined.   
+				if (pipelineAgents()) {
+					updateDisplay();
+				}
+			} else {
+				lastGather = modelIteration;
+				drainPipeline();
+				changesOnly = getChangesOnly();
+				sendCommand(4, changesOnly ? 1 : 0);  // Run post-step.   
+				gatherAgents();		
+				updateDisplay();
+			}
+
+			if ((runAheadRemaining == 0) && (rebalanceInterval > 0) && (decomposition == null) 
+					&& (modelIteration - lastRebalance >= rebalanceInterval)) {
+				lastRebalance = modelIteration;
+				rebalance();
+			}
+
+			if ((runAheadRemaining == 0) && (timingInterval > 0) 
+					&& (modelIteration - lastTimingReport >= timingInterval)) {
+				reportTiming();
+			}
+
+			if ((runAheadRemaining == 0) && (checkpointInterval > 0) 
+					&& (modelIteration - lastCheckpoint >= checkpointInterval)) {
+				checkpoint();
+			}
+
+			if ((stopAt > 0) && (runAheadRemaining == 0) && (modelIteration >= stopAt)) {
+				stop();
+			}
 						
 		} else {								
-			try {
-				MPI.COMM_WORLD.Send(localAgentList, 0, localAgentList.length, MPI.OBJECT, 0, 50);
-				System.out.println("Processor " + nodeRank + " sending agents to node 0");				
-			} catch (MPIException mpiE) {
-				mpiE.printStackTrace();
-			} 
 
-		}
-		if (nodeRank == 0) {			
-			getAgents(localAgentList);		
-		
-				dsurf.updateDisplay();
+			returnAgents();
+
 		}
 	
 			
@@ -419,26 +1169,1813 @@ public class Model extends SimpleModel {
 		// or all the nodes except zero, depending on whether you want 
   	 	// to use zero for processing.
 
-		System.out.println("poststep done on processor " + nodeRank + " for model iteration " + modelIteration);
+		if (log.isEnabled(RankLog.DEBUG)) {
+			log.log(RankLog.DEBUG, "poststep done on processor " + nodeRank + " for model iteration " + modelIteration);
+		}
 
     } // End of postStep.
 
 
 
 
-        
-    /**
-     * Builds the basic model-display Objects.
-    **/
-	private void buildDisplay() {
-        	agentDisplay = new Object2DDisplay( world );
-		//agentDisplay.reSize(300,300);	
-        	agentDisplay.setObjectList( agentList );             
-        	dsurf.addDisplayableProbeable ( agentDisplay, "Agents" );   
-        	addSimEventListener(dsurf);
-		dsurf.display();                
-    }
-
+
+	/**
+	 * Called on nodes other than zero by the run-ahead command.
+	 * Runs the given number of ticks as single supersteps, doing the 
+	 * preStep, step and postStep work without waiting for a command 
+	 * between each, and then hands the agents back to node zero. 
+	 * Node zero picks them up in the postStep at the end of its block.
+	**/
+	private void runAhead(int ticks) {
+
+		for (int t = 0; t < ticks; t++) {
+
+			modelIteration++;
+			stepAgents(0, localAgentList.length);
+			if (decomposition != null) {
+				exchangeSpace();
+			}
+			writeOutput();
+			if (log.isEnabled(RankLog.DEBUG)) {
+				log.log(RankLog.DEBUG, "Run-ahead tick done on processor " + nodeRank + " for model iteration " + modelIteration);
+			}
+
+		}
+
+		if (gatherAtSync) {
+			returnAgents();
+		}
+
+	} // End of runAhead.
+
+
+
+
+
+	/**
+	 * On node zero, gets whether the Agents are wanted back at the end of 
+	 * the given tick: to draw them, every displayInterval ticks if there's 
+	 * a display, or to rebalance them.
+	**/
+	private boolean isGatherDue(int tick) {
+
+		boolean rebalanceDue = (rebalanceInterval > 0) && (decomposition == null) 
+			&& (tick - lastRebalance >= rebalanceInterval);
+		boolean displayDue = (dsurf != null) && (displayInterval > 0) 
+			&& (tick - lastGather >= displayInterval);
+		return rebalanceDue || displayDue;
+
+	}
+
+
+
+
+
+	/**
+	 * On node zero, gets the Agents back from the other nodes now, whether 
+	 * or not they're due to be drawn, for example to look at them in batch 
+	 * mode. This has to be called between ticks, and does nothing part way 
+	 * through a run-ahead block, as the other nodes are still running it.
+	**/
+	public void refreshAgents() {
+
+		if ((nodeRank != 0) || (runAheadRemaining > 0)) {
+			return;
+		}
+		drainPipeline();
+		changesOnly = getChangesOnly();
+		sendCommand(4, changesOnly ? 1 : 0);
+		gatherAgents();
+
+	}
+
+
+
+
+
+	/**
+	 * Does the step work on <CODE>count</CODE> of the local agents, starting at 
+	 * <CODE>from</CODE>, by calling <CODE>stepAgent()</CODE> on each, split 
+	 * between the threads if there's more than one.
+	**/
+	private void stepAgents(int from, int count) {
+
+		long start = System.nanoTime();
+		int phase = timer.enter(PhaseTimer.COMPUTE);
+		if (stepper == null) {
+			stepper = new ThreadedStepper(threads);
+		}
+		stepper.step(localAgentList, from, count, this);
+		timer.enter(phase);
+		stepNanos = stepNanos + (System.nanoTime() - start);
+
+	}
+
+
+
+
+
+	/**
+	 * Does the step work for one Agent (in this case, increment the agents 
+	 * internal value, and move it if moveDistance is more than zero).<P>
+	 * This can be called on several threads at once for different Agents, 
+	 * so it has to keep to the contract in AgentBehaviour: it only changes 
+	 * the Agent it is given, and only reads things, like moveDistance, 
+	 * the size of the world and the cells of the node's tile, that don't 
+	 * change during the step.</P>
+	**/
+	public void stepAgent(Object agent) {
+
+		Agent stepping = (Agent) agent;
+		stepping.incrementValue();
+		if (moveDistance > 0) {
+			moveAgent(stepping);
+		}
+		if (log.isEnabled(RankLog.TRACE)) {
+			log.log(RankLog.TRACE, "Agent " + stepping.getId() + " value = " + stepping.getValue());
+		}
+
+	}
+
+
+
+
+
+	/**
+	 * Moves the Agent up to moveDistance cells in x and y, wrapping round 
+	 * the edges of the world.<P>
+	 * The moves come from the thread's own RandomStream, reset for the 
+	 * Agent's ID and the tick, so threads don't queue for a shared generator 
+	 * and each Agent makes the same moves whichever node or thread steps it.</P>
+	 * <P>With a spatial decomposition, the Agent first looks at the cells 
+	 * round it, as far as it can move but no further than the halo, which 
+	 * hold the total value of the Agents in them at the end of the last 
+	 * tick. If one has less in it than the Agent's own cell, it goes to the 
+	 * emptiest, rather than moving at random, with ties settled by starting 
+	 * the search at a random cell. The cells over the edge of the tile are in its halo, so the 
+	 * Agents move the same however the world is split.</P>
+	**/
+	private void moveAgent(Agent agent) {
+
+		RandomStream random = (RandomStream) agentRandom.get();
+		random.reset(agent.getId(), modelIteration);
+		int dx = random.nextInt((2 * moveDistance) + 1) - moveDistance;
+		int dy = random.nextInt((2 * moveDistance) + 1) - moveDistance;
+		if ((decomposition != null) && (nodeRank != 0)) {
+			int side = (2 * Math.min(moveDistance, haloWidth)) + 1;
+			int start = random.nextInt(side * side);
+			int least = decomposition.getCell(agent.getX(), agent.getY());
+			for (int k = 0; k < side * side; k++) {
+				int i = ((start + k) % (side * side)) % side - (side / 2);
+				int j = ((start + k) % (side * side)) / side - (side / 2);
+				int cell = decomposition.getCell((agent.getX() + i + width) % width, 
+					(agent.getY() + j + height) % height);
+				if (cell < least) {
+					least = cell;
+					dx = i;
+					dy = j;
+				}
+			}
+		}
+		int x = (((agent.getX() + dx) % width) + width) % width;
+		int y = (((agent.getY() + dy) % height) + height) % height;
+		agent.moveTo(x, y);
+
+	}
+
+
+
+
+
+	/**
+	 * On nodes with a tile of the world, after the Agents have stepped, sends 
+	 * the Agents that have left the tile to the nodes they've moved to, and 
+	 * takes in those that have arrived. Then fills the tile's cells with the 
+	 * total value of the Agents in each, and swaps halos with the neighbouring 
+	 * tiles, so in the next step each Agent can see the cells round it with 
+	 * <CODE>decomposition.getCell()</CODE>, even across the edge of the tile.
+	**/
+	private void exchangeSpace() {
+
+		int phase = timer.enter(PhaseTimer.SERIALIZE); // Sending is timed by the Transport.
+		try {
+			localAgentList = (Agent[]) decomposition.migrate(localAgentList, agentCodec);
+		} catch (TransportException transportE) {
+			transportE.printStackTrace();
+		}
+		fillCells();
+		timer.enter(phase);
+
+	}
+
+
+
+
+
+	/**
+	 * On nodes with a tile of the world, fills the tile's cells with the 
+	 * total value of the Agents in each, and swaps halos with the 
+	 * neighbouring tiles. Done after every step, and when the model is 
+	 * built, so the first step sees the cells as a restarted run would.
+	**/
+	private void fillCells() {
+
+		decomposition.clearCells();
+		for (int i = 0; i < localAgentList.length; i++) {
+			int x = localAgentList[i].getX();
+			int y = localAgentList[i].getY();
+			decomposition.setCell(x, y, decomposition.getCell(x, y) + localAgentList[i].getValue());
+		}
+		try {
+			decomposition.exchangeHalos();
+		} catch (TransportException transportE) {
+			transportE.printStackTrace();
+		}
+
+	}
+
+
+
+
+
+	/**
+	 * On every node, when the model is built, opens the files the node 
+	 * writes its Agents to, if outputInterval is more than zero. They're 
+	 * started again, except when restarting, when they're added to, after 
+	 * cutting them back to the checkpoint's tick. Node zero also cuts back 
+	 * the files of any nodes the run had before that it doesn't now, which 
+	 * hold Agents up to the checkpoint.
+	**/
+	private void openOutput() {
+
+		closeOutput();
+		int fields = AgentOutput.parseFields(outputFields);
+		if ((outputInterval <= 0) || (fields == 0)) {
+			return;
+		}
+		File directory = new File(outputDir);
+		try {
+			if (restart != null) {
+				AgentOutput.trim(directory, nodeRank, restart.getTick());
+				for (int rank = numberOfNodes; (nodeRank == 0) 
+						&& new File(directory, AgentOutput.getIndexName(rank)).exists(); rank++) {
+					AgentOutput.trim(directory, rank, restart.getTick());
+				}
+			}
+			output = new AgentOutput(directory, nodeRank, fields, restart != null);
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		}
+
+	}
+
+
+
+
+
+	/**
+	 * After the step, every outputInterval ticks, writes the outputFields 
+	 * of this node's own Agents to its files, without involving the other 
+	 * nodes, so every node writes at once. AgentOutputReader puts the nodes' 
+	 * files back together.
+	**/
+	private void writeOutput() {
+
+		if ((output == null) || (modelIteration % outputInterval != 0)) {
+			return;
+		}
+		int count = (nodeRank == 0) ? nodeAgentCounts[0] : localAgentList.length;
+		int phase = timer.enter(PhaseTimer.SERIALIZE);
+		try {
+			output.write(modelIteration, localAgentList, 0, count);
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		}
+		timer.enter(phase);
+
+	}
+
+
+
+
+
+	/**
+	 * Closes the files the Agents are written to, if they're open.
+	**/
+	private void closeOutput() {
+
+		if (output == null) {
+			return;
+		}
+		try {
+			output.close();
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		}
+		output = null;
+
+	}
+
+
+
+
+
+	/**
+	 * Checks how evenly the work is spread, and moves Agents between the 
+	 * nodes if it is worth it. Called on node zero from postStep every 
+	 * rebalanceInterval ticks, straight after the Agents have been gathered, 
+	 * and on the other nodes by command "7".<P>
+	 * Each node reports the time it has spent stepping its Agents since the 
+	 * last check. If the slowest of the other nodes is more than 
+	 * rebalanceThreshold over the mean, node zero works out new counts in 
+	 * <CODE>planRebalance()</CODE> and sends them out, and each node moves 
+	 * to its new share in <CODE>migrateAgents()</CODE>. Node zero's own share 
+	 * isn't changed, as its time on Repast and the display isn't measured.</P>
+	**/
+	public void rebalance() {
+
+		if (nodeRank == 0) {
+			drainPipeline();
+			sendCommand(7);
+		}
+
+		int[] stepTimes = new int[numberOfNodes];
+		int[] newCounts = new int[numberOfNodes];
+		lengthArray[0] = (int) Math.min(Integer.MAX_VALUE, stepNanos / 1000);
+		stepNanos = 0;
+
+		try {
+			transport.gather(lengthArray, 0, 1, stepTimes, 0, 0);
+			if ((nodeRank == 0) && !planRebalance(stepTimes, newCounts)) {
+				newCounts[0] = -1; // Stay as we are.
+			}
+			transport.bcast(newCounts, 0, numberOfNodes, 0);
+		} catch (TransportException transportE) {
+			transportE.printStackTrace();
+		}
+
+		if (newCounts[0] >= 0) {
+			migrateAgents(newCounts);
+		}
+
+	}
+
+
+
+
+
+	/**
+	 * On node zero, works out new counts of Agents for the other nodes from 
+	 * their step times, in microseconds, and returns whether moving to them is 
+	 * worth it.<P>
+	 * Each node's target is in proportion to the Agents it got through per 
+	 * microsecond, but nodes only move half way to their target each time, so 
+	 * one noisy measurement can't throw everything about. The move goes ahead 
+	 * if the time it should save over the next rebalanceInterval ticks is more 
+	 * than the time to send the Agents that have to move.</P>
+	**/
+	private boolean planRebalance(int[] stepTimes, int[] newCounts) {
+
+		if (numberOfNodes < 3) {
+			return false;
+		}
+
+		double meanTime = 0.0;
+		double maxTime = 0.0;
+		int otherAgents = 0;
+		for (int i = 1; i < numberOfNodes; i++) {
+			meanTime = meanTime + stepTimes[i];
+			maxTime = Math.max(maxTime, stepTimes[i]);
+			otherAgents = otherAgents + nodeAgentCounts[i];
+		}
+		meanTime = meanTime / (numberOfNodes - 1);
+		if ((maxTime <= 0.0) || ((maxTime / meanTime) - 1.0 < rebalanceThreshold)) {
+			return false;
+		}
+
+		// Agents per microsecond for each node. Nodes with no Agents haven't 
+		// shown a speed, so they're given the mean.
+
+		double[] speeds = new double[numberOfNodes];
+		double totalSpeed = 0.0;
+		for (int i = 1; i < numberOfNodes; i++) {
+			if (nodeAgentCounts[i] > 0) {
+				speeds[i] = nodeAgentCounts[i] / Math.max(1.0, stepTimes[i]);
+				totalSpeed = totalSpeed + speeds[i];
+			}
+		}
+		for (int i = 1; i < numberOfNodes; i++) {
+			if (nodeAgentCounts[i] == 0) {
+				speeds[i] = totalSpeed / (numberOfNodes - 1);
+			}
+		}
+		totalSpeed = 0.0;
+		for (int i = 1; i < numberOfNodes; i++) {
+			totalSpeed = totalSpeed + speeds[i];
+		}
+
+		double[] weights = new double[numberOfNodes];
+		for (int i = 1; i < numberOfNodes; i++) {
+			double target = (otherAgents * speeds[i]) / totalSpeed;
+			weights[i] = (nodeAgentCounts[i] + target) / 2.0;
+		}
+		AbstractPartitioner.splitCounts(otherAgents, weights, newCounts);
+		newCounts[0] = nodeAgentCounts[0];
+
+		// Weigh up the time saved against the time to move the Agents.
+
+		double newMaxTime = 0.0;
+		for (int i = 1; i < numberOfNodes; i++) {
+			newMaxTime = Math.max(newMaxTime, newCounts[i] / speeds[i]);
+		}
+		double gainNanos = (maxTime - newMaxTime) * 1000.0;
+
+		int[] newStarts = new int[numberOfNodes];
+		for (int i = 1; i < numberOfNodes; i++) {
+			newStarts[i] = newStarts[i - 1] + newCounts[i - 1];
+		}
+		int moved = 0;
+		for (int i = 1; i < numberOfNodes; i++) {
+			int[] runs = getMigrationRuns(nodeAgentStarts[i], nodeAgentCounts[i], newStarts[i], newCounts[i]);
+			moved = moved + runs[0] + runs[2];
+		}
+		double costNanos = moved * transferNanosPerAgent;
+
+		log.log(RankLog.INFO, "Rebalance: slowest node " + maxTime + "us, mean " + meanTime 
+			+ "us, moving " + moved + " agents " + ((gainNanos > costNanos) ? "is" : "isn't") + " worth it");
+		return gainNanos > costNanos;
+
+	}
+
+
+
+
+
+	/**
+	 * Moves each node to its new count of Agents, keeping the order of the 
+	 * Agents in node zero's list, so the nodes' runs of the list just move 
+	 * up or down. Each node keeps the Agents it already has that are still 
+	 * in its run, and node zero, which has just gathered every Agent, sends 
+	 * it the rest: a run before the kept Agents and a run after them.
+	**/
+	private void migrateAgents(int[] newCounts) {
+
+		int[] oldStarts = new int[numberOfNodes];
+		int[] oldCounts = new int[numberOfNodes];
+		System.arraycopy(nodeAgentStarts, 0, oldStarts, 0, numberOfNodes);
+		System.arraycopy(nodeAgentCounts, 0, oldCounts, 0, numberOfNodes);
+		int[] newStarts = new int[numberOfNodes];
+		for (int i = 1; i < numberOfNodes; i++) {
+			newStarts[i] = newStarts[i - 1] + newCounts[i - 1];
+		}
+
+		// Work out each node's batches: the run before, then the run after.
+
+		int total = 0;
+		for (int i = 0; i < numberOfNodes; i++) {
+			batchStarts[i] = total;
+			if (i == 0) {
+				batchLengths[i] = 0;
+			} else {
+				int[] runs = getMigrationRuns(oldStarts[i], oldCounts[i], newStarts[i], newCounts[i]);
+				batchLengths[i] = AgentBuffer.getLength(agentCodec, runs[0]) + AgentBuffer.getLength(agentCodec, runs[2]);
+			}
+			total = total + batchLengths[i];
+		}
+
+		if (nodeRank == 0) {
+
+			agentBuffer.ensureLength(total);
+			int phase = timer.enter(PhaseTimer.SERIALIZE);
+			for (int i = 1; i < numberOfNodes; i++) {
+				int[] runs = getMigrationRuns(oldStarts[i], oldCounts[i], newStarts[i], newCounts[i]);
+				int length = agentBuffer.encode(agentCodec, localAgentList, newStarts[i], runs[0], batchStarts[i]);
+				agentBuffer.encode(agentCodec, localAgentList, runs[1], runs[2], batchStarts[i] + length);
+			}
+			timer.enter(phase);
+			try {
+				transport.scatterv(agentBuffer.getInts(), 0, batchLengths, batchStarts, 
+					noInts, 0, 0, 0);
+			} catch (TransportException transportE) {
+				transportE.printStackTrace();
+			} 
+
+		} else {
+
+			int[] runs = getMigrationRuns(oldStarts[nodeRank], oldCounts[nodeRank], newStarts[nodeRank], newCounts[nodeRank]);
+			agentBuffer.ensureLength(batchLengths[nodeRank]);
+			try {
+ 				transport.scatterv(noInts, 0, batchLengths, batchStarts, 
+					agentBuffer.getInts(), 0, batchLengths[nodeRank], 0);
+			} catch (TransportException transportE) {
+				transportE.printStackTrace();
+			}
+
+			// Put the new list together: the run before, the Agents kept, and the run after.
+
+			Agent[] newList = new Agent[newCounts[nodeRank]];
+			int kept = newCounts[nodeRank] - runs[0] - runs[2];
+			int phase = timer.enter(PhaseTimer.SERIALIZE);
+			agentBuffer.decode(agentCodec, newList, 0, 0);
+			if (kept > 0) {
+				System.arraycopy(localAgentList, newStarts[nodeRank] + runs[0] - oldStarts[nodeRank], 
+					newList, runs[0], kept);
+			}
+			agentBuffer.decode(agentCodec, newList, runs[0] + kept, AgentBuffer.getLength(agentCodec, runs[0]));
+			timer.enter(phase);
+			localAgentList = newList;
+
+		}
+
+		setUpPartition(newCounts);
+
+	}
+
+
+
+
+
+	/**
+	 * Works out which Agents a node needs sending when its run of the list 
+	 * moves from <CODE>oldCount</CODE> Agents at <CODE>oldStart</CODE> to 
+	 * <CODE>newCount</CODE> at <CODE>newStart</CODE>. Returns the number of 
+	 * Agents before the ones it already has, the start of the Agents after 
+	 * them, and the number of Agents after them.
+	**/
+	private static int[] getMigrationRuns(int oldStart, int oldCount, int newStart, int newCount) {
+
+		int newEnd = newStart + newCount;
+		int keepFrom = Math.max(newStart, oldStart);
+		int keepTo = Math.min(newEnd, oldStart + oldCount);
+		if (keepFrom >= keepTo) {
+
+			// Nothing kept, so it all comes in the run before.
+
+			keepFrom = newEnd;
+			keepTo = newEnd;
+		}
+		return new int[] {keepFrom - newStart, keepTo, newEnd - keepTo};
+
+	}
+
+
+
+
+
+	/**
+	 * Sends the local agents back to node zero, which should be 
+	 * waiting for them in getAgents, or just the changed ones if 
+	 * node zero has asked for changes only, in which case it will be 
+	 * waiting in getAgentChanges. As the batch of changes can be any 
+	 * length, its length is gathered to node zero first. The same goes 
+	 * for the number of Agents with a spatial decomposition, as Agents 
+	 * move between nodes, and for batches encoded by a WireCodec.
+	**/
+	private void returnAgents() {
+
+		returnAgents(agentCodec);
+
+	}
+
+
+
+
+
+	/**
+	 * As returnAgents(), packing the Agents with the codec when they're 
+	 * all sent, such as the DisplayAgentCodec when node zero is only 
+	 * going to draw them.
+	**/
+	private void returnAgents(AgentCodec codec) {
+
+		int length = 0;
+		int phase = timer.enter(PhaseTimer.SERIALIZE);
+		if (changesOnly) {
+			length = agentBuffer.encodeChanges(agentCodec, localAgentList, 0, localAgentList.length);
+		} else {
+			length = agentBuffer.encode(codec, localAgentList, 0, localAgentList.length);
+			for (int i = 0; i < localAgentList.length; i++) {
+				agentCodec.clearChanges(localAgentList[i]);
+			}
+		}
+		AgentBuffer sending = agentBuffer;
+		if (wireCodec != null) {
+			length = wireCodec.encode(agentBuffer.getInts(), 0, length, 0, wireBuffer, 0);
+			sending = wireBuffer;
+		}
+		timer.enter(phase);
+
+		try {
+			if (changesOnly) {
+				lengthArray[0] = length;
+				transport.gather(lengthArray, 0, 1, batchLengths, 0, 0);
+			} else if (decomposition != null) {
+				lengthArray[0] = localAgentList.length;
+				transport.gather(lengthArray, 0, 1, batchLengths, 0, 0);
+			}
+			if ((wireCodec != null) && !changesOnly) {
+				lengthArray[0] = length;
+				transport.gather(lengthArray, 0, 1, wireLengths, 0, 0);
+			}
+			transport.gatherv(sending.getInts(), 0, length, 
+				noInts, 0, batchLengths, batchStarts, 0);
+			if (log.isEnabled(RankLog.DEBUG)) {
+				log.log(RankLog.DEBUG, "Processor " + nodeRank + " sending agents to node 0");
+			}				
+		} catch (TransportException transportE) {
+			transportE.printStackTrace();
+		} 
+
+	}
+
+
+
+
+        
+	/**
+	 * On nodes other than zero, the pipelined postStep. Packs the local agents 
+	 * into one of the two pipeline buffers and starts sending them to node zero, 
+	 * without waiting for them to arrive. The buffer is only reused two ticks 
+	 * later, after waiting for the send from then to finish, so the agents can 
+	 * carry on changing while their last state is on its way.
+	**/
+	private void sendAgentsAhead() {
+
+		AgentBuffer buffer = pipelineBuffers[pipelineTurn];
+		try {
+			if (pipelineSends[pipelineTurn] != null) {
+				pipelineSends[pipelineTurn].complete();
+			}
+			int phase = timer.enter(PhaseTimer.SERIALIZE);
+			int length = buffer.encode(agentCodec, localAgentList, 0, localAgentList.length);
+			for (int i = 0; i < localAgentList.length; i++) {
+				agentCodec.clearChanges(localAgentList[i]);
+			}
+			timer.enter(phase);
+			pipelineSends[pipelineTurn] = transport.isend(buffer.getInts(), 0, length, 0, 51);
+		} catch (TransportException transportE) {
+			transportE.printStackTrace();
+		} 
+		pipelineTurn = 1 - pipelineTurn;
+
+	}
+
+
+
+
+        
+	/**
+	 * On node zero, the pipelined postStep. Starts receiving this tick's agents 
+	 * from the other nodes into one pipeline buffer, then waits for last tick's 
+	 * to finish arriving in the other and updates the agents from them. 
+	 * Returns whether there was a last tick's worth to update from.
+	**/
+	private boolean pipelineAgents() {
+
+		AgentBuffer buffer = pipelineBuffers[pipelineTurn];
+		buffer.ensureLength(setBatchLayout(agentCodec));
+		if (pipelineReceives[pipelineTurn] == null) {
+			pipelineReceives[pipelineTurn] = new TransportRequest[numberOfNodes - 1];
+		}
+		try {
+			for (int i = 1; i < numberOfNodes; i++) {
+				pipelineReceives[pipelineTurn][i - 1] = transport.irecv(buffer.getInts(), 
+					batchStarts[i], batchLengths[i], i, 51);
+			}
+		} catch (TransportException transportE) {
+			transportE.printStackTrace();
+		} 
+		pipelineTurn = 1 - pipelineTurn;
+		return completePipeline(pipelineTurn);
+
+	}
+
+
+
+
+        
+	/**
+	 * On node zero, waits for the receives into one pipeline buffer to finish, 
+	 * if there are any, and updates the agents from it. Returns whether there 
+	 * were any.
+	**/
+	private boolean completePipeline(int turn) {
+
+		TransportRequest[] receives = pipelineReceives[turn];
+		if ((receives == null) || (receives.length == 0) || (receives[0] == null)) {
+			return false;
+		}
+		try {
+			for (int i = 0; i < receives.length; i++) {
+				receives[i].complete();
+			}
+		} catch (TransportException transportE) {
+			transportE.printStackTrace();
+		} 
+		setBatchLayout(agentCodec);
+		int phase = timer.enter(PhaseTimer.SERIALIZE);
+		for (int i = 1; i < numberOfNodes; i++) {
+			pipelineBuffers[turn].decode(agentCodec, localAgentList, nodeAgentStarts[i], batchStarts[i]);
+			receives[i - 1] = null;
+		}
+		timer.enter(phase);
+		return true;
+
+	}
+
+
+
+
+        
+	/**
+	 * On node zero, finishes any pipelined receives still going, so the 
+	 * other nodes can go back to sending agents the usual way. 
+	 * Returns whether there were any.
+	**/
+	private boolean drainPipeline() {
+
+		boolean drained = completePipeline(1 - pipelineTurn);
+		drained = completePipeline(pipelineTurn) || drained;
+		return drained;
+
+	}
+
+
+
+
+        
+	/**
+	 * On node zero, gets the agents back from the other nodes, either in full 
+	 * or just the changes, depending on what the other nodes were told to send.
+	 * With a spatial decomposition, the number of Agents on each node is 
+	 * gathered first, and node zero's list is laid out to match.
+	**/
+	private void gatherAgents() {
+
+		if (changesOnly && (decomposition == null)) {
+			getAgentChanges(localAgentList, agentCodec);
+		} else {
+			gatherAllAgents(agentCodec);
+			resyncRequested = false;
+		}
+
+	}
+
+
+
+
+
+	/**
+	 * On node zero, gets all the agents back from the other nodes, packed 
+	 * by the codec. With a spatial decomposition, the number of Agents on 
+	 * each node is gathered first, and node zero's list is laid out to match.
+	**/
+	private void gatherAllAgents(AgentCodec codec) {
+
+		if (decomposition != null) {
+			int[] counts = new int[numberOfNodes];
+			lengthArray[0] = 0;
+			try {
+				transport.gather(lengthArray, 0, 1, counts, 0, 0);
+			} catch (TransportException transportE) {
+				transportE.printStackTrace();
+			}
+			setUpPartition(counts);
+		}
+		getAgents(localAgentList, codec);
+
+	}
+
+
+
+
+        
+	/**
+	 * Gets whether the next gather from the other nodes should be just 
+	 * the Agents that have changed.
+	**/
+	private boolean getChangesOnly() {
+		return deltaSync && !resyncRequested && (decomposition == null);
+	}
+
+
+
+
+        
+	/**
+	 * Asks for the next gather from the other nodes to send all their 
+	 * Agents, not just the ones that have changed.
+	**/
+	public void requestResync() {
+		resyncRequested = true;
+	}
+
+
+
+
+        
+	/**
+	 * Gets whether the other nodes only send back Agents that have changed.
+	**/
+	public boolean getDeltaSync() {
+		return deltaSync;
+	}
+
+
+
+
+        
+	/**
+	 * Sets whether the other nodes only send back Agents that have changed. 
+	 * Turning this on asks for a full resync first, so node zero starts 
+	 * from a complete picture.
+	**/
+	public void setDeltaSync(boolean deltaSync) {
+		if (deltaSync && !this.deltaSync) {
+			requestResync();
+		}
+		this.deltaSync = deltaSync;
+	}
+
+
+
+
+        
+	/**
+	 * Gets whether the other nodes send back their Agents without waiting for 
+	 * node zero, while they go on with the next tick.
+	**/
+	public boolean getPipelined() {
+		return pipelined;
+	}
+
+
+
+
+        
+	/**
+	 * Sets whether the other nodes send back their Agents without waiting for 
+	 * node zero, while they go on with the next tick. When this is on the 
+	 * display is always one tick behind the model.
+	**/
+	public void setPipelined(boolean pipelined) {
+		this.pipelined = pipelined;
+	}
+
+
+
+
+        
+	/**
+	 * Gets the share of the Agents node zero steps itself, relative to 
+	 * each other node's share.
+	**/
+	public double getNodeZeroWeight() {
+		return nodeZeroWeight;
+	}
+
+
+
+
+        
+	/**
+	 * Sets the share of the Agents node zero steps itself, relative to 
+	 * each other node's share of one. Zero (the default) leaves node zero 
+	 * free to run Repast and the display; something below one allows 
+	 * for that work while still using node zero's processor. 
+	 * This takes effect when the model is built.
+	**/
+	public void setNodeZeroWeight(double nodeZeroWeight) {
+		if (nodeZeroWeight < 0.0) {
+			nodeZeroWeight = 0.0;
+		}
+		this.nodeZeroWeight = nodeZeroWeight;
+	}
+
+
+
+
+        
+	/**
+	 * Gets the shares of the Agents for the nodes other than zero.
+	**/
+	public String getNodeWeights() {
+		return nodeWeights;
+	}
+
+
+
+
+        
+	/**
+	 * Sets the shares of the Agents for the nodes other than zero, as numbers 
+	 * separated by commas, for node one, node two, and so on. Nodes that aren't 
+	 * given get a share of one, so an empty String (the default) splits the 
+	 * Agents evenly. This takes effect when the model is built.
+	**/
+	public void setNodeWeights(String nodeWeights) {
+		this.nodeWeights = (nodeWeights == null) ? "" : nodeWeights;
+	}
+
+
+
+
+        
+	/**
+	 * Gets how the Agents are split between the nodes.
+	**/
+	public String getPartitioning() {
+		return partitioning;
+	}
+
+
+
+
+        
+	/**
+	 * Sets how the Agents are split between the nodes: "block" (the default) 
+	 * gives each node a run of the Agents in the order they were made, 
+	 * "cyclic" deals them out in turn, and "hilbert" gives each node Agents 
+	 * that are close together in the world. In each case the shares follow 
+	 * the node weights. This takes effect when the model is built.
+	**/
+	public void setPartitioning(String partitioning) {
+		this.partitioning = partitioning;
+	}
+
+
+
+
+        
+	/**
+	 * Gets the number of ticks between checks on how evenly the work is spread.
+	**/
+	public int getRebalanceInterval() {
+		return rebalanceInterval;
+	}
+
+
+
+
+        
+	/**
+	 * Sets the number of ticks between checks on how evenly the work is spread 
+	 * between the nodes. Zero (the default) turns rebalancing off.
+	**/
+	public void setRebalanceInterval(int rebalanceInterval) {
+		this.rebalanceInterval = Math.max(0, rebalanceInterval);
+	}
+
+
+
+
+        
+	/**
+	 * Gets how far over the mean step time the slowest node can be before 
+	 * the Agents are rebalanced.
+	**/
+	public double getRebalanceThreshold() {
+		return rebalanceThreshold;
+	}
+
+
+
+
+        
+	/**
+	 * Sets how far over the mean step time the slowest node can be before 
+	 * the Agents are rebalanced, as a fraction: 0.1 (the default) is ten percent.
+	**/
+	public void setRebalanceThreshold(double rebalanceThreshold) {
+		this.rebalanceThreshold = Math.max(0.0, rebalanceThreshold);
+	}
+
+
+
+
+        
+	/**
+	 * Gets the number of ticks the other nodes run between syncs with node zero.
+	**/
+	public int getSyncInterval() {
+		return syncInterval;
+	}
+
+
+
+
+
+	/**
+	 * Sets the number of ticks the other nodes run between syncs with node zero.
+	 * One (the default) means the nodes are told about every phase of every tick, 
+	 * and the display is updated every tick. Larger values take effect at 
+	 * the start of the next block.
+	**/
+	public void setSyncInterval(int syncInterval) {
+		if (syncInterval < 1) {
+			syncInterval = 1;
+		}
+		this.syncInterval = syncInterval;
+	}
+
+
+
+
+        
+	/**
+	 * Gets whether the other nodes each look after a tile of the world.
+	**/
+	public boolean getSpatialDecomposition() {
+		return spatialDecomposition;
+	}
+
+
+
+
+        
+	/**
+	 * Sets whether the other nodes each look after a tile of the world, 
+	 * swapping the cells along the edges of their tiles and passing on 
+	 * Agents that move out of them, rather than each having a share of 
+	 * the Agents wherever they are. This needs at least one node other 
+	 * than zero, and turns off delta syncs, pipelining and rebalancing. 
+	 * This takes effect when the model is built.
+	**/
+	public void setSpatialDecomposition(boolean spatialDecomposition) {
+		this.spatialDecomposition = spatialDecomposition;
+	}
+
+
+
+
+        
+	/**
+	 * Gets the width of the cells round each tile copied from its neighbours.
+	**/
+	public int getHaloWidth() {
+		return haloWidth;
+	}
+
+
+
+
+        
+	/**
+	 * Sets the width of the cells round each tile copied from its neighbours, 
+	 * which is how far an Agent can see past the edge of its tile. One is the 
+	 * default. This takes effect when the model is built.
+	**/
+	public void setHaloWidth(int haloWidth) {
+		this.haloWidth = Math.max(0, haloWidth);
+	}
+
+
+
+
+        
+	/**
+	 * Gets the number of threads stepping Agents on each node.
+	**/
+	public int getThreads() {
+		return threads;
+	}
+
+
+
+
+        
+	/**
+	 * Sets the number of threads stepping Agents on each node. One (the 
+	 * default) steps them in order on the node's main thread; zero uses a 
+	 * thread for each processor the node has, which is the way to run one 
+	 * node per machine rather than one per processor. On node zero this 
+	 * takes effect for the other nodes when the model is built.
+	**/
+	public void setThreads(int threads) {
+		if (stepper != null) {
+			stepper.shutdown();
+			stepper = null;
+		}
+		this.threads = Math.max(0, threads);
+	}
+
+
+
+
+        
+	/**
+	 * Gets the level of the logs, from "OFF" to "TRACE".
+	**/
+	public String getLogLevel() {
+		return logLevel;
+	}
+
+
+
+
+        
+	/**
+	 * Sets the level of the logs written by each node to the file rank-n.log 
+	 * in the directory given by the parallelrepast.logs system property 
+	 * ("logs" by default). "INFO", the default, logs rebalancing; "DEBUG" adds 
+	 * a message for each phase of each tick, and "TRACE" one for each Agent, 
+	 * which is only worth it for small runs. On node zero this takes effect 
+	 * for the other nodes when the model is built.
+	**/
+	public void setLogLevel(String logLevel) {
+		this.logLevel = RankLog.getLevelName(RankLog.parseLevel(logLevel));
+		if (log != null) {
+			log.setLevel(RankLog.parseLevel(logLevel));
+		}
+	}
+
+
+
+
+        
+	/**
+	 * Gets the number of ticks between gathering the time each node spends 
+	 * in each phase to node zero.
+	**/
+	public int getTimingInterval() {
+		return timingInterval;
+	}
+
+
+
+
+        
+	/**
+	 * Sets the number of ticks between gathering the time each node spends 
+	 * in each phase, and the messages and bytes it sends and receives, to 
+	 * node zero, which writes them to timingFile. Zero (the default) turns 
+	 * the reports off, though the nodes still keep count, which costs a 
+	 * call to System.nanoTime() each time one changes phase. This takes 
+	 * effect when the model is built.
+	**/
+	public void setTimingInterval(int timingInterval) {
+		this.timingInterval = Math.max(0, timingInterval);
+	}
+
+
+
+
+        
+	/**
+	 * Gets the file node zero writes the timings to.
+	**/
+	public String getTimingFile() {
+		return timingFile;
+	}
+
+
+
+
+        
+	/**
+	 * Sets the file node zero writes the timings to, "timing.csv" by default. 
+	 * A name ending in ".json" gets JSON rather than CSV.
+	**/
+	public void setTimingFile(String timingFile) {
+		this.timingFile = timingFile;
+	}
+
+
+
+
+        
+	/**
+	 * Gets whether node zero graphs the timings.
+	**/
+	public boolean getTimingGraph() {
+		return timingGraph;
+	}
+
+
+
+
+        
+	/**
+	 * Sets whether node zero graphs the time the slowest node spends in 
+	 * each phase per tick, each time the timings are gathered. Off by default.
+	**/
+	public void setTimingGraph(boolean timingGraph) {
+		this.timingGraph = timingGraph;
+	}
+
+
+
+
+        
+	/**
+	 * Gets the furthest an Agent moves in x or y each tick.
+	**/
+	public int getMoveDistance() {
+		return moveDistance;
+	}
+
+
+
+
+        
+	/**
+	 * Sets the furthest an Agent moves in x or y each tick. Zero (the default) 
+	 * leaves the Agents where they are.
+	**/
+	public void setMoveDistance(int moveDistance) {
+		this.moveDistance = Math.max(0, moveDistance);
+	}
+
+
+
+
+        
+	/**
+	 * Gets the number of Agents in the model.
+	**/
+	public int getTotalNumberOfAgents() {
+		return totalNumberOfAgents;
+	}
+
+
+
+
+        
+	/**
+	 * Sets the number of Agents in the model, ten by default. This takes 
+	 * effect when the model is built.
+	**/
+	public void setTotalNumberOfAgents(int totalNumberOfAgents) {
+		this.totalNumberOfAgents = Math.max(0, totalNumberOfAgents);
+		if (nodeRank == 0) {
+			localAgentList = new Agent[this.totalNumberOfAgents];
+		}
+	}
+
+
+
+
+        
+	/**
+	 * Gets whether each node makes its own Agents.
+	**/
+	public boolean getDistributedInit() {
+		return distributedInit;
+	}
+
+
+
+
+        
+	/**
+	 * Sets whether each node makes its own share of the Agents when the model 
+	 * is built, from the seed, rather than node zero making them all and 
+	 * sending them out. Off by default. The Partitioning is then ignored, 
+	 * as the Agents are made where they're going to be.<P>
+	 * Node zero then only gets the Agents back if there's a display to draw 
+	 * them on, and then just their x, y and value. It gets them in full the 
+	 * first time it gathers them after that, to draw or rebalance them, so in 
+	 * batch mode, with no rebalancing, the Agents never have to be in its 
+	 * memory at all, though it keeps a list with room for them.</P>
+	**/
+	public void setDistributedInit(boolean distributedInit) {
+		this.distributedInit = distributedInit;
+	}
+
+
+
+
+        
+	/**
+	 * Gets the seed all the random numbers come from.
+	**/
+	public int getSeed() {
+		return seed;
+	}
+
+
+
+
+        
+	/**
+	 * Sets the seed all the random numbers come from, where the Agents start 
+	 * and how they move, so a run can be repeated with the same seed, on any 
+	 * number of nodes and threads. Zero (the default) takes one from the 
+	 * clock when the model is built, which then shows here.
+	**/
+	public void setSeed(int seed) {
+		final long streamSeed = seed;
+		this.seed = seed;
+		this.agentRandom = new ThreadLocal() {
+			protected Object initialValue() {
+				return new RandomStream(streamSeed);
+			}
+		};
+	}
+
+
+
+
+        
+	/**
+	 * Gets the number of ticks between drawing the Agents.
+	**/
+	public int getDisplayInterval() {
+		return displayInterval;
+	}
+
+
+
+
+        
+	/**
+	 * Sets the number of ticks between gathering the Agents to node zero 
+	 * and drawing them. One (the default) draws every tick; more lets the 
+	 * model run ahead of the display, as the gather is skipped on the ticks 
+	 * in between. Zero never draws them after the start.
+	**/
+	public void setDisplayInterval(int displayInterval) {
+		this.displayInterval = Math.max(0, displayInterval);
+	}
+
+
+
+
+        
+	/**
+	 * Gets the tick the run stops at.
+	**/
+	public int getStopAt() {
+		return stopAt;
+	}
+
+
+
+
+        
+	/**
+	 * Sets the tick node zero stops the run at, which batch runs need to end. 
+	 * Zero (the default) runs until stopped.
+	**/
+	public void setStopAt(int stopAt) {
+		this.stopAt = Math.max(0, stopAt);
+	}
+
+
+
+
+        
+	/**
+	 * Gets whether node zero runs without a display.
+	**/
+	public boolean getBatch() {
+		return batch;
+	}
+
+
+
+
+        
+	/**
+	 * Sets whether node zero runs without a display, as with the -batch 
+	 * option to main. This has to be set before <CODE>setup()</CODE>, and 
+	 * isn't one of the parameters, as Repast calls that first.
+	**/
+	public void setBatch(boolean batch) {
+		this.batch = batch;
+	}
+
+
+
+
+        
+	/**
+	 * Gets the number of ticks between checkpoints.
+	**/
+	public int getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+
+
+
+        
+	/**
+	 * Sets the number of ticks between checkpoints of the run, which it can 
+	 * be restarted from with restartFrom. Zero (the default) never writes one.
+	**/
+	public void setCheckpointInterval(int checkpointInterval) {
+		this.checkpointInterval = Math.max(0, checkpointInterval);
+	}
+
+
+
+
+        
+	/**
+	 * Gets the directory checkpoints are written to.
+	**/
+	public String getCheckpointDir() {
+		return checkpointDir;
+	}
+
+
+
+
+        
+	/**
+	 * Sets the directory checkpoints are written to, "checkpoints" by default. 
+	 * Every node writes its own file there, so for a restart on other nodes 
+	 * it needs to be somewhere they can all see.
+	**/
+	public void setCheckpointDir(String checkpointDir) {
+		this.checkpointDir = checkpointDir;
+	}
+
+
+
+
+        
+	/**
+	 * Gets the checkpoint the model restarts from.
+	**/
+	public String getRestartFrom() {
+		return restartFrom;
+	}
+
+
+
+
+        
+	/**
+	 * Sets the checkpoint the model carries on from when it's built: the 
+	 * manifest of one, or a checkpoint directory, for the latest in it. 
+	 * The seed and number of Agents come from the checkpoint, and it can be 
+	 * on a different number of nodes than wrote it. Empty (the default) 
+	 * starts a new run.
+	**/
+	public void setRestartFrom(String restartFrom) {
+		this.restartFrom = (restartFrom == null) ? "" : restartFrom.trim();
+	}
+
+
+
+
+        
+	/**
+	 * Gets the number of ticks between each node writing out its Agents.
+	**/
+	public int getOutputInterval() {
+		return outputInterval;
+	}
+
+
+
+
+        
+	/**
+	 * Sets the number of ticks between each node writing the outputFields of 
+	 * its own Agents to its own files in outputDir, with an AgentOutput. Zero 
+	 * (the default) writes nothing. This takes effect when the model is built.
+	**/
+	public void setOutputInterval(int outputInterval) {
+		this.outputInterval = Math.max(0, outputInterval);
+	}
+
+
+
+
+        
+	/**
+	 * Gets the directory the Agents are written out to.
+	**/
+	public String getOutputDir() {
+		return outputDir;
+	}
+
+
+
+
+        
+	/**
+	 * Sets the directory the nodes write their Agents to, "output" by default, 
+	 * which AgentOutputReader can then read.
+	**/
+	public void setOutputDir(String outputDir) {
+		this.outputDir = outputDir;
+	}
+
+
+
+
+        
+	/**
+	 * Gets the fields of the Agents that are written out.
+	**/
+	public String getOutputFields() {
+		return outputFields;
+	}
+
+
+
+
+        
+	/**
+	 * Sets the fields of the Agents that are written out, from "id", "x", "y" 
+	 * and "value", separated by commas. All of them by default.
+	**/
+	public void setOutputFields(String outputFields) {
+		this.outputFields = outputFields;
+	}
+
+
+
+
+        
+	/**
+	 * Gets whether the batches of Agents are encoded on the way between nodes.
+	**/
+	public boolean getWireEncoding() {
+		return wireEncoding;
+	}
+
+
+
+
+        
+	/**
+	 * Sets whether the batches of Agents sent between node zero and the other 
+	 * nodes, other than pipelined ones, go through a WireCodec, which sends 
+	 * the differences from the last batch as varints, deflated if there are 
+	 * enough of them. Off by default. It saves bandwidth for some CPU time; 
+	 * each node logs how much of each at the end, at INFO. This takes effect 
+	 * when the model is built.
+	**/
+	public void setWireEncoding(boolean wireEncoding) {
+		this.wireEncoding = wireEncoding;
+	}
+
+
+
+
+        
+	/**
+	 * Gets the number of bytes of varints at which a batch is deflated.
+	**/
+	public int getCompressAbove() {
+		return compressAbove;
+	}
+
+
+
+
+        
+	/**
+	 * Sets the number of bytes of varints at which a batch encoded with 
+	 * wireEncoding on is deflated too, 4096 by default, as below that it 
+	 * rarely pays for the time. Zero never deflates them.
+	**/
+	public void setCompressAbove(int compressAbove) {
+		this.compressAbove = Math.max(0, compressAbove);
+	}
+
+
+
+
+        
+	/**
+	 * Gets the WireCodec on node zero, with the bytes it has saved and the 
+	 * time it has taken, or null if wireEncoding was off when the model was built.
+	**/
+	public WireCodec getWireCodec() {
+		return wireCodec;
+	}
+
+
+
+
+        
+	/**
+	 * Gets the TimingReport node zero is writing the timings to, or null 
+	 * if timingInterval was zero when the model was built.
+	**/
+	public TimingReport getTimingReport() {
+		return timingReport;
+	}
+
+
+
+
+        
+    /**
+     * Builds the basic model-display Objects.
+    **/
+	private void buildDisplay() {
+		if (dsurf == null) {
+			return; // Not set up, as when run by a ScalingExperiment.
+		}
+        	agentDisplay = new Object2DDisplay( world );
+		//agentDisplay.reSize(300,300);	
+        	agentDisplay.setObjectList( agentList );             
+        	dsurf.addDisplayableProbeable ( agentDisplay, "Agents" );   
+        	addSimEventListener(dsurf);
+		dsurf.display();                
+    }
+
+
+
+
+
+	/**
+	 * On node zero, updates the display, first putting the Agents back in 
+	 * the world if they can have moved or changed places in the list. 
+	 * This does nothing if there is no DisplaySurface.
+	**/
+	private void updateDisplay() {
+
+		if (dsurf == null) {
+			return;
+		}
+
+		if ((moveDistance > 0) || (decomposition != null)) {
+			for (int x = 0; x < width; x++) {
+				for (int y = 0; y < height; y++) {
+					world.putObjectAt(x, y, null);
+				}
+			}
+			for (int i = 0; i < localAgentList.length; i++) {
+				world.putObjectAt(localAgentList[i].getX(), localAgentList[i].getY(), localAgentList[i]);
+			}
+		}
+		dsurf.updateDisplay();
+
+	}
+
+
+
+
+
+	/**
+	 * On node zero, opens the file the timings are written to, and their 
+	 * graph if wanted, when the model is built, if timingInterval is more 
+	 * than zero.
+	**/
+	private void openTimingReport() {
+
+		lastTimingReport = modelIteration;
+		timer.reset();
+		if (timingInterval <= 0) {
+			return;
+		}
+		try {
+			timingReport = new TimingReport(timingFile);
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			return;
+		}
+
+		if (timingGraph) {
+			timingGraphWindow = new OpenSequenceGraph("Time per tick on the slowest node (ms)", this);
+			int[] phases = {PhaseTimer.COMPUTE, PhaseTimer.SERIALIZE, PhaseTimer.COMMUNICATE, PhaseTimer.WAIT};
+			for (int i = 0; i < phases.length; i++) {
+				final int phase = phases[i];
+				timingGraphWindow.addSequence(PhaseTimer.getName(phase), new Sequence() {
+					public double getSValue() {
+						return timingReport.getMax(phase) / 1000000.0;
+					}
+				});
+			}
+			timingGraphWindow.display();
+		}
+
+	}
+
+
+
+
+
+	/**
+	 * Gathers every node's PhaseTimer totals to node zero and starts them 
+	 * again. Node zero calls this every timingInterval ticks, once the 
+	 * Agents are back, and sends the other nodes the command to do the 
+	 * same; it then writes a row for each node to the TimingReport and 
+	 * steps the graph. The time taken gathering the totals goes in the 
+	 * next ones. It can also be called on node zero between ticks, as 
+	 * long as the other nodes aren't running ahead.
+	**/
+	public void reportTiming() {
+
+		if (nodeRank == 0) {
+			sendCommand(11);
+		}
+
+		int ticks = modelIteration - lastTimingReport;
+		lastTimingReport = modelIteration;
+		int[] totals = new int[PhaseTimer.PACKED_SIZE];
+		int[] allTotals = (nodeRank == 0) ? new int[numberOfNodes * PhaseTimer.PACKED_SIZE] : noInts;
+		timer.pack(totals, 0);
+		timer.reset();
+
+		try {
+			transport.gather(totals, 0, PhaseTimer.PACKED_SIZE, allTotals, 0, 0);
+		} catch (TransportException transportE) {
+			transportE.printStackTrace();
+		}
+
+		if ((nodeRank == 0) && (timingReport != null)) {
+			try {
+				timingReport.write(modelIteration, ticks, allTotals);
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+			if (timingGraphWindow != null) {
+				timingGraphWindow.step();
+			}
+		}
+
+	}
+
+
+
+
+
+	/**
+	 * Writes a checkpoint of the run at this tick into checkpointDir, for 
+	 * restartFrom to carry on from later. Called on node zero from postStep 
+	 * every checkpointInterval ticks, and on the other nodes by command "16". 
+	 * It can also be called on node zero between ticks, as long as the other 
+	 * nodes aren't running ahead.<P>
+	 * Each node packs its own Agents and writes them to its own file with a 
+	 * Checkpoint, all at the same time; for node zero, that's just its share. 
+	 * The numbers written are gathered to node zero, which then writes the 
+	 * manifest that marks the checkpoint as complete. Each node only deletes 
+	 * the files from the checkpoint before last after that, so there's always 
+	 * a complete one to go back to, even if a node fails part way through.</P>
+	 * <P>The time taken is logged at INFO, and counted as SERIALIZE by the 
+	 * PhaseTimer, so it can be checked against the time for a tick.</P>
+	**/
+	public void checkpoint() {
+
+		File directory = new File(checkpointDir);
+		if (nodeRank == 0) {
+			if (runAheadRemaining > 0) {
+				return;
+			}
+			lastCheckpoint = modelIteration;
+			if (checkpointTicks[0] >= 0) {
+				Checkpoint.deleteManifest(directory, checkpointTicks[0]);
+			}
+			sendCommand(16);
+		}
+
+		long start = System.nanoTime();
+		int count = (nodeRank == 0) ? nodeAgentCounts[0] : localAgentList.length;
+		int phase = timer.enter(PhaseTimer.SERIALIZE);
+		int length = agentBuffer.encode(agentCodec, localAgentList, 0, count);
+		try {
+			Checkpoint.write(directory, modelIteration, seed, nodeRank, numberOfNodes, agentBuffer, length);
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			count = -1; // Tells node zero the checkpoint isn't complete.
+		}
+		timer.enter(phase);
+
+		int[] counts = (nodeRank == 0) ? new int[numberOfNodes] : noInts;
+		lengthArray[0] = count;
+		try {
+			transport.gather(lengthArray, 0, 1, counts, 0, 0);
+		} catch (TransportException transportE) {
+			transportE.printStackTrace();
+		}
+
+		if (nodeRank == 0) {
+			boolean complete = true;
+			for (int i = 0; i < numberOfNodes; i++) {
+				complete = complete && (counts[i] >= 0);
+			}
+			try {
+				if (complete) {
+					Checkpoint.writeManifest(directory, modelIteration, seed, counts);
+				} else {
+					log.log(RankLog.ERROR, "Checkpoint of tick " + modelIteration + " not written by every node");
+				}
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+		}
+
+		if (checkpointTicks[0] >= 0) {
+			Checkpoint.delete(directory, checkpointTicks[0], nodeRank);
+		}
+		checkpointTicks[0] = checkpointTicks[1];
+		checkpointTicks[1] = modelIteration;
+		if (log.isEnabled(RankLog.INFO)) {
+			log.log(RankLog.INFO, "Checkpoint of tick " + modelIteration + " on processor " + nodeRank 
+				+ " took " + ((System.nanoTime() - start) / 1000000.0) + " ms");
+		}
+
+	}
+
 
 
 
@@ -446,32 +2983,75 @@ public class Model extends SimpleModel {
 	/**
  	 * This is called by Repast at the end of the model.
 	 * On node zero, this signals to the other nodes to exit processing and 
-	 * it shuts down MPI. On other nodes, where this is called by waitForCommands, 
-	 * this exits the process.
+	 * it shuts down the Transport. On other nodes, where this is called by waitForCommands, 
+	 * this exits the process if it is a separate MPI process; if the nodes are 
+	 * threads, waitForCommands just returns.
 	**/ 
 	public void atEnd() {
 
-		// Send a "shutdown" message to other nodes.
+		// If the model stopped part way through a run-ahead block, the other 
+		// nodes will still finish it, and send back their agents if they were 
+		// told to, so collect them, and the same for any pipelined sends.
+		// Then send a "shutdown" message to other nodes, which they pick up 
+		// once they're back waiting for commands, and finish their sends.
 
 		if (nodeRank == 0) {
+			if (runAheadRemaining > 0) {
+				if (gatherAtSync) {
+					gatherAgents();
+				}
+				runAheadRemaining = 0;
+			}
+			drainPipeline();
 			sendCommand(9);
-		} 
+		} else {
+			for (int i = 0; i < pipelineSends.length; i++) {
+				try {
+					if (pipelineSends[i] != null) {
+						pipelineSends[i].complete();
+					}
+				} catch (TransportException transportE) {
+					transportE.printStackTrace();
+				}
+			}
+		}
 		
-		// On all nodes, shut down MPI.
+		// On all nodes, stop the stepping threads and shut down the Transport.
+
+		if (stepper != null) {
+			stepper.shutdown();
+		}
+		if ((wireCodec != null) && log.isEnabled(RankLog.INFO)) {
+			log.log(RankLog.INFO, "Wire encoding on processor " + nodeRank + ": " + wireCodec.getSummary());
+		}
+		closeOutput();
+		log.close();
+		if (timingReport != null) {
+			try {
+				timingReport.close();
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+			timingReport = null;
+		}
+		if (timingGraphWindow != null) {
+			timingGraphWindow.dispose();
+			timingGraphWindow = null;
+		}
 
 		try {
 
-         		MPI.Finalize();
+         		transport.shutdown();
         	
-		} catch (MPIException mpiE){
+		} catch (TransportException transportE){
 
-          		mpiE.printStackTrace();
+          		transportE.printStackTrace();
 
      		}
 		
-		// On nodes greater than zero, exit process.
+		// On nodes greater than zero, exit process, unless it's shared with the other nodes.
 
-		if (nodeRank != 0) {
+		if ((nodeRank != 0) && exitAtEnd) {
 			System.exit(0);
 		} 
 
@@ -482,37 +3062,60 @@ public class Model extends SimpleModel {
         
         
 	/**
-	 * Sends out Agents to nodes from node zero.<P>
-	 * To do:
-	 * <UL>
-	 * <LI> Should be generalized to take in and get back object arrays.</LI>
-	 * </UL>
+	 * Sends out Agents to nodes from node zero, using the model's AgentCodec.
 	 **/
 	public void setAgents(Agent[] list) {
 
-		int size = nodeChunkSize;
+		setAgents(list, agentCodec);
+
+		if (log.isEnabled(RankLog.TRACE)) {
+			for (int i = 0; i < list.length; i++) {
+				log.log(RankLog.TRACE, "sent agent " + list[i].getId() + " value " + list[i].getValue()); 
+			}
+		}
+
+	} // End setAgents.
+
+
+        
+        
+        
+	/**
+	 * Sends out agents of any type to nodes from node zero.<P>
+	 * Each node's agents are packed by the codec into their own batch in 
+	 * agentBuffer, one after another, and the whole lot is sent as MPI.INT 
+	 * in one Scatterv, which avoids serializing every agent and leaves the 
+	 * MPI library to get the batches to the nodes.</P>
+	 * <P>With wireEncoding on, the batches are encoded by the WireCodec 
+	 * first, and their lengths sent out before them.</P>
+	 **/
+	public void setAgents(Object[] list, AgentCodec codec) {
 
+		long start = System.nanoTime();
+		setBatchLayout(codec);
+		int phase = timer.enter(PhaseTimer.SERIALIZE);
 		for (int i = 1; i < numberOfNodes; i++) {
+			agentBuffer.encode(codec, list, nodeAgentStarts[i], nodeAgentCounts[i], batchStarts[i]);
+		}
+		timer.enter(phase);
 
-			if (i == numberOfNodes - 1) {
-				size = finalNodeChunkSize;
+		try {
+			if (wireCodec != null) {
+				scatterEncoded();
+			} else {
+				transport.scatterv(agentBuffer.getInts(), 0, batchLengths, batchStarts, 
+					noInts, 0, 0, 0);
 			}
+			log.log(RankLog.DEBUG, "sending agent arrays to processors");
+		} catch (TransportException transportE) {
+			transportE.printStackTrace();
+		} 
 
-			Agent[] listToSend = new Agent[size];
-			System.arraycopy(list, (nodeChunkSize * (i - 1)),
-				 listToSend, 0, size);
-			try {
-				MPI.COMM_WORLD.Send(listToSend, 0, size, MPI.OBJECT, i, 50);
-				for (int j = 0; j <listToSend.length; j++) {
-					System.out.print("Processor " + i + ":");
-					System.out.println(" agent " + listToSend[j].getId() + " value " + listToSend[j].getValue()); 
-				}
-				System.out.println("sending agent array to processor " + i);
-			} catch (MPIException mpiE) {
-				mpiE.printStackTrace();
-			} 
-
+		// Note how long it took, for working out whether a rebalance is worth it.
 
+		int sent = list.length - nodeAgentCounts[0];
+		if (sent > 0) {
+			transferNanosPerAgent = (double) (System.nanoTime() - start) / sent;
 		}
 
 	} // End setAgents.
@@ -522,39 +3125,73 @@ public class Model extends SimpleModel {
         
         
 	/**
-	 * Gets Agents to node zero from other nodes.<P>
-	 * To do:
-	 * <UL>
-	 * <LI> Should be generalized to take in and get back object arrays.</LI>
-	 * </UL>
+	 * Works out the length of each node's batch of agents for the codec, and 
+	 * where it starts in agentBuffer, for a Scatterv or Gatherv, and makes 
+	 * sure the buffer on node zero is big enough for them all. 
+	 * Returns the total length.
+	 **/
+	private int setBatchLayout(AgentCodec codec) {
+
+		int total = 0;
+		for (int i = 0; i < numberOfNodes; i++) {
+			batchLengths[i] = (i == 0) ? 0 : AgentBuffer.getLength(codec, nodeAgentCounts[i]);
+			batchStarts[i] = total;
+			total = total + batchLengths[i];
+		}
+		if (nodeRank == 0) {
+			agentBuffer.ensureLength(total);
+		}
+		return total;
+
+	}
+
+
+        
+        
+        
+	/**
+	 * Gets Agents to node zero from other nodes, using the model's AgentCodec.
 	 **/
 	public void getAgents(Agent[] list) {	
-		
-		int size = nodeChunkSize;
 
-		for (int i = 1; i < numberOfNodes; i++) {
-			
-			if (i == (numberOfNodes - 1)) {
-				size = finalNodeChunkSize;
-				}
+		getAgents(list, agentCodec);
 
-			Agent[] listToGet = new Agent[size];
+	} // End getAgents.
 
-			try {	
- 				MPI.COMM_WORLD.Recv(listToGet, 0, size, MPI.OBJECT, i, 50);
-				
-			} catch (MPIException mpiE) {
-				mpiE.printStackTrace();
-			}
 
-			System.arraycopy(listToGet, 0, list, 
-				(nodeChunkSize * (i - 1)), size);
+        
+        
+        
+	/**
+	 * Gets agents of any type to node zero from other nodes.<P>
+	 * The agents arrive as ints packed by the codec, and the 
+	 * agents already in the list are updated in place from them, so the 
+	 * world and display keep pointing at the same objects.</P>
+	 **/
+	public void getAgents(Object[] list, AgentCodec codec) {	
+		
+		setBatchLayout(codec);
+		try {	
+			if (wireCodec != null) {
+				gatherEncoded();
+			} else {
+ 				transport.gatherv(noInts, 0, 0, 
+					agentBuffer.getInts(), 0, batchLengths, batchStarts, 0);
+			}
+		} catch (TransportException transportE) {
+			transportE.printStackTrace();
+		}
 
+		int phase = timer.enter(PhaseTimer.SERIALIZE);
+		for (int i = 1; i < numberOfNodes; i++) {
+			agentBuffer.decode(codec, list, nodeAgentStarts[i], batchStarts[i]);
 		}
+		timer.enter(phase);
+
 		agentList.clear();
 
 			for ( int i = 0; i < totalNumberOfAgents; i++ ) {
-                		Agent agent = list[i];
+                		Object agent = list[i];
 				//System.out.println("adding to agentList agent " + agent.getId());
                 		agentList.add(agent);
             		}
@@ -564,6 +3201,142 @@ public class Model extends SimpleModel {
                         
 	} // End getAgents.
 
+
+        
+        
+        
+	/**
+	 * Gets just the agents that have changed to node zero from other nodes, 
+	 * and applies the changes to the agents already in the list.<P>
+	 * As the number of changed agents isn't known until they arrive, the 
+	 * length of each node's batch is gathered first, and then the batches 
+	 * themselves with a Gatherv.</P>
+	 **/
+	public void getAgentChanges(Object[] list, DeltaAgentCodec codec) {	
+		
+		try {	
+			if (wireCodec != null) {
+				gatherEncoded();
+			} else {
+				lengthArray[0] = 0;
+				transport.gather(lengthArray, 0, 1, batchLengths, 0, 0);
+				int total = 0;
+				for (int i = 0; i < numberOfNodes; i++) {
+					batchStarts[i] = total;
+					total = total + batchLengths[i];
+				}
+				agentBuffer.ensureLength(total);
+ 				transport.gatherv(noInts, 0, 0, 
+					agentBuffer.getInts(), 0, batchLengths, batchStarts, 0);
+			}
+		} catch (TransportException transportE) {
+			transportE.printStackTrace();
+		}
+
+		int phase = timer.enter(PhaseTimer.SERIALIZE);
+		for (int i = 1; i < numberOfNodes; i++) {
+			agentBuffer.decodeChanges(codec, list, nodeAgentStarts[i], batchStarts[i]);
+		}
+		timer.enter(phase);
+                        
+	} // End getAgentChanges.
+
+
+        
+        
+        
+	/**
+	 * Makes the WireCodec for the batches of Agents sent to and from node 
+	 * zero, if the setting sent with command "21" isn't zero; it's one more 
+	 * than the number of bytes to start deflating at.
+	 **/
+	private void setUpWireCodec(int setting) {
+		wireCodec = (setting > 0) ? new WireCodec(numberOfNodes, setting - 1) : null;
+	}
+
+
+        
+        
+        
+	/**
+	 * On node zero, encodes the batches in agentBuffer, laid out by 
+	 * setBatchLayout(), with the WireCodec, sends their lengths out, 
+	 * and then scatters them.
+	 **/
+	private void scatterEncoded() throws TransportException {
+
+		int phase = timer.enter(PhaseTimer.SERIALIZE);
+		int total = 0;
+		for (int i = 0; i < numberOfNodes; i++) {
+			wireStarts[i] = total;
+			wireLengths[i] = (i == 0) ? 0 
+				: wireCodec.encode(agentBuffer.getInts(), batchStarts[i], batchLengths[i], i, wireBuffer, total);
+			total = total + wireLengths[i];
+		}
+		timer.enter(phase);
+		transport.bcast(wireLengths, 0, numberOfNodes, 0);
+		transport.scatterv(wireBuffer.getInts(), 0, wireLengths, wireStarts, noInts, 0, 0, 0);
+
+	}
+
+
+        
+        
+        
+	/**
+	 * On other nodes, gets the batch sent by scatterEncoded() and decodes 
+	 * it into the start of agentBuffer.
+	 **/
+	private void receiveEncoded() throws TransportException {
+
+		transport.bcast(wireLengths, 0, numberOfNodes, 0);
+		wireBuffer.ensureLength(wireLengths[nodeRank]);
+		transport.scatterv(noInts, 0, wireLengths, wireStarts, 
+			wireBuffer.getInts(), 0, wireLengths[nodeRank], 0);
+		int phase = timer.enter(PhaseTimer.SERIALIZE);
+		wireCodec.decode(wireBuffer.getInts(), 0, 0, agentBuffer, 0);
+		timer.enter(phase);
+
+	}
+
+
+        
+        
+        
+	/**
+	 * On node zero, gathers the batches the other nodes have encoded with 
+	 * their WireCodecs, which can be any length, so their lengths come 
+	 * first, and decodes them into agentBuffer, one after another, setting 
+	 * batchLengths and batchStarts to where they are.
+	 **/
+	private void gatherEncoded() throws TransportException {
+
+		lengthArray[0] = 0;
+		transport.gather(lengthArray, 0, 1, wireLengths, 0, 0);
+		int total = 0;
+		for (int i = 0; i < numberOfNodes; i++) {
+			wireStarts[i] = total;
+			total = total + wireLengths[i];
+		}
+		wireBuffer.ensureLength(total);
+		transport.gatherv(noInts, 0, 0, 
+			wireBuffer.getInts(), 0, wireLengths, wireStarts, 0);
+
+		int phase = timer.enter(PhaseTimer.SERIALIZE);
+		total = 0;
+		for (int i = 0; i < numberOfNodes; i++) {
+			batchStarts[i] = total;
+			batchLengths[i] = (i == 0) ? 0 : WireCodec.getRawLength(wireBuffer.getInts(), wireStarts[i]);
+			total = total + batchLengths[i];
+		}
+		agentBuffer.ensureLength(total);
+		for (int i = 1; i < numberOfNodes; i++) {
+			wireCodec.decode(wireBuffer.getInts(), wireStarts[i], i, agentBuffer, batchStarts[i]);
+		}
+		timer.enter(phase);
+
+	}
+
         
         
         
@@ -575,29 +3348,91 @@ public class Model extends SimpleModel {
 	 * third parameters of the loadModel method specify a parameter file and whether or
 	 * not the model is a batch model. For other nodes, it just makes an object of this class and
 	 * puts it into waitForCommands mode. Note the local variables to get around the problem of
-	 * static variables and MPI being needed before and after the construction process.
+	 * static variables and MPI being needed before and after the construction process.<P>
+	 * Run with <CODE>-local n</CODE> to run <CODE>n</CODE> nodes as threads in this JVM, 
+	 * over a LocalTransport, without MPI. Under MPI, <CODE>-shm</CODE> sends messages 
+	 * between nodes on the same machine through shared memory rather than MPI.</P>
+	 * <P><CODE>-batch</CODE>, optionally followed by a Repast parameter file, 
+	 * loads the model as a batch model, with no display, so node zero never 
+	 * gathers the Agents. The run then needs StopAt set, or a parameter 
+	 * file that ends it.</P>
 	 * @param args String[] Number of nodes to run on? Set by prunjava.
 	 **/
-	public static void main(String [] args) throws MPIException {    
+	public static void main(String [] args) throws TransportException {    
+
+		boolean batch = false;
+		String parameterFile = null;
+		for (int i = 0; i < args.length; i++) {
+			if ("-batch".equals(args[i])) {
+				batch = true;
+				if ((i + 1 < args.length) && !args[i + 1].startsWith("-")) {
+					parameterFile = args[i + 1];
+				}
+			}
+		}
+
+		if ((args.length > 1) && "-local".equals(args[0])) {
+
+			LocalTransport[] transports = LocalTransport.create(Integer.parseInt(args[1]));
+			startNodes(transports);
+			SimInit init = new SimInit();
+			Model model = new Model(transports[0]);
+			model.setBatch(batch);
+			init.loadModel(model, parameterFile, batch);
+			return;
 
-		MPI.Init(args);
-		int nodeRanklocal = MPI.COMM_WORLD.Rank();
-		int numberOfNodes = MPI.COMM_WORLD.Size(); 
+		}
+
+		Transport transport = MPITransport.init(args);
+		for (int i = 0; i < args.length; i++) {
+			if ("-shm".equals(args[i])) {
+				transport = new SharedMemoryTransport(transport);
+				break;
+			}
+		}
+		int nodeRanklocal = transport.getRank();
 
 		if (nodeRanklocal == 0) {
 
 			SimInit init = new SimInit();
-				Model model = new Model(nodeRanklocal, numberOfNodes);
-				init.loadModel(model, null, false );
+				Model model = new Model(transport);
+				model.setBatch(batch);
+				init.loadModel(model, parameterFile, batch);
 			
 		} else {
 
-			Model model = new Model(nodeRanklocal, numberOfNodes);
+			Model model = new Model(transport);
+			model.exitAtEnd = true;
 			model.waitForCommands();
 			
 		}
 
 	}
 
+
+
+
+
+	/**
+	 * Starts a thread for each node other than zero, with a Model waiting 
+	 * for commands over the node's Transport, for running the nodes in 
+	 * one JVM. Node zero's Model is left to the caller. The threads are 
+	 * daemons, so they don't keep the JVM going once node zero is done.
+	 **/
+	public static void startNodes(Transport[] transports) {
+
+		for (int i = 1; i < transports.length; i++) {
+			final Model model = new Model(transports[i]);
+			Thread node = new Thread(new Runnable() {
+				public void run() {
+					model.waitForCommands();
+				}
+			}, "Node " + i);
+			node.setDaemon(true);
+			node.start();
+		}
+
+	}
+
 // End of Model.
 }
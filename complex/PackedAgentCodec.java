@@ -0,0 +1,123 @@
+/**
+ * PackedAgentCodec
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+
+/**
+ * The AgentCodec for this example's <CODE>Agent</CODE> class, 
+ * using <CODE>Agent.pack()</CODE> and <CODE>Agent.unpack()</CODE>, 
+ * and <CODE>Agent.packChanges()</CODE> and <CODE>Agent.unpackChanges()</CODE> 
+ * for sending just the changes.
+ * @version 1.3
+ */ 
+public class PackedAgentCodec implements DeltaAgentCodec {
+
+
+	public static final int VERSION = 1;
+
+
+
+
+	/**
+	 * Gets the version of the layout: id, x, y, value.
+	 **/
+	public int getVersion() {
+		return VERSION;
+	}
+
+
+
+
+	/**
+	 * Gets the number of ints each Agent is packed into.
+	 **/
+	public int getPackedSize() {
+		return Agent.PACKED_SIZE;
+	}
+
+
+
+
+	/**
+	 * Packs the Agents with <CODE>Agent.pack()</CODE>.
+	 **/
+	public void encode(Object[] agents, int from, int count, int[] buffer, int offset) {
+		for (int i = 0; i < count; i++) {
+			((Agent) agents[from + i]).pack(buffer, offset + (i * Agent.PACKED_SIZE));
+		}
+	}
+
+
+
+
+	/**
+	 * Gets the largest number of ints a change record can take up: 
+	 * the mask and all the fields.
+	 **/
+	public int getMaxChangeSize() {
+		return Agent.PACKED_SIZE + 1;
+	}
+
+
+
+
+	/**
+	 * Packs the Agent's changes with <CODE>Agent.packChanges()</CODE>.
+	 **/
+	public int encodeChanges(Object agent, int[] buffer, int offset) {
+		if (((Agent) agent).getChangedFields() == 0) {
+			return 0;
+		}
+		return ((Agent) agent).packChanges(buffer, offset);
+	}
+
+
+
+
+	/**
+	 * Applies the Agent's changes with <CODE>Agent.unpackChanges()</CODE>.
+	 **/
+	public int decodeChanges(int[] buffer, int offset, Object agent) {
+		return ((Agent) agent).unpackChanges(buffer, offset);
+	}
+
+
+
+
+	/**
+	 * Marks the Agent as unchanged.
+	 **/
+	public void clearChanges(Object agent) {
+		((Agent) agent).clearChangedFields();
+	}
+
+
+
+
+	/**
+	 * Unpacks the Agents with <CODE>Agent.unpack()</CODE>, making new ones where needed.
+	 **/
+	public void decode(int[] buffer, int offset, int count, Object[] agents, int to) {
+		for (int i = 0; i < count; i++) {
+			int position = offset + (i * Agent.PACKED_SIZE);
+			if (agents[to + i] == null) {
+				agents[to + i] = new Agent(buffer, position);
+			} else {
+				((Agent) agents[to + i]).unpack(buffer, position);
+			}
+		}
+	}
+
+// End of PackedAgentCodec.
+}
@@ -0,0 +1,40 @@
+/**
+ * Partitioner
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+
+/**
+ * Implemented by classes that decide which node each agent goes to.<P>
+ * The split is given as a count of agents for each node, and an order to put 
+ * the agents in so that each node's agents sit together, node zero's first, 
+ * then node one's, and so on. The Model puts its list into that order, so 
+ * each node's agents can then be sent and got back as one run of the list.</P>
+ * @version 1.3
+ */ 
+public interface Partitioner {
+
+
+
+
+	/**
+	 * Splits the agents between the nodes, in proportion to the weights, 
+	 * one for each node. Fills in <CODE>counts</CODE> with the number of agents 
+	 * for each node, and returns the order to put the agents in: element 
+	 * <CODE>k</CODE> is the index in <CODE>agents</CODE> of the agent that 
+	 * should be <CODE>k</CODE>th.
+	 **/
+	public int[] partition(Object[] agents, double[] weights, int[] counts);
+
+// End of Partitioner.
+}
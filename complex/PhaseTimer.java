@@ -0,0 +1,175 @@
+/**
+ * PhaseTimer
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+
+/**
+ * Adds up where a node's time goes, split into phases: stepping Agents 
+ * (COMPUTE), packing and unpacking them (SERIALIZE), sending and receiving 
+ * (COMMUNICATE), and waiting for node zero's next command or at a barrier 
+ * (WAIT). Anything else is OTHER. It also counts the messages and bytes 
+ * the node sends and receives, which a TimedTransport adds as they go.<P>
+ * The node is always in exactly one phase, and <CODE>enter()</CODE> 
+ * moves it to another, adding the time since the last move to the phase 
+ * it was in, so timing costs one <CODE>System.nanoTime()</CODE> per move 
+ * and the phases add up to the wall-clock time. <CODE>enter()</CODE> 
+ * returns the phase the node was in, so code that times part of another 
+ * phase can put it back afterwards.</P>
+ * <P>The totals, with the counts, are packed into ints so they can be 
+ * gathered to node zero with the rest of the messages, and reset after each 
+ * report. A timer belongs to one thread, the node's main thread; threads 
+ * in a ThreadedStepper are counted as the COMPUTE time of the thread 
+ * waiting for them.</P>
+ * @version 1.3
+ */ 
+public class PhaseTimer {
+
+
+	public static final int OTHER = 0; // Phases.
+	public static final int COMPUTE = 1;
+	public static final int SERIALIZE = 2;
+	public static final int COMMUNICATE = 3;
+	public static final int WAIT = 4;
+	public static final int PHASES = 5;
+
+	public static final int MESSAGES_SENT = 5; // Counts, after the phase times.
+	public static final int BYTES_SENT = 6;
+	public static final int MESSAGES_RECEIVED = 7;
+	public static final int BYTES_RECEIVED = 8;
+	public static final int FIELDS = 9;
+
+	public static final int PACKED_SIZE = 2 * FIELDS; // Ints written by pack(), two for each long.
+
+	private static final String[] NAMES = {"other", "compute", "serialize", "communicate", "wait", 
+		"messagesSent", "bytesSent", "messagesReceived", "bytesReceived"};
+
+	private long[] totals = new long[FIELDS]; // Nanoseconds in each phase, then the counts.
+	private int phase = OTHER;
+	private long last = System.nanoTime(); // When the current phase was entered.
+
+
+
+
+	/**
+	 * Moves to the given phase, and returns the phase the node was in.
+	 **/
+	public int enter(int newPhase) {
+
+		long now = System.nanoTime();
+		totals[phase] = totals[phase] + (now - last);
+		last = now;
+		int old = phase;
+		phase = newPhase;
+		return old;
+
+	}
+
+
+
+
+	/**
+	 * Gets the phase the node is in.
+	 **/
+	public int getPhase() {
+		return phase;
+	}
+
+
+
+
+	/**
+	 * Counts a message of <CODE>ints</CODE> ints sent.
+	 **/
+	public void countSent(int ints) {
+		totals[MESSAGES_SENT]++;
+		totals[BYTES_SENT] = totals[BYTES_SENT] + (4L * ints);
+	}
+
+
+
+
+	/**
+	 * Counts a message of <CODE>ints</CODE> ints received.
+	 **/
+	public void countReceived(int ints) {
+		totals[MESSAGES_RECEIVED]++;
+		totals[BYTES_RECEIVED] = totals[BYTES_RECEIVED] + (4L * ints);
+	}
+
+
+
+
+	/**
+	 * Gets a total, in nanoseconds for the phases, since the last reset.
+	 * The current phase only includes the time up to its last move.
+	 **/
+	public long get(int field) {
+		return totals[field];
+	}
+
+
+
+
+	/**
+	 * Brings the current phase up to date and writes the totals into the 
+	 * buffer as PACKED_SIZE ints, starting at the given offset.
+	 **/
+	public void pack(int[] buffer, int offset) {
+
+		enter(phase);
+		for (int i = 0; i < FIELDS; i++) {
+			buffer[offset + (2 * i)] = (int) (totals[i] >>> 32);
+			buffer[offset + (2 * i) + 1] = (int) totals[i];
+		}
+
+	}
+
+
+
+
+	/**
+	 * Gets one of the totals written by <CODE>pack()</CODE>, starting at the 
+	 * given offset in the buffer.
+	 **/
+	public static long unpack(int[] buffer, int offset, int field) {
+		return ((long) buffer[offset + (2 * field)] << 32) | (buffer[offset + (2 * field) + 1] & 0xffffffffL);
+	}
+
+
+
+
+	/**
+	 * Sets all the totals back to zero, staying in the current phase.
+	 **/
+	public void reset() {
+
+		for (int i = 0; i < FIELDS; i++) {
+			totals[i] = 0;
+		}
+		last = System.nanoTime();
+
+	}
+
+
+
+
+	/**
+	 * Gets the name of a phase or count, as used in reports.
+	 **/
+	public static String getName(int field) {
+		return NAMES[field];
+	}
+
+// End of PhaseTimer.
+}
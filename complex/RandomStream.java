@@ -0,0 +1,181 @@
+/**
+ * RandomStream
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+
+/**
+ * A stream of random numbers made with the SplitMix64 generator, which 
+ * can be split into independent streams, and re-keyed in place, so every 
+ * node and thread can have its own without sharing a generator.<P>
+ * <CODE>Math.random()</CODE> shares one synchronized generator between 
+ * all the threads in the JVM, so threads stepping Agents queue for it, 
+ * and which numbers an Agent gets depends on which thread or node got 
+ * there first, so no two runs are the same. A RandomStream belongs to 
+ * one thread and is never locked.</P>
+ * <P>There are two ways to get independent streams from one seed:</P>
+ * <UL>
+ * <LI><CODE>split(key)</CODE> makes a new stream, for example one for each 
+ * node, <CODE>new RandomStream(seed).split(rank)</CODE>, and one for each 
+ * of its threads, <CODE>.split(thread)</CODE>;</LI>
+ * <LI><CODE>reset(key1, key2)</CODE> moves an existing stream to the start 
+ * of the stream for those keys, without making anything. The Model keys 
+ * each Agent's numbers by its ID and the tick this way, so an Agent gets 
+ * the same numbers whichever node or thread steps it, and a run gives the 
+ * same results with any number of nodes or threads and any Partitioner.</LI>
+ * </UL>
+ * <P>The keys are mixed into the seed with the SplitMix64 finalizer, 
+ * so streams for neighbouring keys aren't related. The bulk methods fill 
+ * arrays, for drawing a lot of numbers without a call for each.</P>
+ * @version 1.3
+ */ 
+public class RandomStream {
+
+
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L; // Step between states.
+	private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+
+	private long seed = 0; // What the stream and its keyed streams come from.
+	private long state = 0;
+
+
+
+
+	/**
+	 * Makes the stream for the seed.
+	 **/
+	public RandomStream(long seed) {
+		this.seed = seed;
+		this.state = mix(seed);
+	}
+
+
+
+
+	/**
+	 * Makes a new stream, independent of this one and of those split off 
+	 * with other keys, for example for a node or thread.
+	 **/
+	public RandomStream split(long key) {
+		return new RandomStream(mix(seed + mix(key + GOLDEN_GAMMA)));
+	}
+
+
+
+
+	/**
+	 * Moves the stream to the start of the stream for the two keys, for 
+	 * example an Agent's ID and the tick, without making anything.
+	 **/
+	public void reset(long key1, long key2) {
+		state = mix(seed ^ mix(mix(key1 + GOLDEN_GAMMA) + key2));
+	}
+
+
+
+
+	/**
+	 * Gets the next 64 random bits.
+	 **/
+	public long nextLong() {
+		state = state + GOLDEN_GAMMA;
+		return mix(state);
+	}
+
+
+
+
+	/**
+	 * Gets a random int from zero up to, but not including, bound, all equally likely.
+	 * @throws IllegalArgumentException if bound isn't positive.
+	 **/
+	public int nextInt(int bound) {
+
+		if (bound <= 0) {
+			throw new IllegalArgumentException("Bound " + bound + " isn't positive");
+		}
+
+		// Take 31 bits, rejecting the few at the top that would make 
+		// the low numbers more likely, as java.util.Random does.
+
+		int bits = 0;
+		int value = 0;
+		do {
+			bits = (int) (nextLong() >>> 33);
+			value = bits % bound;
+		} while (bits - value + (bound - 1) < 0);
+		return value;
+
+	}
+
+
+
+
+	/**
+	 * Gets a random double from zero up to, but not including, one.
+	 **/
+	public double nextDouble() {
+		return (nextLong() >>> 11) * DOUBLE_UNIT;
+	}
+
+
+
+
+	/**
+	 * Fills <CODE>count</CODE> ints from <CODE>buffer[offset]</CODE> with 
+	 * random ints from zero up to, but not including, bound.
+	 **/
+	public void nextInts(int[] buffer, int offset, int count, int bound) {
+		for (int i = 0; i < count; i++) {
+			buffer[offset + i] = nextInt(bound);
+		}
+	}
+
+
+
+
+	/**
+	 * Fills <CODE>count</CODE> doubles from <CODE>buffer[offset]</CODE> with 
+	 * random doubles from zero up to, but not including, one.
+	 **/
+	public void nextDoubles(double[] buffer, int offset, int count) {
+		for (int i = 0; i < count; i++) {
+			buffer[offset + i] = nextDouble();
+		}
+	}
+
+
+
+
+	/**
+	 * Gets the seed the stream was made from.
+	 **/
+	public long getSeed() {
+		return seed;
+	}
+
+
+
+
+	/**
+	 * The SplitMix64 finalizer, which scrambles the bits of a long so 
+	 * nearby values give unrelated results.
+	 **/
+	public static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+// End of RandomStream.
+}
@@ -0,0 +1,294 @@
+/**
+ * RankLog
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+import java.io.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * A log for one node, written to its own file by a background thread, so 
+ * the node doesn't wait on the disk or the terminal, and nodes don't get 
+ * in each other's way writing to one stdout.<P>
+ * Each message has a level, and only messages at or below the log's level 
+ * are kept, so the check is all a message that's off costs. Per-agent 
+ * messages are at TRACE, which is off unless asked for. Callers that build 
+ * a message from several parts should check <CODE>isEnabled()</CODE> first, 
+ * so the String isn't made for nothing.</P>
+ * <P>Messages go into a fixed ring, which any number of threads can add 
+ * to without locking, by claiming a slot with a compare-and-set. A daemon 
+ * thread takes them out in order and writes them. If the ring fills up 
+ * faster than the writer can empty it, messages are dropped rather than 
+ * holding up the model, and the number dropped is written when there's 
+ * room again.</P>
+ * @version 1.3
+ */ 
+public class RankLog {
+
+
+	public static final int OFF = 0;
+	public static final int ERROR = 1;
+	public static final int WARN = 2;
+	public static final int INFO = 3;
+	public static final int DEBUG = 4;
+	public static final int TRACE = 5;
+	private static final String[] NAMES = {"OFF", "ERROR", "WARN", "INFO", "DEBUG", "TRACE"};
+
+	public static final int DEFAULT_CAPACITY = 1 << 16; // Messages the ring holds.
+
+	private volatile int level = INFO;
+	private AtomicReferenceArray slots = null;
+	private int mask = 0;
+	private AtomicLong claimed = new AtomicLong(0); // Slots claimed by threads adding messages.
+	private volatile long written = 0; // Slots emptied by the writer.
+	private AtomicLong dropped = new AtomicLong(0);
+	private long start = System.nanoTime();
+	private Writer out = null;
+	private Thread writer = null;
+	private volatile boolean closing = false;
+
+
+
+
+	/**
+	 * Opens the log for node <CODE>rank</CODE>, in the file rank-<CODE>rank</CODE>.log 
+	 * in the directory, which is made if need be, and starts the writer thread. 
+	 * If the file can't be opened, messages go to stderr instead.
+	 **/
+	public RankLog(int rank, String directory, int level) {
+		this(rank, directory, level, DEFAULT_CAPACITY);
+	}
+
+
+
+
+	/**
+	 * As the other constructor, with the number of messages the ring holds, 
+	 * which must be a power of two.
+	 **/
+	public RankLog(int rank, String directory, int level, int capacity) {
+
+		if ((capacity <= 0) || ((capacity & (capacity - 1)) != 0)) {
+			throw new IllegalArgumentException("Log capacity " + capacity + " isn't a power of two");
+		}
+		this.level = level;
+		slots = new AtomicReferenceArray(capacity);
+		mask = capacity - 1;
+
+		try {
+			File dir = new File(directory);
+			dir.mkdirs();
+			out = new BufferedWriter(new FileWriter(new File(dir, "rank-" + rank + ".log")), 1 << 16);
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			out = new OutputStreamWriter(System.err);
+		}
+
+		writer = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "RankLog " + rank);
+		writer.setDaemon(true);
+		writer.start();
+
+	}
+
+
+
+
+	/**
+	 * Gets the level, from OFF to TRACE.
+	 **/
+	public int getLevel() {
+		return level;
+	}
+
+
+
+
+	/**
+	 * Sets the level, from OFF to TRACE. Messages above it are ignored.
+	 **/
+	public void setLevel(int level) {
+		this.level = level;
+	}
+
+
+
+
+	/**
+	 * Gets whether messages at the level are kept.
+	 **/
+	public boolean isEnabled(int messageLevel) {
+		return messageLevel <= level;
+	}
+
+
+
+
+	/**
+	 * Adds the message at the level, if it's enabled, without waiting.
+	 **/
+	public void log(int messageLevel, String message) {
+
+		if ((messageLevel > level) || closing) {
+			return;
+		}
+
+		long slot = 0;
+		do {
+			slot = claimed.get();
+			if (slot - written >= slots.length()) {
+				dropped.incrementAndGet();
+				return;
+			}
+		} while (!claimed.compareAndSet(slot, slot + 1));
+
+		slots.lazySet((int) (slot & mask), new Entry(System.nanoTime(), messageLevel, message));
+
+	}
+
+
+
+
+	/**
+	 * Writes everything already logged, stops the writer thread and closes the file.
+	 **/
+	public void close() {
+
+		closing = true;
+		try {
+			writer.join();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+
+	}
+
+
+
+
+	/**
+	 * Gets a level from its name, such as "INFO", or INFO if the name isn't known.
+	 **/
+	public static int parseLevel(String name) {
+
+		for (int i = 0; i < NAMES.length; i++) {
+			if (NAMES[i].equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+		return INFO;
+
+	}
+
+
+
+
+	/**
+	 * Gets the name of a level.
+	 **/
+	public static String getLevelName(int level) {
+		return NAMES[Math.max(0, Math.min(NAMES.length - 1, level))];
+	}
+
+
+
+
+	/**
+	 * Run by the writer thread: takes messages out of the ring in order 
+	 * and writes them, flushing when it has caught up, until the log is 
+	 * closed and everything claimed has been written.
+	 **/
+	private void drain() {
+
+		long next = written;
+		try {
+			while (true) {
+				int index = (int) (next & mask);
+				Entry entry = (Entry) slots.get(index);
+				if (entry != null) {
+					slots.lazySet(index, null);
+					next++;
+					written = next;
+					write(entry);
+				} else if (next < claimed.get()) {
+					Thread.yield(); // Claimed but not filled in yet.
+				} else {
+					long lost = dropped.getAndSet(0);
+					if (lost > 0) {
+						write(new Entry(System.nanoTime(), WARN, lost + " log messages dropped"));
+					}
+					out.flush();
+					if (closing && (next == claimed.get())) {
+						break;
+					}
+					LockSupport.parkNanos(1000000);
+				}
+			}
+			out.close();
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+		}
+
+	}
+
+
+
+
+	/**
+	 * Writes one message, with the seconds since the log was opened and its level.
+	 **/
+	private void write(Entry entry) throws IOException {
+
+		long micros = (entry.time - start) / 1000;
+		out.write(Long.toString(micros / 1000000));
+		out.write('.');
+		String fraction = Long.toString(1000000 + (micros % 1000000));
+		out.write(fraction, 1, 6);
+		out.write(' ');
+		out.write(NAMES[entry.level]);
+		out.write(' ');
+		out.write(entry.message);
+		out.write('\n');
+
+	}
+
+
+
+
+	/**
+	 * A message waiting to be written.
+	 **/
+	private static class Entry {
+
+
+		private long time = 0;
+		private int level = 0;
+		private String message = null;
+
+
+		Entry(long time, int level, String message) {
+			this.time = time;
+			this.level = level;
+			this.message = message;
+		}
+
+	}
+
+// End of RankLog.
+}
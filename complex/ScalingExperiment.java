@@ -0,0 +1,332 @@
+/**
+ * ScalingExperiment
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+import java.io.*;
+
+
+/**
+ * Runs the Model without a display for a fixed number of ticks, over a 
+ * range of numbers of nodes and Agents, and prints how it scales.<P>
+ * The nodes are threads in this JVM, over a LocalTransport, or over a 
+ * SharedMemoryTransport, as separate processes on one machine would be, 
+ * with <CODE>-shm</CODE>. Node zero keeps none of the Agents, as with 
+ * a NodeZeroWeight of zero, so the Agents are split between the other 
+ * nodes, the workers.</P>
+ * <P>For strong scaling the total number of Agents stays the same as 
+ * the nodes go up; for weak scaling the number for each worker does. 
+ * For each run it prints:</P>
+ * <UL>
+ * <LI>the ticks per second, over the measured ticks, after some to warm up;</LI>
+ * <LI>the parallel efficiency against the first number of nodes: for strong 
+ * scaling, its time times its workers, over this run's time times its 
+ * workers; for weak scaling, its time over this run's time;</LI>
+ * <LI>the fraction of all the nodes' time spent communicating, and waiting 
+ * for commands or at barriers, from their PhaseTimers;</LI>
+ * <LI>with <CODE>-wire</CODE>, what node zero's WireCodec saved, and the 
+ * time it took.</LI>
+ * </UL>
+ * <P>Options, with their defaults:</P>
+ * <UL>
+ * <LI><CODE>-nodes 2,3,5,9</CODE> numbers of nodes, including node zero;</LI>
+ * <LI><CODE>-agents 10000,100000</CODE> total Agents, or Agents per worker with <CODE>-weak</CODE>;</LI>
+ * <LI><CODE>-weak</CODE> for weak rather than strong scaling;</LI>
+ * <LI><CODE>-ticks 100</CODE> and <CODE>-warmup 10</CODE>, rounded up to whole sync intervals;</LI>
+ * <LI><CODE>-sync 1</CODE>, <CODE>-threads 1</CODE> and <CODE>-move 0</CODE>, set on the Model;</LI>
+ * <LI><CODE>-gather 0</CODE> ticks between node zero getting all the Agents 
+ * back with <CODE>refreshAgents()</CODE>, as it would to draw them; zero 
+ * for never, as in a batch run;</LI>
+ * <LI><CODE>-shm</CODE> to send messages through shared memory;</LI>
+ * <LI><CODE>-wire 4096</CODE> to encode the batches of Agents with a WireCodec, 
+ * deflating those of at least the given number of bytes, or none if zero;</LI>
+ * <LI><CODE>-csv file</CODE> to write the results as CSV too.</LI>
+ * </UL>
+ * @version 1.3
+ */ 
+public class ScalingExperiment {
+
+
+	private int[] nodeCounts = {2, 3, 5, 9};
+	private int[] agentCounts = {10000, 100000};
+	private boolean weak = false;
+	private int ticks = 100;
+	private int warmup = 10;
+	private int syncInterval = 1;
+	private int threads = 1;
+	private int moveDistance = 0;
+	private int gatherInterval = 0;
+	private boolean sharedMemory = false;
+	private int compressAbove = -1; // For the WireCodec; less than zero for none.
+	private String wireSummary = null; // What the WireCodec saved in the last run.
+	private PrintWriter csv = null;
+
+
+
+
+	/**
+	 * Runs the experiment with the options given.
+	 **/
+	public static void main(String [] args) throws Exception {
+
+		ScalingExperiment experiment = new ScalingExperiment();
+		for (int i = 0; i < args.length; i++) {
+			if ("-nodes".equals(args[i])) {
+				experiment.nodeCounts = parseInts(args[++i]);
+			} else if ("-agents".equals(args[i])) {
+				experiment.agentCounts = parseInts(args[++i]);
+			} else if ("-weak".equals(args[i])) {
+				experiment.weak = true;
+			} else if ("-ticks".equals(args[i])) {
+				experiment.ticks = Integer.parseInt(args[++i]);
+			} else if ("-warmup".equals(args[i])) {
+				experiment.warmup = Integer.parseInt(args[++i]);
+			} else if ("-sync".equals(args[i])) {
+				experiment.syncInterval = Math.max(1, Integer.parseInt(args[++i]));
+			} else if ("-threads".equals(args[i])) {
+				experiment.threads = Integer.parseInt(args[++i]);
+			} else if ("-move".equals(args[i])) {
+				experiment.moveDistance = Integer.parseInt(args[++i]);
+			} else if ("-gather".equals(args[i])) {
+				experiment.gatherInterval = Integer.parseInt(args[++i]);
+			} else if ("-shm".equals(args[i])) {
+				experiment.sharedMemory = true;
+			} else if ("-wire".equals(args[i])) {
+				experiment.compressAbove = Math.max(0, Integer.parseInt(args[++i]));
+			} else if ("-csv".equals(args[i])) {
+				experiment.csv = new PrintWriter(new FileWriter(args[++i]));
+			} else {
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		experiment.run();
+
+	}
+
+
+
+
+	/**
+	 * Runs the model for each number of Agents and nodes, and prints the results.
+	 **/
+	public void run() throws Exception {
+
+		ticks = roundUp(ticks);
+		warmup = roundUp(warmup);
+		System.out.println((weak ? "Weak" : "Strong") + " scaling, " + ticks + " ticks after " 
+			+ warmup + " to warm up" + (sharedMemory ? ", shared memory" : ""));
+		if (csv != null) {
+			csv.println("scaling,nodes,agents,ticks,seconds,ticksPerSecond,efficiency,communicateFraction,waitFraction");
+		}
+
+		for (int a = 0; a < agentCounts.length; a++) {
+
+			System.out.println();
+			System.out.println("nodes   agents   ticks/s   efficiency   communicate   wait");
+			double baseSeconds = 0.0;
+			int baseWorkers = 0;
+
+			for (int n = 0; n < nodeCounts.length; n++) {
+
+				int nodes = nodeCounts[n];
+				int workers = nodes - 1;
+				int agents = weak ? agentCounts[a] * workers : agentCounts[a];
+				long[] totals = new long[PhaseTimer.FIELDS];
+				double seconds = runModel(nodes, agents, totals);
+
+				if (n == 0) {
+					baseSeconds = seconds;
+					baseWorkers = workers;
+				}
+				double efficiency = weak ? baseSeconds / seconds 
+					: (baseSeconds * baseWorkers) / (seconds * workers);
+				long allTime = 0;
+				for (int p = 0; p < PhaseTimer.PHASES; p++) {
+					allTime = allTime + totals[p];
+				}
+				double communicate = (double) totals[PhaseTimer.COMMUNICATE] / Math.max(1, allTime);
+				double wait = (double) totals[PhaseTimer.WAIT] / Math.max(1, allTime);
+
+				System.out.println(pad(nodes, 5) + pad(agents, 9) + pad(ticks / seconds, 10) 
+					+ pad(efficiency, 13) + pad(communicate, 14) + pad(wait, 7));
+				if (wireSummary != null) {
+					System.out.println("      wire encoding on node 0: " + wireSummary);
+				}
+				if (csv != null) {
+					csv.println((weak ? "weak" : "strong") + "," + nodes + "," + agents + "," + ticks + "," 
+						+ seconds + "," + (ticks / seconds) + "," + efficiency + "," + communicate + "," + wait);
+					csv.flush();
+				}
+
+			}
+
+		}
+
+		if (csv != null) {
+			csv.close();
+		}
+
+	}
+
+
+
+
+	/**
+	 * Runs the model once on <CODE>nodes</CODE> nodes with <CODE>agents</CODE> 
+	 * Agents, and returns the seconds the measured ticks took, putting 
+	 * the nodes' PhaseTimer totals over those ticks in <CODE>totals</CODE>.
+	 **/
+	private double runModel(int nodes, int agents, long[] totals) throws Exception {
+
+		Transport[] transports = createTransports(nodes);
+		Model.startNodes(transports);
+		Model model = new Model(transports[0]);
+
+		File timingFile = File.createTempFile("scaling", ".csv");
+		model.setTotalNumberOfAgents(agents);
+		model.setSyncInterval(syncInterval);
+		model.setThreads(threads);
+		model.setMoveDistance(moveDistance);
+		model.setLogLevel("WARN");
+		model.setTimingFile(timingFile.getPath());
+		model.setTimingInterval(Integer.MAX_VALUE); // Only when asked, below.
+		model.setWireEncoding(compressAbove >= 0);
+		model.setCompressAbove(Math.max(0, compressAbove));
+		model.buildModel();
+
+		for (int t = 0; t < warmup; t++) {
+			tick(model, t);
+		}
+		model.reportTiming(); // Starts the timers again.
+
+		long start = System.nanoTime();
+		for (int t = 0; t < ticks; t++) {
+			tick(model, t);
+		}
+		double seconds = (System.nanoTime() - start) / 1.0e9;
+
+		model.reportTiming();
+		for (int f = 0; f < PhaseTimer.FIELDS; f++) {
+			totals[f] = model.getTimingReport().getTotal(f);
+		}
+		wireSummary = (model.getWireCodec() != null) ? model.getWireCodec().getSummary() : null;
+		model.atEnd();
+		timingFile.delete();
+		return seconds;
+
+	}
+
+
+
+
+	/**
+	 * Makes the Transports for the nodes, wrapping each in a 
+	 * SharedMemoryTransport if wanted, which has to be done on all the 
+	 * nodes at once.
+	 **/
+	private Transport[] createTransports(int nodes) throws Exception {
+
+		final LocalTransport[] local = LocalTransport.create(nodes);
+		if (!sharedMemory) {
+			return local;
+		}
+
+		final Transport[] shared = new Transport[nodes];
+		final Exception[] failure = new Exception[1];
+		Thread[] starting = new Thread[nodes];
+		for (int i = 0; i < nodes; i++) {
+			final int rank = i;
+			starting[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						shared[rank] = new SharedMemoryTransport(local[rank]);
+					} catch (Exception e) {
+						failure[0] = e;
+					}
+				}
+			});
+			starting[i].start();
+		}
+		for (int i = 0; i < nodes; i++) {
+			starting[i].join();
+		}
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+		return shared;
+
+	}
+
+
+
+
+	/**
+	 * Runs one tick, as Repast's schedule would, and gets the Agents back 
+	 * if it's time to.
+	 **/
+	private void tick(Model model, int tick) {
+		model.preStep();
+		model.step();
+		model.postStep();
+		if ((gatherInterval > 0) && ((tick + 1) % gatherInterval == 0)) {
+			model.refreshAgents();
+		}
+	}
+
+
+
+
+	/**
+	 * Rounds a number of ticks up to whole sync intervals, so the other 
+	 * nodes aren't part way through running ahead when the timers are read.
+	 **/
+	private int roundUp(int count) {
+		return ((Math.max(0, count) + syncInterval - 1) / syncInterval) * syncInterval;
+	}
+
+
+
+
+	/**
+	 * Gets the numbers in a list separated by commas.
+	 **/
+	private static int[] parseInts(String list) {
+
+		String[] parts = list.split(",");
+		int[] numbers = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			numbers[i] = Integer.parseInt(parts[i].trim());
+		}
+		return numbers;
+
+	}
+
+
+
+
+	/**
+	 * Pads a number on the left to the given width.
+	 **/
+	private static String pad(double number, int width) {
+
+		String text = (number == Math.rint(number)) ? Long.toString((long) number) 
+			: Double.toString(Math.round(number * 1000.0) / 1000.0);
+		while (text.length() < width) {
+			text = " " + text;
+		}
+		return text;
+
+	}
+
+// End of ScalingExperiment.
+}
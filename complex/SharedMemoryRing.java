@@ -0,0 +1,189 @@
+/**
+ * SharedMemoryRing
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * A ring of ints in a memory-mapped file, written by one process and read 
+ * by another on the same machine, with no locks and no system calls once 
+ * it's set up. Put the file somewhere in memory, like /dev/shm, and it 
+ * never touches a disk.<P>
+ * The file starts with the number of ints written so far (the head) and 
+ * the number read (the tail), each on its own cache line so the writer and 
+ * reader don't fight over it, then the ints themselves. Only the writer 
+ * changes the head and only the reader the tail. The head is set with 
+ * release ordering after the ints are written, and read with acquire 
+ * ordering before they're read, and the same the other way round for the 
+ * tail, so the reader never sees ints before they've arrived and the writer 
+ * never overwrites ints that haven't been read. This needs Java 9 or later, 
+ * for the VarHandle.</P>
+ * <P>Each end is used by one thread only, and neither waits: 
+ * <CODE>write()</CODE> and <CODE>read()</CODE> do what they can and return 
+ * how much that was.</P>
+ * @version 1.3
+ */ 
+public class SharedMemoryRing {
+
+
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	private static final int HEAD = 0; // Byte offsets in the file.
+	private static final int TAIL = 64;
+	private static final int CAPACITY = 128;
+	private static final int DATA = 192;
+
+	private MappedByteBuffer buffer = null;
+	private IntBuffer ints = null;
+	private int capacity = 0;
+	private int mask = 0;
+	private long head = 0; // This end's copy of the head, if it's the writer.
+	private long tail = 0; // This end's copy of the tail, if it's the reader.
+
+
+
+
+	/**
+	 * Maps the ring in the file. The writer should make the file, with 
+	 * <CODE>create</CODE> true, which wipes anything already there, before 
+	 * the reader opens it. 
+	 * @param capacity int Number of ints the ring holds, a power of two.
+	 * @throws IllegalArgumentException if the capacity isn't a power of two.
+	 * @throws IOException if the file can't be mapped, or was made with a different capacity.
+	 **/
+	public SharedMemoryRing(File file, int capacity, boolean create) throws IOException {
+
+		if ((capacity <= 0) || ((capacity & (capacity - 1)) != 0)) {
+			throw new IllegalArgumentException("Ring capacity " + capacity + " isn't a power of two");
+		}
+		this.capacity = capacity;
+		mask = capacity - 1;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if (create) {
+				raf.setLength(0);
+			}
+			long size = DATA + (4L * capacity);
+			raf.setLength(size);
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} finally {
+			raf.close(); // The mapping stays after the file is closed.
+		}
+		buffer.order(ByteOrder.nativeOrder());
+
+		if (create) {
+			buffer.putInt(CAPACITY, capacity);
+		} else if (buffer.getInt(CAPACITY) != capacity) {
+			throw new IOException("Ring " + file + " has capacity " + buffer.getInt(CAPACITY) + " not " + capacity);
+		}
+		head = (long) LONGS.getAcquire(buffer, HEAD);
+		tail = (long) LONGS.getAcquire(buffer, TAIL);
+
+		buffer.position(DATA);
+		ints = buffer.slice().order(ByteOrder.nativeOrder()).asIntBuffer();
+		buffer.position(0);
+
+	}
+
+
+
+
+	/**
+	 * Gets the number of ints the ring holds.
+	 **/
+	public int getCapacity() {
+		return capacity;
+	}
+
+
+
+
+	/**
+	 * From the writer, copies as many of the <CODE>count</CODE> ints from 
+	 * <CODE>source[offset]</CODE> into the ring as there's room for, and 
+	 * returns the number copied.
+	 **/
+	public int write(int[] source, int offset, int count) {
+
+		long readTo = (long) LONGS.getAcquire(buffer, TAIL);
+		int written = Math.min(count, capacity - (int) (head - readTo));
+		if (written <= 0) {
+			return 0;
+		}
+
+		int start = (int) (head & mask);
+		int first = Math.min(written, capacity - start);
+		ints.position(start);
+		ints.put(source, offset, first);
+		if (written > first) {
+			ints.position(0);
+			ints.put(source, offset + first, written - first);
+		}
+
+		head = head + written;
+		LONGS.setRelease(buffer, HEAD, head);
+		return written;
+
+	}
+
+
+
+
+	/**
+	 * From the reader, copies as many of the ints in the ring as there are, 
+	 * up to <CODE>count</CODE>, into <CODE>destination[offset]</CODE>, and 
+	 * returns the number copied.
+	 **/
+	public int read(int[] destination, int offset, int count) {
+
+		long writtenTo = (long) LONGS.getAcquire(buffer, HEAD);
+		int read = Math.min(count, (int) (writtenTo - tail));
+		if (read <= 0) {
+			return 0;
+		}
+
+		int start = (int) (tail & mask);
+		int first = Math.min(read, capacity - start);
+		ints.position(start);
+		ints.get(destination, offset, first);
+		if (read > first) {
+			ints.position(0);
+			ints.get(destination, offset + first, read - first);
+		}
+
+		tail = tail + read;
+		LONGS.setRelease(buffer, TAIL, tail);
+		return read;
+
+	}
+
+
+
+
+	/**
+	 * From the reader, gets the number of ints waiting to be read.
+	 **/
+	public int available() {
+		return (int) ((long) LONGS.getAcquire(buffer, HEAD) - tail);
+	}
+
+// End of SharedMemoryRing.
+}
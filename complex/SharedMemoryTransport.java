@@ -0,0 +1,767 @@
+/**
+ * SharedMemoryTransport
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * A Transport that sends messages between nodes on the same machine through 
+ * SharedMemoryRings in memory-mapped files, and between machines through 
+ * another Transport, usually an MPITransport, that it also uses to set up.<P>
+ * Each pair of nodes on a machine has a ring each way, and a message is a 
+ * tag and a length followed by the ints, copied straight from the sender's 
+ * buffer into the ring and from the ring into the receiver's, if the receive 
+ * is already waiting. Messages longer than the ring go through in pieces. 
+ * A node waiting to write to a full ring reads anything waiting for it in 
+ * the meantime, so two nodes sending each other long messages can't get 
+ * stuck. Waiting nodes spin for a while before backing off, which keeps 
+ * commands down to microseconds but uses a processor while idle, as MPI 
+ * usually does.</P>
+ * <P>The collectives that carry commands and agents - bcast, gather(v), 
+ * scatterv and alltoall(v) - are made of sends and receives, so between 
+ * nodes on the same machine they go through the rings too. Bcast goes to one 
+ * node on each machine over the other Transport, which passes it on through 
+ * the rings. Barrier and split use the other Transport. The tags from 
+ * COLLECTIVE_TAG up are kept for the collectives.</P>
+ * <P>Like MPI, each node's transport must only be used from one thread. 
+ * The ring files are deleted once both ends have them mapped, so nothing 
+ * is left behind if a run dies.</P>
+ * @version 1.3
+ */ 
+public class SharedMemoryTransport implements Transport {
+
+
+	public static final int DEFAULT_RING_CAPACITY = 1 << 16; // Ints in each ring.
+	public static final int COLLECTIVE_TAG = 32000; // This tag and the few above it are used by the collectives.
+	private static final int BCAST_TAG = COLLECTIVE_TAG;
+	private static final int GATHER_TAG = COLLECTIVE_TAG + 1;
+	private static final int SCATTER_TAG = COLLECTIVE_TAG + 2;
+	private static final int ALLTOALL_TAG = COLLECTIVE_TAG + 3;
+	private static final int HOST_INTS = 64; // Characters of the host name compared.
+	private static final int SPINS = (Runtime.getRuntime().availableProcessors() > 1) ? 10000 : 0; // Times round a wait before yielding; spinning is no use on one processor.
+	private static final int YIELDS = 10000; // Times round a wait yielding before sleeping.
+
+	private Transport fallback = null;
+	private String directory = null;
+	private int ringCapacity = DEFAULT_RING_CAPACITY;
+	private int rank = 0;
+	private int size = 1;
+	private boolean[] local = null; // Whether each node is on this machine, and reached through rings.
+	private int[] leaderOf = null; // The lowest ranked node on each node's machine.
+	private int[] leaderIndex = null; // Each machine's leader's rank in leaders.
+	private Transport leaders = null; // The leaders of all the machines.
+	private SharedMemoryRing[] outgoing = null;
+	private Incoming[] incoming = null;
+	private int[] header = new int[2];
+
+
+
+
+	/**
+	 * Sets up the rings between the nodes in the other Transport's group 
+	 * that are on the same machine, with files in /dev/shm and the default 
+	 * ring capacity. Every node in the group must call this at the same time.
+	 **/
+	public SharedMemoryTransport(Transport fallback) throws TransportException {
+		this(fallback, "/dev/shm", DEFAULT_RING_CAPACITY);
+	}
+
+
+
+
+	/**
+	 * Sets up the rings between the nodes in the other Transport's group 
+	 * that are on the same machine, with files in the given directory, 
+	 * which should be in memory. If it isn't there, the node uses the other 
+	 * Transport for everything. Every node in the group must call this at 
+	 * the same time, with the same capacity.
+	 * @param ringCapacity int Ints in each ring, a power of two.
+	 **/
+	public SharedMemoryTransport(Transport fallback, String directory, int ringCapacity) throws TransportException {
+
+		this.fallback = fallback;
+		this.directory = directory;
+		this.ringCapacity = ringCapacity;
+		rank = fallback.getRank();
+		size = fallback.getSize();
+		outgoing = new SharedMemoryRing[size];
+		incoming = new Incoming[size];
+		findLocalNodes();
+
+		// Pick a name for this run's files, so runs don't mix.
+
+		int[] run = {(rank == 0) ? new Random().nextInt(Integer.MAX_VALUE) : 0};
+		fallback.bcast(run, 0, 1, 0);
+
+		// Each node makes the rings it writes, then, once they all have, 
+		// maps the ones it reads, then, once they all have, deletes the 
+		// files, which stay mapped.
+
+		try {
+			for (int i = 0; i < size; i++) {
+				if (local[i]) {
+					outgoing[i] = new SharedMemoryRing(getRingFile(run[0], rank, i), ringCapacity, true);
+				}
+			}
+			fallback.barrier();
+			for (int i = 0; i < size; i++) {
+				if (local[i]) {
+					incoming[i] = new Incoming(new SharedMemoryRing(getRingFile(run[0], i, rank), ringCapacity, false));
+				}
+			}
+			fallback.barrier();
+			for (int i = 0; i < size; i++) {
+				if (local[i]) {
+					getRingFile(run[0], rank, i).delete();
+				}
+			}
+		} catch (IOException ioe) {
+			throw new TransportException("Can't set up shared memory rings", ioe);
+		}
+
+		leaders = fallback.split((leaderOf[rank] == rank) ? 0 : -1, rank);
+
+	}
+
+
+
+
+	/**
+	 * Works out which nodes are on this machine, by gathering every node's 
+	 * host name, and whether it can use the directory, to node zero, which 
+	 * sends them all back out.
+	 **/
+	private void findLocalNodes() throws TransportException {
+
+		int[] mine = new int[HOST_INTS + 1];
+		String host = "";
+		try {
+			host = InetAddress.getLocalHost().getHostName();
+		} catch (IOException ioe) {
+			host = "unknown-" + rank; // Don't share with anyone.
+		}
+		for (int i = 0; (i < HOST_INTS) && (i < host.length()); i++) {
+			mine[i] = host.charAt(i);
+		}
+		File dir = new File(directory);
+		mine[HOST_INTS] = (dir.isDirectory() && dir.canWrite()) ? 1 : 0;
+
+		int[] all = new int[size * mine.length];
+		fallback.gather(mine, 0, mine.length, all, 0, 0);
+		fallback.bcast(all, 0, all.length, 0);
+
+		local = new boolean[size];
+		leaderOf = new int[size];
+		leaderIndex = new int[size];
+		int leaderCount = 0;
+		for (int i = 0; i < size; i++) {
+			leaderOf[i] = i;
+			for (int j = 0; j < i; j++) {
+				if (sameHost(all, i, j, mine.length)) {
+					leaderOf[i] = leaderOf[j];
+					break;
+				}
+			}
+			if (leaderOf[i] == i) {
+				leaderIndex[i] = leaderCount++;
+			}
+			local[i] = (i != rank) && sameHost(all, i, rank, mine.length) 
+				&& (all[(i * mine.length) + HOST_INTS] == 1) && (mine[HOST_INTS] == 1);
+		}
+		for (int i = 0; i < size; i++) {
+			leaderIndex[i] = leaderIndex[leaderOf[i]];
+		}
+
+	}
+
+
+
+
+	/**
+	 * Gets whether nodes <CODE>i</CODE> and <CODE>j</CODE> have the same host name.
+	 **/
+	private static boolean sameHost(int[] all, int i, int j, int length) {
+
+		for (int k = 0; k < HOST_INTS; k++) {
+			if (all[(i * length) + k] != all[(j * length) + k]) {
+				return false;
+			}
+		}
+		return true;
+
+	}
+
+
+
+
+	/**
+	 * Gets the file for the ring from node <CODE>from</CODE> to node <CODE>to</CODE>.
+	 **/
+	private File getRingFile(int run, int from, int to) {
+		return new File(directory, "parallelrepast-" + run + "-" + from + "-" + to);
+	}
+
+
+
+
+	/**
+	 * Gets whether messages to and from the node go through the rings.
+	 **/
+	public boolean isLocal(int node) {
+		return local[node];
+	}
+
+
+
+
+	/**
+	 * Gets this node's rank in the group.
+	 **/
+	public int getRank() {
+		return rank;
+	}
+
+
+
+
+	/**
+	 * Gets the number of nodes in the group.
+	 **/
+	public int getSize() {
+		return size;
+	}
+
+
+
+
+	/**
+	 * Writes the message into the ring to node <CODE>destination</CODE>, if 
+	 * it's on this machine, waiting for room if need be, or sends it with 
+	 * the other Transport if not.
+	 **/
+	public void send(int[] buffer, int offset, int count, int destination, int tag) throws TransportException {
+
+		if (!local[destination]) {
+			fallback.send(buffer, offset, count, destination, tag);
+			return;
+		}
+		header[0] = tag;
+		header[1] = count;
+		writeFully(outgoing[destination], header, 0, 2);
+		writeFully(outgoing[destination], buffer, offset, count);
+
+	}
+
+
+
+
+	/**
+	 * Receives a message from node <CODE>source</CODE>.
+	 **/
+	public void recv(int[] buffer, int offset, int count, int source, int tag) throws TransportException {
+
+		if (!local[source]) {
+			fallback.recv(buffer, offset, count, source, tag);
+			return;
+		}
+		irecv(buffer, offset, count, source, tag).complete();
+
+	}
+
+
+
+
+	/**
+	 * To nodes on this machine, as <CODE>send()</CODE>, so the request is 
+	 * already complete; to others, as the other Transport's isend.
+	 **/
+	public TransportRequest isend(int[] buffer, int offset, int count, int destination, int tag) throws TransportException {
+
+		if (!local[destination]) {
+			return fallback.isend(buffer, offset, count, destination, tag);
+		}
+		send(buffer, offset, count, destination, tag);
+		return new ShmRequest(null, tag, null, 0, 0);
+
+	}
+
+
+
+
+	/**
+	 * Posts a receive, which takes the first message with the tag from 
+	 * node <CODE>source</CODE> not taken by an earlier receive. On this 
+	 * machine, the message is read in <CODE>complete()</CODE>, or while 
+	 * this node waits for anything else.
+	 **/
+	public TransportRequest irecv(int[] buffer, int offset, int count, int source, int tag) throws TransportException {
+
+		if (!local[source]) {
+			return fallback.irecv(buffer, offset, count, source, tag);
+		}
+		ShmRequest request = new ShmRequest(incoming[source], tag, buffer, offset, count);
+		incoming[source].post(request);
+		return request;
+
+	}
+
+
+
+
+	/**
+	 * Sends one message and receives another. Sends to nodes on this machine 
+	 * read anything waiting while they wait for room, and others are started 
+	 * before receiving, so this can't deadlock.
+	 **/
+	public void sendrecv(int[] sendBuffer, int sendOffset, int sendCount, int destination, int sendTag, 
+			int[] receiveBuffer, int receiveOffset, int receiveCount, int source, int receiveTag) throws TransportException {
+
+		if (!local[destination] && !local[source]) {
+			fallback.sendrecv(sendBuffer, sendOffset, sendCount, destination, sendTag, 
+				receiveBuffer, receiveOffset, receiveCount, source, receiveTag);
+			return;
+		}
+		TransportRequest receive = irecv(receiveBuffer, receiveOffset, receiveCount, source, receiveTag);
+		TransportRequest send = isend(sendBuffer, sendOffset, sendCount, destination, sendTag);
+		receive.complete();
+		send.complete();
+
+	}
+
+
+
+
+	/**
+	 * The root sends to its machine's leader, the leaders bcast with the 
+	 * other Transport, and each leader sends to the other nodes on its machine.
+	 **/
+	public void bcast(int[] buffer, int offset, int count, int root) throws TransportException {
+
+		int rootLeader = leaderOf[root];
+		if (root != rootLeader) {
+			if (rank == root) {
+				send(buffer, offset, count, rootLeader, BCAST_TAG);
+			} else if (rank == rootLeader) {
+				recv(buffer, offset, count, root, BCAST_TAG);
+			}
+		}
+
+		if (leaderOf[rank] == rank) {
+			leaders.bcast(buffer, offset, count, leaderIndex[rootLeader]);
+			for (int i = 0; i < size; i++) {
+				if ((i != rank) && (i != root) && (leaderOf[i] == rank)) {
+					send(buffer, offset, count, i, BCAST_TAG);
+				}
+			}
+		} else if (rank != root) {
+			recv(buffer, offset, count, leaderOf[rank], BCAST_TAG);
+		}
+
+	}
+
+
+
+
+	/**
+	 * Each node sends its ints to node <CODE>root</CODE>.
+	 **/
+	public void gather(int[] sendBuffer, int sendOffset, int count, 
+			int[] receiveBuffer, int receiveOffset, int root) throws TransportException {
+
+		if (rank == root) {
+			TransportRequest[] receives = new TransportRequest[size];
+			for (int i = 0; i < size; i++) {
+				if (i == root) {
+					System.arraycopy(sendBuffer, sendOffset, receiveBuffer, receiveOffset + (i * count), count);
+				} else {
+					receives[i] = irecv(receiveBuffer, receiveOffset + (i * count), count, i, GATHER_TAG);
+				}
+			}
+			completeAll(receives);
+		} else {
+			send(sendBuffer, sendOffset, count, root, GATHER_TAG);
+		}
+
+	}
+
+
+
+
+	/**
+	 * Each node sends its ints to node <CODE>root</CODE>.
+	 **/
+	public void gatherv(int[] sendBuffer, int sendOffset, int sendCount, 
+			int[] receiveBuffer, int receiveOffset, int[] receiveCounts, int[] starts, int root) throws TransportException {
+
+		if (rank == root) {
+			TransportRequest[] receives = new TransportRequest[size];
+			for (int i = 0; i < size; i++) {
+				if (i == root) {
+					System.arraycopy(sendBuffer, sendOffset, receiveBuffer, receiveOffset + starts[i], sendCount);
+				} else {
+					receives[i] = irecv(receiveBuffer, receiveOffset + starts[i], receiveCounts[i], i, GATHER_TAG);
+				}
+			}
+			completeAll(receives);
+		} else {
+			send(sendBuffer, sendOffset, sendCount, root, GATHER_TAG);
+		}
+
+	}
+
+
+
+
+	/**
+	 * Node <CODE>root</CODE> sends each other node its ints.
+	 **/
+	public void scatterv(int[] sendBuffer, int sendOffset, int[] sendCounts, int[] starts, 
+			int[] receiveBuffer, int receiveOffset, int receiveCount, int root) throws TransportException {
+
+		if (rank == root) {
+			TransportRequest[] sends = new TransportRequest[size];
+			for (int i = 0; i < size; i++) {
+				if (i == root) {
+					System.arraycopy(sendBuffer, sendOffset + starts[i], receiveBuffer, receiveOffset, receiveCount);
+				} else {
+					sends[i] = isend(sendBuffer, sendOffset + starts[i], sendCounts[i], i, SCATTER_TAG);
+				}
+			}
+			completeAll(sends);
+		} else {
+			recv(receiveBuffer, receiveOffset, receiveCount, root, SCATTER_TAG);
+		}
+
+	}
+
+
+
+
+	/**
+	 * Each node posts its receives, sends to every other node, then waits.
+	 **/
+	public void alltoall(int[] sendBuffer, int sendOffset, int count, 
+			int[] receiveBuffer, int receiveOffset) throws TransportException {
+
+		int[] starts = new int[size];
+		int[] counts = new int[size];
+		for (int i = 0; i < size; i++) {
+			starts[i] = i * count;
+			counts[i] = count;
+		}
+		alltoallv(sendBuffer, sendOffset, counts, starts, receiveBuffer, receiveOffset, counts, starts);
+
+	}
+
+
+
+
+	/**
+	 * Each node posts its receives, sends to every other node, then waits.
+	 **/
+	public void alltoallv(int[] sendBuffer, int sendOffset, int[] sendCounts, int[] sendStarts, 
+			int[] receiveBuffer, int receiveOffset, int[] receiveCounts, int[] receiveStarts) throws TransportException {
+
+		TransportRequest[] receives = new TransportRequest[size];
+		TransportRequest[] sends = new TransportRequest[size];
+		for (int i = 0; i < size; i++) {
+			if (i != rank) {
+				receives[i] = irecv(receiveBuffer, receiveOffset + receiveStarts[i], receiveCounts[i], i, ALLTOALL_TAG);
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			if (i != rank) {
+				sends[i] = isend(sendBuffer, sendOffset + sendStarts[i], sendCounts[i], i, ALLTOALL_TAG);
+			}
+		}
+		System.arraycopy(sendBuffer, sendOffset + sendStarts[rank], 
+			receiveBuffer, receiveOffset + receiveStarts[rank], sendCounts[rank]);
+		completeAll(receives);
+		completeAll(sends);
+
+	}
+
+
+
+
+	/**
+	 * As the other Transport's barrier.
+	 **/
+	public void barrier() throws TransportException {
+		fallback.barrier();
+	}
+
+
+
+
+	/**
+	 * Splits the other Transport's group, and sets up rings in the new group.
+	 **/
+	public Transport split(int colour, int key) throws TransportException {
+
+		Transport split = fallback.split(colour, key);
+		return (split == null) ? null : new SharedMemoryTransport(split, directory, ringCapacity);
+
+	}
+
+
+
+
+	/**
+	 * As the other Transport's wtime.
+	 **/
+	public double wtime() {
+		return fallback.wtime();
+	}
+
+
+
+
+	/**
+	 * Shuts down the other Transport.
+	 **/
+	public void shutdown() throws TransportException {
+		fallback.shutdown();
+	}
+
+
+
+
+	/**
+	 * Writes all the ints into the ring, reading anything waiting for this 
+	 * node while there's no room.
+	 **/
+	private void writeFully(SharedMemoryRing ring, int[] buffer, int offset, int count) throws TransportException {
+
+		int spins = 0;
+		while (count > 0) {
+			int written = ring.write(buffer, offset, count);
+			offset = offset + written;
+			count = count - written;
+			if (written == 0) {
+				boolean progress = false;
+				for (int i = 0; i < size; i++) {
+					if (local[i]) {
+						progress = incoming[i].poll() || progress;
+					}
+				}
+				spins = progress ? 0 : idle(spins);
+			}
+		}
+
+	}
+
+
+
+
+	/**
+	 * Waits for all the requests that aren't null.
+	 **/
+	private static void completeAll(TransportRequest[] requests) throws TransportException {
+
+		for (int i = 0; i < requests.length; i++) {
+			if (requests[i] != null) {
+				requests[i].complete();
+			}
+		}
+
+	}
+
+
+
+
+	/**
+	 * Waits a little, spinning at first, then yielding, then sleeping, 
+	 * depending on how long this node has been waiting. Returns the 
+	 * new number of spins.
+	 **/
+	private static int idle(int spins) {
+
+		if (spins >= SPINS + YIELDS) {
+			LockSupport.parkNanos(50000);
+		} else if (spins >= SPINS) {
+			Thread.yield();
+		}
+		return spins + 1;
+
+	}
+
+
+
+
+	/**
+	 * The reading end of a ring, with the receives posted on it and the 
+	 * messages read from it that no receive has taken yet.
+	 **/
+	private static class Incoming {
+
+
+		private SharedMemoryRing ring = null;
+		private LinkedList posted = new LinkedList(); // ShmRequests, in the order posted.
+		private LinkedList unclaimed = new LinkedList(); // Each an Integer tag and an int[].
+		private int[] header = new int[2];
+		private int headerRead = 0;
+		private ShmRequest target = null; // The receive the message being read is going to, 
+		private int[] stash = null; // or where it's going if none.
+		private int bodyRead = 0;
+		private int[] discard = new int[1024]; // For messages too long for their receive.
+
+
+		Incoming(SharedMemoryRing ring) {
+			this.ring = ring;
+		}
+
+
+		void post(ShmRequest request) {
+			for (Iterator i = unclaimed.iterator(); i.hasNext(); ) {
+				Object[] message = (Object[]) i.next();
+				if (((Integer) message[0]).intValue() == request.tag) {
+					i.remove();
+					request.fill((int[]) message[1]);
+					return;
+				}
+			}
+			posted.add(request);
+		}
+
+
+		ShmRequest claim(int tag) {
+			for (Iterator i = posted.iterator(); i.hasNext(); ) {
+				ShmRequest request = (ShmRequest) i.next();
+				if (request.tag == tag) {
+					i.remove();
+					return request;
+				}
+			}
+			return null;
+		}
+
+
+		/**
+		 * Reads what it can of the message coming in, straight into the 
+		 * receive it's for if one has been posted. Returns whether anything 
+		 * was read.
+		 **/
+		boolean poll() {
+			int read = 0;
+			if (headerRead < 2) {
+				read = ring.read(header, headerRead, 2 - headerRead);
+				headerRead = headerRead + read;
+				if (headerRead < 2) {
+					return read > 0;
+				}
+				target = claim(header[0]);
+				bodyRead = 0;
+				if (target == null) {
+					stash = new int[header[1]];
+				} else if (header[1] > target.count) {
+					target.error = "Message of " + header[1] + " ints is too long for a receive of " + target.count;
+				}
+			}
+
+			int length = header[1];
+			while (bodyRead < length) {
+				int got = 0;
+				if (target == null) {
+					got = ring.read(stash, bodyRead, length - bodyRead);
+				} else if (target.error == null) {
+					got = ring.read(target.buffer, target.offset + bodyRead, length - bodyRead);
+				} else {
+					got = ring.read(discard, 0, Math.min(discard.length, length - bodyRead));
+				}
+				if (got == 0) {
+					return read > 0;
+				}
+				bodyRead = bodyRead + got;
+				read = read + got;
+			}
+
+			// The whole message is in.
+
+			if (target != null) {
+				target.done = true;
+			} else {
+				ShmRequest late = claim(header[0]);
+				if (late != null) {
+					late.fill(stash);
+				} else {
+					unclaimed.add(new Object[] {Integer.valueOf(header[0]), stash});
+				}
+			}
+			target = null;
+			stash = null;
+			headerRead = 0;
+			return true;
+		}
+
+	}
+
+
+
+
+	/**
+	 * A receive from a node on this machine, complete once its message has been read.
+	 **/
+	private static class ShmRequest implements TransportRequest {
+
+
+		private Incoming from = null;
+		private int tag = 0;
+		private int[] buffer = null;
+		private int offset = 0;
+		private int count = 0;
+		private boolean done = false;
+		private String error = null;
+
+
+		ShmRequest(Incoming from, int tag, int[] buffer, int offset, int count) {
+			this.from = from;
+			this.tag = tag;
+			this.buffer = buffer;
+			this.offset = offset;
+			this.count = count;
+			this.done = (from == null);
+		}
+
+
+		void fill(int[] ints) {
+			if (ints.length > count) {
+				error = "Message of " + ints.length + " ints is too long for a receive of " + count;
+			} else {
+				System.arraycopy(ints, 0, buffer, offset, ints.length);
+			}
+			done = true;
+		}
+
+
+		public void complete() throws TransportException {
+			int spins = 0;
+			while (!done) {
+				spins = from.poll() ? 0 : idle(spins);
+			}
+			if (error != null) {
+				throw new TransportException(error);
+			}
+		}
+
+	}
+
+// End of SharedMemoryTransport.
+}
@@ -0,0 +1,206 @@
+/**
+ * ThreadedStepper
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+import java.util.ArrayList;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Steps a run of agents with an AgentBehaviour, split between a fixed pool 
+ * of threads, so one node can use all its processors rather than running 
+ * a separate JVM for each.<P>
+ * The run is cut into chunks of agents next to each other in the array, 
+ * and each thread keeps taking the next chunk until they're all done, so 
+ * threads that get quick agents aren't left waiting on slow ones. Chunks 
+ * are big enough that each thread works through a long stretch of the 
+ * array on its own, and the cost of handing a chunk out is small next to 
+ * stepping it. The thread that calls <CODE>step()</CODE> takes chunks as 
+ * well, and only returns once every agent is done. The behaviour must 
+ * keep to the contract in AgentBehaviour.</P>
+ * @version 1.3
+ */ 
+public class ThreadedStepper {
+
+
+	public static final int MIN_CHUNK_SIZE = 1024; // Fewest agents worth handing to a thread.
+	public static final int CHUNKS_PER_THREAD = 4; // Spare chunks, for evening out the work.
+
+	private int threads = 1;
+	private ExecutorService pool = null;
+
+
+
+
+	/**
+	 * Sets up the stepper with the given number of threads, including the 
+	 * one that calls <CODE>step()</CODE>. Zero or less means one for each 
+	 * processor.
+	 **/
+	public ThreadedStepper(int threads) {
+
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		this.threads = threads;
+
+		if (threads > 1) {
+			pool = Executors.newFixedThreadPool(threads - 1, new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "ThreadedStepper");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+
+	}
+
+
+
+
+	/**
+	 * Gets the number of threads, including the one that calls <CODE>step()</CODE>.
+	 **/
+	public int getThreads() {
+		return threads;
+	}
+
+
+
+
+	/**
+	 * Gets the number of agents in each chunk for a run of <CODE>count</CODE>.
+	 **/
+	public int getChunkSize(int count) {
+
+		return Math.max(MIN_CHUNK_SIZE, count / (threads * CHUNKS_PER_THREAD));
+
+	}
+
+
+
+
+	/**
+	 * Steps <CODE>count</CODE> agents, starting at <CODE>agents[from]</CODE>, 
+	 * with the behaviour, and returns once they're all done. If the behaviour 
+	 * throws an exception on any thread, it is thrown here once the other 
+	 * threads have stopped.
+	 **/
+	public void step(Object[] agents, int from, int count, AgentBehaviour behaviour) {
+
+		int chunk = getChunkSize(count);
+		int chunks = (count + chunk - 1) / chunk;
+		if ((pool == null) || (chunks < 2)) {
+			for (int i = from; i < from + count; i++) {
+				behaviour.stepAgent(agents[i]);
+			}
+			return;
+		}
+
+		AtomicInteger nextChunk = new AtomicInteger(0);
+		int helpers = Math.min(threads - 1, chunks - 1);
+		ArrayList futures = new ArrayList(helpers);
+		for (int t = 0; t < helpers; t++) {
+			futures.add(pool.submit(new ChunkTask(agents, from, count, chunk, nextChunk, behaviour)));
+		}
+
+		RuntimeException failure = null;
+		try {
+			new ChunkTask(agents, from, count, chunk, nextChunk, behaviour).call();
+		} catch (RuntimeException re) {
+			failure = re;
+			nextChunk.set(chunks); // Stop the other threads taking any more.
+		}
+
+		for (int t = 0; t < futures.size(); t++) {
+			try {
+				((Future) futures.get(t)).get();
+			} catch (ExecutionException ee) {
+				if (failure == null) {
+					failure = (ee.getCause() instanceof RuntimeException) 
+						? (RuntimeException) ee.getCause() : new RuntimeException(ee.getCause());
+				}
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				if (failure == null) {
+					failure = new RuntimeException(ie);
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+
+	}
+
+
+
+
+	/**
+	 * Stops the threads. The stepper can't be used after this.
+	 **/
+	public void shutdown() {
+
+		if (pool != null) {
+			pool.shutdown();
+		}
+
+	}
+
+
+
+
+	/**
+	 * Keeps taking the next chunk of agents and stepping them until 
+	 * there are none left.
+	 **/
+	private static class ChunkTask implements Callable {
+
+
+		private Object[] agents = null;
+		private int from = 0;
+		private int count = 0;
+		private int chunk = 0;
+		private AtomicInteger nextChunk = null;
+		private AgentBehaviour behaviour = null;
+
+
+		ChunkTask(Object[] agents, int from, int count, int chunk, AtomicInteger nextChunk, AgentBehaviour behaviour) {
+			this.agents = agents;
+			this.from = from;
+			this.count = count;
+			this.chunk = chunk;
+			this.nextChunk = nextChunk;
+			this.behaviour = behaviour;
+		}
+
+
+		public Object call() {
+			int start = nextChunk.getAndIncrement() * chunk;
+			while (start < count) {
+				int end = Math.min(count, start + chunk);
+				for (int i = from + start; i < from + end; i++) {
+					behaviour.stepAgent(agents[i]);
+				}
+				start = nextChunk.getAndIncrement() * chunk;
+			}
+			return null;
+		}
+
+	}
+
+// End of ThreadedStepper.
+}
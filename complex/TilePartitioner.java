@@ -0,0 +1,77 @@
+/**
+ * TilePartitioner
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+import uchicago.src.sim.gui.Drawable;
+
+
+/**
+ * Gives each node the agents in its tile of a TorusDecomposition, so the 
+ * node that steps an agent is the one that holds the space around it. 
+ * Tile <CODE>i</CODE> goes to node <CODE>i + 1</CODE>, and node zero, which 
+ * has no tile, gets no agents. The weights are ignored, as the shares 
+ * follow where the agents are.<P>
+ * The agents need to be Drawable, for <CODE>getX()</CODE> and <CODE>getY()</CODE>.</P>
+ * @version 1.3
+ */ 
+public class TilePartitioner extends AbstractPartitioner {
+
+
+	private TorusDecomposition decomposition = null;
+
+
+
+
+	/**
+	 * Sets up the partitioner to split the agents by the tiles of the decomposition.
+	 **/
+	public TilePartitioner(TorusDecomposition decomposition) {
+
+		this.decomposition = decomposition;
+
+	}
+
+
+
+
+	/**
+	 * Counts the agents in each tile and orders them by tile, keeping 
+	 * the agents in each tile in the order they were in.
+	 **/
+	public int[] partition(Object[] agents, double[] weights, int[] counts) {
+
+		int[] owners = new int[agents.length];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = 0;
+		}
+		for (int i = 0; i < agents.length; i++) {
+			Drawable agent = (Drawable) agents[i];
+			owners[i] = decomposition.getOwner(agent.getX(), agent.getY()) + 1;
+			counts[owners[i]]++;
+		}
+
+		int[] starts = new int[counts.length];
+		for (int i = 1; i < counts.length; i++) {
+			starts[i] = starts[i - 1] + counts[i - 1];
+		}
+		int[] order = new int[agents.length];
+		for (int i = 0; i < agents.length; i++) {
+			order[starts[owners[i]]++] = i;
+		}
+		return order;
+
+	}
+
+// End of TilePartitioner.
+}
@@ -0,0 +1,396 @@
+/**
+ * TimedTransport
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+
+/**
+ * A Transport that passes everything on to another Transport, timing it 
+ * and counting the messages and bytes with a PhaseTimer.<P>
+ * Each call is timed as COMMUNICATE, or as WAIT if the node was already 
+ * waiting, as it is for commands in <CODE>Model.waitForCommands()</CODE>, 
+ * and barriers are always WAIT; the node goes back to its phase before 
+ * the call afterwards. Time waiting in <CODE>complete()</CODE> on an 
+ * <CODE>isend()</CODE> or <CODE>irecv()</CODE> is timed the same way.</P>
+ * <P>Collectives are counted as the messages each node would send and 
+ * receive if they went straight between the nodes, leaving out anything 
+ * a node sends itself, whatever the Transport really does underneath, 
+ * so for example node zero sends size - 1 messages for each 
+ * <CODE>bcast()</CODE> and every other node receives one. Bytes are 
+ * four for each int.</P>
+ * <P>Groups made by <CODE>split()</CODE> are timed by the same PhaseTimer.</P>
+ * @version 1.3
+ */ 
+public class TimedTransport implements Transport {
+
+
+	private Transport transport = null;
+	private PhaseTimer timer = null;
+
+
+
+
+	/**
+	 * Times messages through <CODE>transport</CODE> with <CODE>timer</CODE>.
+	 **/
+	public TimedTransport(Transport transport, PhaseTimer timer) {
+		this.transport = transport;
+		this.timer = timer;
+	}
+
+
+
+
+	/**
+	 * Gets the PhaseTimer messages are timed with.
+	 **/
+	public PhaseTimer getTimer() {
+		return timer;
+	}
+
+
+
+
+	public int getRank() {
+		return transport.getRank();
+	}
+
+
+
+
+	public int getSize() {
+		return transport.getSize();
+	}
+
+
+
+
+	public void send(int[] buffer, int offset, int count, int destination, int tag) throws TransportException {
+
+		int phase = begin();
+		try {
+			transport.send(buffer, offset, count, destination, tag);
+			timer.countSent(count);
+		} finally {
+			timer.enter(phase);
+		}
+
+	}
+
+
+
+
+	public void recv(int[] buffer, int offset, int count, int source, int tag) throws TransportException {
+
+		int phase = begin();
+		try {
+			transport.recv(buffer, offset, count, source, tag);
+			timer.countReceived(count);
+		} finally {
+			timer.enter(phase);
+		}
+
+	}
+
+
+
+
+	public TransportRequest isend(int[] buffer, int offset, int count, int destination, int tag) throws TransportException {
+
+		int phase = begin();
+		try {
+			TransportRequest request = transport.isend(buffer, offset, count, destination, tag);
+			timer.countSent(count);
+			return new TimedRequest(request);
+		} finally {
+			timer.enter(phase);
+		}
+
+	}
+
+
+
+
+	/**
+	 * Starts a receive, counting it when it starts, as the count is the 
+	 * most that can arrive.
+	 **/
+	public TransportRequest irecv(int[] buffer, int offset, int count, int source, int tag) throws TransportException {
+
+		int phase = begin();
+		try {
+			TransportRequest request = transport.irecv(buffer, offset, count, source, tag);
+			timer.countReceived(count);
+			return new TimedRequest(request);
+		} finally {
+			timer.enter(phase);
+		}
+
+	}
+
+
+
+
+	public void sendrecv(int[] sendBuffer, int sendOffset, int sendCount, int destination, int sendTag, 
+		int[] receiveBuffer, int receiveOffset, int receiveCount, int source, int receiveTag) throws TransportException {
+
+		int phase = begin();
+		try {
+			transport.sendrecv(sendBuffer, sendOffset, sendCount, destination, sendTag, 
+				receiveBuffer, receiveOffset, receiveCount, source, receiveTag);
+			timer.countSent(sendCount);
+			timer.countReceived(receiveCount);
+		} finally {
+			timer.enter(phase);
+		}
+
+	}
+
+
+
+
+	public void bcast(int[] buffer, int offset, int count, int root) throws TransportException {
+
+		int phase = begin();
+		try {
+			transport.bcast(buffer, offset, count, root);
+			if (getRank() == root) {
+				for (int i = 1; i < getSize(); i++) {
+					timer.countSent(count);
+				}
+			} else {
+				timer.countReceived(count);
+			}
+		} finally {
+			timer.enter(phase);
+		}
+
+	}
+
+
+
+
+	public void gather(int[] sendBuffer, int sendOffset, int count, 
+		int[] receiveBuffer, int receiveOffset, int root) throws TransportException {
+
+		int phase = begin();
+		try {
+			transport.gather(sendBuffer, sendOffset, count, receiveBuffer, receiveOffset, root);
+			if (getRank() == root) {
+				for (int i = 1; i < getSize(); i++) {
+					timer.countReceived(count);
+				}
+			} else {
+				timer.countSent(count);
+			}
+		} finally {
+			timer.enter(phase);
+		}
+
+	}
+
+
+
+
+	public void gatherv(int[] sendBuffer, int sendOffset, int sendCount, 
+		int[] receiveBuffer, int receiveOffset, int[] receiveCounts, int[] starts, int root) throws TransportException {
+
+		int phase = begin();
+		try {
+			transport.gatherv(sendBuffer, sendOffset, sendCount, 
+				receiveBuffer, receiveOffset, receiveCounts, starts, root);
+			if (getRank() == root) {
+				countReceived(receiveCounts);
+			} else {
+				timer.countSent(sendCount);
+			}
+		} finally {
+			timer.enter(phase);
+		}
+
+	}
+
+
+
+
+	public void scatterv(int[] sendBuffer, int sendOffset, int[] sendCounts, int[] starts, 
+		int[] receiveBuffer, int receiveOffset, int receiveCount, int root) throws TransportException {
+
+		int phase = begin();
+		try {
+			transport.scatterv(sendBuffer, sendOffset, sendCounts, starts, 
+				receiveBuffer, receiveOffset, receiveCount, root);
+			if (getRank() == root) {
+				countSent(sendCounts);
+			} else {
+				timer.countReceived(receiveCount);
+			}
+		} finally {
+			timer.enter(phase);
+		}
+
+	}
+
+
+
+
+	public void alltoall(int[] sendBuffer, int sendOffset, int count, 
+		int[] receiveBuffer, int receiveOffset) throws TransportException {
+
+		int phase = begin();
+		try {
+			transport.alltoall(sendBuffer, sendOffset, count, receiveBuffer, receiveOffset);
+			for (int i = 1; i < getSize(); i++) {
+				timer.countSent(count);
+				timer.countReceived(count);
+			}
+		} finally {
+			timer.enter(phase);
+		}
+
+	}
+
+
+
+
+	public void alltoallv(int[] sendBuffer, int sendOffset, int[] sendCounts, int[] sendStarts, 
+		int[] receiveBuffer, int receiveOffset, int[] receiveCounts, int[] receiveStarts) throws TransportException {
+
+		int phase = begin();
+		try {
+			transport.alltoallv(sendBuffer, sendOffset, sendCounts, sendStarts, 
+				receiveBuffer, receiveOffset, receiveCounts, receiveStarts);
+			countSent(sendCounts);
+			countReceived(receiveCounts);
+		} finally {
+			timer.enter(phase);
+		}
+
+	}
+
+
+
+
+	public void barrier() throws TransportException {
+
+		int phase = timer.enter(PhaseTimer.WAIT);
+		try {
+			transport.barrier();
+		} finally {
+			timer.enter(phase);
+		}
+
+	}
+
+
+
+
+	public Transport split(int colour, int key) throws TransportException {
+
+		int phase = begin();
+		try {
+			Transport group = transport.split(colour, key);
+			return (group == null) ? null : new TimedTransport(group, timer);
+		} finally {
+			timer.enter(phase);
+		}
+
+	}
+
+
+
+
+	public double wtime() {
+		return transport.wtime();
+	}
+
+
+
+
+	public void shutdown() throws TransportException {
+		transport.shutdown();
+	}
+
+
+
+
+	/**
+	 * Moves the timer to COMMUNICATE, unless the node is waiting, and 
+	 * returns the phase it was in.
+	 **/
+	private int begin() {
+		int phase = timer.getPhase();
+		return timer.enter((phase == PhaseTimer.WAIT) ? PhaseTimer.WAIT : PhaseTimer.COMMUNICATE);
+	}
+
+
+
+
+	/**
+	 * Counts a message to each other node, of the given number of ints.
+	 **/
+	private void countSent(int[] counts) {
+		for (int i = 0; i < counts.length; i++) {
+			if ((i != getRank()) && (counts[i] > 0)) {
+				timer.countSent(counts[i]);
+			}
+		}
+	}
+
+
+
+
+	/**
+	 * Counts a message from each other node, of the given number of ints.
+	 **/
+	private void countReceived(int[] counts) {
+		for (int i = 0; i < counts.length; i++) {
+			if ((i != getRank()) && (counts[i] > 0)) {
+				timer.countReceived(counts[i]);
+			}
+		}
+	}
+
+
+
+
+	/**
+	 * Times waiting for an <CODE>isend()</CODE> or <CODE>irecv()</CODE> 
+	 * to finish.
+	 **/
+	private class TimedRequest implements TransportRequest {
+
+
+		private TransportRequest request = null;
+
+
+		TimedRequest(TransportRequest request) {
+			this.request = request;
+		}
+
+
+		public void complete() throws TransportException {
+
+			int phase = begin();
+			try {
+				request.complete();
+			} finally {
+				timer.enter(phase);
+			}
+
+		}
+
+	}
+
+// End of TimedTransport.
+}
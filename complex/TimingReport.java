@@ -0,0 +1,175 @@
+/**
+ * TimingReport
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+import java.io.*;
+
+
+/**
+ * Writes the PhaseTimer totals gathered from every node to a file on 
+ * node zero, one row for each node each time they're gathered, so slow 
+ * nodes and heavy communication show up.<P>
+ * If the file name ends in ".json" the rows are written as a JSON array 
+ * of objects; otherwise they're CSV with a header row. Either way each 
+ * row has the tick, the node's rank, the number of ticks the row covers, 
+ * the nanoseconds in each phase, and the messages and bytes sent and 
+ * received, named as in <CODE>PhaseTimer.getName()</CODE>.</P>
+ * <P>The last set of rows is also kept, so the slowest and mean node 
+ * can be shown on a graph.</P>
+ * @version 1.3
+ */ 
+public class TimingReport {
+
+
+	private Writer out = null;
+	private boolean json = false;
+	private boolean first = true; // Whether no rows have been written yet.
+	private int[] latest = null; // The last totals gathered, PhaseTimer.PACKED_SIZE ints for each node.
+	private int latestTicks = 1; // Ticks the latest totals cover.
+
+
+
+
+	/**
+	 * Opens the file, which is overwritten, and writes the start of the report.
+	 **/
+	public TimingReport(String fileName) throws IOException {
+
+		json = fileName.toLowerCase().endsWith(".json");
+		out = new BufferedWriter(new FileWriter(fileName));
+		if (json) {
+			out.write("[");
+		} else {
+			out.write("tick,rank,ticks");
+			for (int f = 0; f < PhaseTimer.FIELDS; f++) {
+				out.write(",");
+				out.write(PhaseTimer.getName(f));
+			}
+			out.write("\n");
+		}
+
+	}
+
+
+
+
+	/**
+	 * Writes a row for each node from the totals gathered at the given tick, 
+	 * PhaseTimer.PACKED_SIZE ints for each node in rank order, covering the 
+	 * given number of ticks.
+	 **/
+	public void write(int tick, int ticks, int[] totals) throws IOException {
+
+		latest = totals;
+		latestTicks = Math.max(1, ticks);
+		int nodes = totals.length / PhaseTimer.PACKED_SIZE;
+		for (int rank = 0; rank < nodes; rank++) {
+			int offset = rank * PhaseTimer.PACKED_SIZE;
+			if (json) {
+				out.write(first ? "\n" : ",\n");
+				out.write("{\"tick\":" + tick + ",\"rank\":" + rank + ",\"ticks\":" + ticks);
+				for (int f = 0; f < PhaseTimer.FIELDS; f++) {
+					out.write(",\"" + PhaseTimer.getName(f) + "\":" + PhaseTimer.unpack(totals, offset, f));
+				}
+				out.write("}");
+			} else {
+				out.write(tick + "," + rank + "," + ticks);
+				for (int f = 0; f < PhaseTimer.FIELDS; f++) {
+					out.write("," + PhaseTimer.unpack(totals, offset, f));
+				}
+				out.write("\n");
+			}
+			first = false;
+		}
+		out.flush();
+
+	}
+
+
+
+
+	/**
+	 * Gets the largest value of a phase or count over the nodes in the 
+	 * last rows written, per tick, or zero if none have been.
+	 **/
+	public double getMax(int field) {
+
+		if (latest == null) {
+			return 0.0;
+		}
+		long max = 0;
+		for (int offset = 0; offset < latest.length; offset = offset + PhaseTimer.PACKED_SIZE) {
+			max = Math.max(max, PhaseTimer.unpack(latest, offset, field));
+		}
+		return (double) max / latestTicks;
+
+	}
+
+
+
+
+	/**
+	 * Gets the mean value of a phase or count over the nodes in the last 
+	 * rows written, per tick, or zero if none have been.
+	 **/
+	public double getMean(int field) {
+
+		if ((latest == null) || (latest.length == 0)) {
+			return 0.0;
+		}
+		long total = 0;
+		for (int offset = 0; offset < latest.length; offset = offset + PhaseTimer.PACKED_SIZE) {
+			total = total + PhaseTimer.unpack(latest, offset, field);
+		}
+		return (double) total / latestTicks / (latest.length / PhaseTimer.PACKED_SIZE);
+
+	}
+
+
+
+
+	/**
+	 * Gets the total of a phase or count over the nodes in the last rows 
+	 * written, not per tick, or zero if none have been.
+	 **/
+	public long getTotal(int field) {
+
+		if (latest == null) {
+			return 0;
+		}
+		long total = 0;
+		for (int offset = 0; offset < latest.length; offset = offset + PhaseTimer.PACKED_SIZE) {
+			total = total + PhaseTimer.unpack(latest, offset, field);
+		}
+		return total;
+
+	}
+
+
+
+
+	/**
+	 * Finishes the report and closes the file.
+	 **/
+	public void close() throws IOException {
+
+		if (json) {
+			out.write("\n]\n");
+		}
+		out.close();
+
+	}
+
+// End of TimingReport.
+}
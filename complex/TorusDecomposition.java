@@ -0,0 +1,465 @@
+/**
+ * TorusDecomposition
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+import uchicago.src.sim.gui.Drawable;
+import java.lang.reflect.Array;
+
+
+/**
+ * Splits a torus-shaped world into rectangular tiles, one for each node that
+ * runs agents, so each node looks after the agents in its own part of the
+ * world rather than an arbitrary share of the list.<P>
+ * Each node keeps a grid of ints over its tile, plus a halo of cells
+ * <CODE>haloWidth</CODE> wide all round it, which <CODE>exchangeHalos()</CODE>
+ * fills from the neighbouring tiles, wrapping round the edges of the world.
+ * Agents can then look at the cells near them without needing anything from
+ * node zero. Agents that move out of the tile are sent to the node that owns
+ * where they've gone by <CODE>migrate()</CODE>.</P>
+ * <P>The tiles are numbered across and then down, and tile <CODE>i</CODE> belongs
+ * to rank <CODE>i</CODE> of the Transport handed to <CODE>connect()</CODE>, which
+ * should just hold the nodes running agents. Agents need to be Drawable, for
+ * their x and y.</P>
+ * @version 1.3
+ */ 
+public class TorusDecomposition {
+
+
+	private static final int HALO_TAG = 60;
+
+	private int width = 0;
+	private int height = 0;
+	private int haloWidth = 0;
+	private int tilesX = 1; // Number of tiles across.
+	private int tilesY = 1; // Number of tiles down.
+
+	private Transport comm = null;
+	private int tile = 0; // This node's tile, and its rank in the Transport.
+	private int x0 = 0; // This tile covers x0 <= x < x1 and y0 <= y < y1.
+	private int x1 = 0;
+	private int y0 = 0;
+	private int y1 = 0;
+	private int rowLength = 0; // Width of the grid, including the halo.
+	private int[] cells = null; // The grid, including the halo.
+	private int[] sendStrip = null;
+	private int[] receiveStrip = null;
+
+	private AgentBuffer outgoing = new AgentBuffer();
+	private AgentBuffer incoming = new AgentBuffer();
+	private int[] sendLengths = null;
+	private int[] sendStarts = null;
+	private int[] receiveLengths = null;
+	private int[] receiveStarts = null;
+
+
+
+
+	/**
+	 * Sets up the tiles for a world of the given size split between the given
+	 * number of nodes. The tiles are as near square as the number of nodes
+	 * allows.
+	 * @throws IllegalArgumentException if the tiles would be narrower than the halo.
+	 **/
+	public TorusDecomposition(int width, int height, int tiles, int haloWidth) {
+
+		this.width = width;
+		this.height = height;
+		this.haloWidth = haloWidth;
+
+		// Pick the split of tiles across and down that makes the tiles
+		// closest to square.
+
+		double best = Double.MAX_VALUE;
+		for (int across = 1; across <= tiles; across++) {
+			if (tiles % across == 0) {
+				double tileWidth = (double) width / across;
+				double tileHeight = (double) height / (tiles / across);
+				double squareness = Math.abs(Math.log(tileWidth / tileHeight));
+				if (squareness < best) {
+					best = squareness;
+					tilesX = across;
+					tilesY = tiles / across;
+				}
+			}
+		}
+
+		if ((width / tilesX < haloWidth) || (height / tilesY < haloWidth)) {
+			throw new IllegalArgumentException("Tiles of " + (width / tilesX) + " by "
+				+ (height / tilesY) + " are too small for a halo of " + haloWidth);
+		}
+
+	}
+
+
+
+
+	/**
+	 * Connects the decomposition to the nodes running agents, and sets up
+	 * the grid for this node's tile. Only needed on those nodes.
+	 **/
+	public void connect(Transport comm) {
+
+		this.comm = comm;
+		tile = comm.getRank();
+		int size = comm.getSize();
+
+		int tileX = tile % tilesX;
+		int tileY = tile / tilesX;
+		x0 = (tileX * width) / tilesX;
+		x1 = ((tileX + 1) * width) / tilesX;
+		y0 = (tileY * height) / tilesY;
+		y1 = ((tileY + 1) * height) / tilesY;
+
+		rowLength = (x1 - x0) + (2 * haloWidth);
+		cells = new int[rowLength * ((y1 - y0) + (2 * haloWidth))];
+		int strip = haloWidth * Math.max(rowLength, (y1 - y0));
+		sendStrip = new int[strip];
+		receiveStrip = new int[strip];
+
+		sendLengths = new int[size];
+		sendStarts = new int[size];
+		receiveLengths = new int[size];
+		receiveStarts = new int[size];
+
+	}
+
+
+
+
+	/**
+	 * Gets the tile, and so the rank in the communicator, that owns the point x, y.
+	 **/
+	public int getOwner(int x, int y) {
+
+		x = wrap(x, width);
+		y = wrap(y, height);
+
+		// Find the column and row of tiles, allowing for the rounding in connect().
+
+		int tileX = (x * tilesX) / width;
+		while ((tileX + 1 < tilesX) && (((tileX + 1) * width) / tilesX <= x)) tileX++;
+		while ((tileX > 0) && ((tileX * width) / tilesX > x)) tileX--;
+		int tileY = (y * tilesY) / height;
+		while ((tileY + 1 < tilesY) && (((tileY + 1) * height) / tilesY <= y)) tileY++;
+		while ((tileY > 0) && ((tileY * height) / tilesY > y)) tileY--;
+
+		return (tileY * tilesX) + tileX;
+
+	}
+
+
+
+
+	/**
+	 * Gets the number of tiles.
+	 **/
+	public int getNumberOfTiles() {
+		return tilesX * tilesY;
+	}
+
+
+
+
+	/**
+	 * Gets the number of cells in the given tile, which is the same for 
+	 * all of them if the world divides evenly.
+	 **/
+	public int getTileArea(int tile) {
+		int tileX = tile % tilesX;
+		int tileY = tile / tilesX;
+		return ((((tileX + 1) * width) / tilesX) - ((tileX * width) / tilesX)) 
+			* ((((tileY + 1) * height) / tilesY) - ((tileY * height) / tilesY));
+	}
+
+
+
+
+	/**
+	 * Gets this node's tile as {x0, y0, x1, y1}, covering x0 <= x < x1 
+	 * and y0 <= y < y1.
+	 **/
+	public int[] getBounds() {
+		return new int[] {x0, y0, x1, y1};
+	}
+
+
+
+
+	/**
+	 * Gets whether the point x, y is in this node's tile.
+	 **/
+	public boolean contains(int x, int y) {
+		x = wrap(x, width);
+		y = wrap(y, height);
+		return (x >= x0) && (x < x1) && (y >= y0) && (y < y1);
+	}
+
+
+
+
+	/**
+	 * Sets every cell of the grid, including the halo, to zero.
+	 **/
+	public void clearCells() {
+		for (int i = 0; i < cells.length; i++) {
+			cells[i] = 0;
+		}
+	}
+
+
+
+
+	/**
+	 * Sets the cell at x, y, which should be in this node's tile.
+	 **/
+	public void setCell(int x, int y, int value) {
+		cells[getCellIndex(x, y)] = value;
+	}
+
+
+
+
+	/**
+	 * Gets the cell at x, y, which can be in this node's tile or its halo.
+	 * @throws IllegalArgumentException if the point is further away than the halo.
+	 **/
+	public int getCell(int x, int y) {
+		return cells[getCellIndex(x, y)];
+	}
+
+
+
+
+	/**
+	 * Fills the halo with the cells along the edges of the neighbouring tiles,
+	 * wrapping round the edges of the world. Every node running agents must
+	 * call this at the same time.<P>
+	 * This is done in two goes: first the strips to the left and right are
+	 * swapped, then the strips above and below, with the halo to the left and
+	 * right included, which gets the corners to the right place without
+	 * having to talk to the diagonal neighbours.</P>
+	 **/
+	public void exchangeHalos() throws TransportException {
+
+		if (haloWidth == 0) {
+			return;
+		}
+
+		int tileWidth = x1 - x0;
+		int tileHeight = y1 - y0;
+		int tileX = tile % tilesX;
+		int tileY = tile / tilesX;
+		int left = (tileY * tilesX) + ((tileX + tilesX - 1) % tilesX);
+		int right = (tileY * tilesX) + ((tileX + 1) % tilesX);
+		int up = (((tileY + tilesY - 1) % tilesY) * tilesX) + tileX;
+		int down = (((tileY + 1) % tilesY) * tilesX) + tileX;
+
+		// Left and right, just the rows in the tile.
+
+		int length = haloWidth * tileHeight;
+		copyBlock(haloWidth, haloWidth, haloWidth, tileHeight, sendStrip, true);
+		comm.sendrecv(sendStrip, 0, length, left, HALO_TAG,
+			receiveStrip, 0, length, right, HALO_TAG);
+		copyBlock(haloWidth + tileWidth, haloWidth, haloWidth, tileHeight, receiveStrip, false);
+
+		copyBlock(tileWidth, haloWidth, haloWidth, tileHeight, sendStrip, true);
+		comm.sendrecv(sendStrip, 0, length, right, HALO_TAG + 1,
+			receiveStrip, 0, length, left, HALO_TAG + 1);
+		copyBlock(0, haloWidth, haloWidth, tileHeight, receiveStrip, false);
+
+		// Up and down, the whole width including the halo just filled.
+
+		length = haloWidth * rowLength;
+		copyBlock(0, haloWidth, rowLength, haloWidth, sendStrip, true);
+		comm.sendrecv(sendStrip, 0, length, up, HALO_TAG + 2,
+			receiveStrip, 0, length, down, HALO_TAG + 2);
+		copyBlock(0, haloWidth + tileHeight, rowLength, haloWidth, receiveStrip, false);
+
+		copyBlock(0, tileHeight, rowLength, haloWidth, sendStrip, true);
+		comm.sendrecv(sendStrip, 0, length, down, HALO_TAG + 3,
+			receiveStrip, 0, length, up, HALO_TAG + 3);
+		copyBlock(0, 0, rowLength, haloWidth, receiveStrip, false);
+
+	}
+
+
+
+
+	/**
+	 * Sends the agents that are no longer in this node's tile to the nodes
+	 * whose tiles they are now in, and takes in the agents that have moved
+	 * into this tile. Returns the new array of agents, of the same type as
+	 * the one passed in, with the agents that stayed first, in their old order.
+	 * Every node running agents must call this at the same time.<P>
+	 * The agents going to each node are packed into one batch each and
+	 * swapped in a single Alltoallv, after an Alltoall of the batch lengths.</P>
+	 **/
+	public Object[] migrate(Object[] agents, AgentCodec codec) throws TransportException {
+
+		int size = comm.getSize();
+
+		// Sort the indices of the agents by where they are going,
+		// with a counting sort, so the batches can be packed in one go.
+
+		int[] owners = new int[agents.length];
+		int[] counts = new int[size];
+		for (int i = 0; i < agents.length; i++) {
+			Drawable agent = (Drawable) agents[i];
+			owners[i] = getOwner(agent.getX(), agent.getY());
+			counts[owners[i]]++;
+		}
+		int staying = counts[tile];
+		counts[tile] = 0;
+
+		Object[] leaving = new Object[agents.length - staying];
+		int[] starts = new int[size];
+		for (int i = 1; i < size; i++) {
+			starts[i] = starts[i - 1] + counts[i - 1];
+		}
+		int[] filled = new int[size];
+		for (int i = 0; i < agents.length; i++) {
+			if (owners[i] != tile) {
+				leaving[starts[owners[i]] + filled[owners[i]]] = agents[i];
+				filled[owners[i]]++;
+			}
+		}
+
+		int total = 0;
+		for (int i = 0; i < size; i++) {
+			sendStarts[i] = total;
+			sendLengths[i] = (i == tile) ? 0 : AgentBuffer.getLength(codec, counts[i]);
+			total = total + sendLengths[i];
+		}
+		outgoing.ensureLength(total);
+		for (int i = 0; i < size; i++) {
+			if (i != tile) {
+				outgoing.encode(codec, leaving, starts[i], counts[i], sendStarts[i]);
+			}
+		}
+
+		comm.alltoall(sendLengths, 0, 1, receiveLengths, 0);
+		total = 0;
+		for (int i = 0; i < size; i++) {
+			receiveStarts[i] = total;
+			total = total + receiveLengths[i];
+		}
+		incoming.ensureLength(total);
+		comm.alltoallv(outgoing.getInts(), 0, sendLengths, sendStarts,
+			incoming.getInts(), 0, receiveLengths, receiveStarts);
+
+		// Put the new list together: those that stayed, then those that arrived.
+
+		int arriving = 0;
+		for (int i = 0; i < size; i++) {
+			if (receiveLengths[i] > 0) {
+				arriving = arriving + incoming.getInts()[receiveStarts[i] + 1];
+			}
+		}
+		if ((arriving == 0) && (staying == agents.length)) {
+			return agents;
+		}
+
+		Object[] result = (Object[]) Array.newInstance(agents.getClass().getComponentType(), staying + arriving);
+		int next = 0;
+		for (int i = 0; i < agents.length; i++) {
+			if (owners[i] == tile) {
+				result[next++] = agents[i];
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			if (receiveLengths[i] > 0) {
+				next = next + incoming.decode(codec, result, next, receiveStarts[i]);
+			}
+		}
+		return result;
+
+	}
+
+
+
+
+	/**
+	 * Copies a block of the grid, at column <CODE>column</CODE> and row <CODE>row</CODE>
+	 * of the grid including the halo, into the strip or back again.
+	 **/
+	private void copyBlock(int column, int row, int blockWidth, int blockHeight, int[] strip, boolean toStrip) {
+
+		int position = 0;
+		for (int j = 0; j < blockHeight; j++) {
+			int start = ((row + j) * rowLength) + column;
+			if (toStrip) {
+				System.arraycopy(cells, start, strip, position, blockWidth);
+			} else {
+				System.arraycopy(strip, position, cells, start, blockWidth);
+			}
+			position = position + blockWidth;
+		}
+
+	}
+
+
+
+
+	/**
+	 * Gets the index in the grid of the point x, y, allowing for the world
+	 * wrapping round.
+	 **/
+	private int getCellIndex(int x, int y) {
+
+		int column = getGridOffset(x, x0, x1 - x0, width);
+		int row = getGridOffset(y, y0, y1 - y0, height);
+		if ((column < 0) || (row < 0)) {
+			throw new IllegalArgumentException("Point " + x + ", " + y + " is outside the halo of tile " + tile);
+		}
+		return (row * rowLength) + column;
+
+	}
+
+
+
+
+	/**
+	 * Gets the column or row of the grid holding a coordinate, for a tile 
+	 * covering <CODE>length</CODE> from <CODE>start</CODE> in a world 
+	 * <CODE>size</CODE> across, or -1 if it's outside the tile and its halo. 
+	 * A coordinate in the tile itself always gets its own cell, even where 
+	 * the tile spans the whole world and the halo on the far side is a copy 
+	 * of the same place; after that it's the halo past the end of the tile, 
+	 * and then the one before the start.
+	 **/
+	private int getGridOffset(int value, int start, int length, int size) {
+
+		int offset = wrap(value - start, size);
+		if (offset < length + haloWidth) {
+			return offset + haloWidth;
+		} else if (offset >= size - haloWidth) {
+			return offset - size + haloWidth;
+		}
+		return -1;
+
+	}
+
+
+
+
+	/**
+	 * Wraps a coordinate round into 0 to size - 1.
+	 **/
+	private static int wrap(int value, int size) {
+		int wrapped = value % size;
+		return (wrapped < 0) ? wrapped + size : wrapped;
+	}
+
+// End of TorusDecomposition.
+}
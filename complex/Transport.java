@@ -0,0 +1,185 @@
+/**
+ * Transport
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+
+/**
+ * The messaging the Model needs between nodes, so it can run over MPI or 
+ * something else, such as threads in one JVM standing in for the nodes.<P>
+ * The methods follow the MPI calls of the same names, for a group of 
+ * nodes (ranks) numbered from zero, but only carry ints, as everything the 
+ * Model sends is packed into ints, and they throw a TransportException 
+ * rather than an MPIException. As in MPI, collectives, the methods without 
+ * a source or destination, must be called by every node in the group in 
+ * the same order, and messages between two nodes with the same tag arrive 
+ * in the order they were sent.</P>
+ * @version 1.3
+ */ 
+public interface Transport {
+
+
+
+
+	/**
+	 * Gets this node's rank in the group.
+	 **/
+	public int getRank();
+
+
+
+
+	/**
+	 * Gets the number of nodes in the group.
+	 **/
+	public int getSize();
+
+
+
+
+	/**
+	 * Sends <CODE>count</CODE> ints from <CODE>buffer[offset]</CODE> to node 
+	 * <CODE>destination</CODE>.
+	 **/
+	public void send(int[] buffer, int offset, int count, int destination, int tag) throws TransportException;
+
+
+
+
+	/**
+	 * Receives up to <CODE>count</CODE> ints from node <CODE>source</CODE> 
+	 * into <CODE>buffer[offset]</CODE>.
+	 **/
+	public void recv(int[] buffer, int offset, int count, int source, int tag) throws TransportException;
+
+
+
+
+	/**
+	 * Starts a send, without waiting for it to finish.
+	 **/
+	public TransportRequest isend(int[] buffer, int offset, int count, int destination, int tag) throws TransportException;
+
+
+
+
+	/**
+	 * Starts a receive, without waiting for it to finish.
+	 **/
+	public TransportRequest irecv(int[] buffer, int offset, int count, int source, int tag) throws TransportException;
+
+
+
+
+	/**
+	 * Sends one message and receives another at the same time, so pairs 
+	 * of nodes can swap without either having to go first.
+	 **/
+	public void sendrecv(int[] sendBuffer, int sendOffset, int sendCount, int destination, int sendTag, 
+		int[] receiveBuffer, int receiveOffset, int receiveCount, int source, int receiveTag) throws TransportException;
+
+
+
+
+	/**
+	 * Copies <CODE>count</CODE> ints from node <CODE>root</CODE> to every 
+	 * other node.
+	 **/
+	public void bcast(int[] buffer, int offset, int count, int root) throws TransportException;
+
+
+
+
+	/**
+	 * Gathers <CODE>count</CODE> ints from every node to node <CODE>root</CODE>, 
+	 * one after another in rank order.
+	 **/
+	public void gather(int[] sendBuffer, int sendOffset, int count, 
+		int[] receiveBuffer, int receiveOffset, int root) throws TransportException;
+
+
+
+
+	/**
+	 * Gathers a different number of ints from every node to node <CODE>root</CODE>, 
+	 * each at its own start in the receive buffer.
+	 **/
+	public void gatherv(int[] sendBuffer, int sendOffset, int sendCount, 
+		int[] receiveBuffer, int receiveOffset, int[] receiveCounts, int[] starts, int root) throws TransportException;
+
+
+
+
+	/**
+	 * Scatters a different number of ints from node <CODE>root</CODE> to every 
+	 * node, each from its own start in the send buffer.
+	 **/
+	public void scatterv(int[] sendBuffer, int sendOffset, int[] sendCounts, int[] starts, 
+		int[] receiveBuffer, int receiveOffset, int receiveCount, int root) throws TransportException;
+
+
+
+
+	/**
+	 * Sends <CODE>count</CODE> ints from every node to every node, the 
+	 * <CODE>i</CODE>th lot of each send buffer going to node <CODE>i</CODE>.
+	 **/
+	public void alltoall(int[] sendBuffer, int sendOffset, int count, 
+		int[] receiveBuffer, int receiveOffset) throws TransportException;
+
+
+
+
+	/**
+	 * Sends a different number of ints from every node to every node.
+	 **/
+	public void alltoallv(int[] sendBuffer, int sendOffset, int[] sendCounts, int[] sendStarts, 
+		int[] receiveBuffer, int receiveOffset, int[] receiveCounts, int[] receiveStarts) throws TransportException;
+
+
+
+
+	/**
+	 * Waits until every node in the group has got here.
+	 **/
+	public void barrier() throws TransportException;
+
+
+
+
+	/**
+	 * Splits the group into smaller groups, one for each <CODE>colour</CODE>, 
+	 * with the nodes in each ranked by <CODE>key</CODE>. Returns this node's 
+	 * new group, or null if <CODE>colour</CODE> is negative.
+	 **/
+	public Transport split(int colour, int key) throws TransportException;
+
+
+
+
+	/**
+	 * Gets the time in seconds since some point in the past, for timing.
+	 **/
+	public double wtime();
+
+
+
+
+	/**
+	 * Shuts the transport down at the end of a run. Groups made by 
+	 * <CODE>split()</CODE> don't need shutting down.
+	 **/
+	public void shutdown() throws TransportException;
+
+// End of Transport.
+}
@@ -0,0 +1,46 @@
+/**
+ * TransportException
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+
+/**
+ * Thrown when a Transport can't send or receive something, for example 
+ * because MPI failed underneath, or a message was longer than the space 
+ * given to receive it.
+ * @version 1.3
+ */ 
+public class TransportException extends Exception {
+
+
+
+
+	/**
+	 * Makes an exception with the given message.
+	 **/
+	public TransportException(String message) {
+		super(message);
+	}
+
+
+
+
+	/**
+	 * Makes an exception with the given message, caused by another exception.
+	 **/
+	public TransportException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+// End of TransportException.
+}
@@ -0,0 +1,35 @@
+/**
+ * TransportRequest
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+
+/**
+ * A send or receive started by <CODE>Transport.isend()</CODE> or 
+ * <CODE>Transport.irecv()</CODE> that may not have finished yet. The 
+ * buffer it was given mustn't be touched until <CODE>complete()</CODE> 
+ * has returned.
+ * @version 1.3
+ */ 
+public interface TransportRequest {
+
+
+
+
+	/**
+	 * Waits for the send or receive to finish.
+	 **/
+	public void complete() throws TransportException;
+
+// End of TransportRequest.
+}
@@ -0,0 +1,358 @@
+/**
+ * WireCodec
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * Squeezes batches of packed Agents before they're sent, and expands them 
+ * again when they arrive, as Agents' coordinates and values change little 
+ * from one tick to the next.<P>
+ * Each int in a batch is taken away from the int in the same place in the 
+ * last batch that went between the same two nodes, in either direction, if 
+ * it was the same length, so Agents that haven't changed come to zero. 
+ * The ints, or the differences, are then zigzag encoded, so small negative 
+ * numbers are small too, and written as varints, seven bits to a byte, so 
+ * small numbers take one byte rather than four. If that comes to at least 
+ * <CODE>compressAbove</CODE> bytes, they're also deflated at BEST_SPEED, 
+ * and that's kept if it's smaller. The bytes are sent packed four to an 
+ * int, after a header of HEADER_SIZE ints: the flags (DELTA and DEFLATED), 
+ * the number of ints in the batch, and the number of bytes.</P>
+ * <P>Both nodes keep the last batch between them, so every batch between 
+ * them has to go through their WireCodecs, in order, or the differences 
+ * will be taken from the wrong batch. Batches sent other ways, such as 
+ * pipelined ones, don't count.</P>
+ * <P>The codec counts the bytes before and after, and the time spent, so 
+ * what it saves can be set against what it costs.</P>
+ * @version 1.3
+ */ 
+public class WireCodec {
+
+
+	public static final int HEADER_SIZE = 3;
+	public static final int DELTA = 1; // Flags in the header.
+	public static final int DEFLATED = 2;
+
+	private int compressAbove = 0; // Bytes to try deflating at; zero for never.
+	private int[][] previous = null; // Last batch between this node and each other.
+	private int[] previousLengths = null;
+	private byte[] bytes = new byte[0]; // Varints being written or read.
+	private byte[] deflated = new byte[0];
+	private Deflater deflater = null;
+	private Inflater inflater = null;
+	private long rawBytes = 0; // Bytes in the batches before encoding.
+	private long wireBytes = 0; // Bytes sent or received for them.
+	private long nanos = 0; // Time spent encoding and decoding.
+	private int batches = 0;
+	private int deflatedBatches = 0;
+
+
+
+
+	/**
+	 * Makes a codec for a node talking to <CODE>nodes</CODE> nodes, which 
+	 * deflates batches of at least <CODE>compressAbove</CODE> bytes of 
+	 * varints, or none if it's zero.
+	 **/
+	public WireCodec(int nodes, int compressAbove) {
+
+		this.compressAbove = Math.max(0, compressAbove);
+		previous = new int[nodes][];
+		previousLengths = new int[nodes];
+		for (int i = 0; i < nodes; i++) {
+			previousLengths[i] = -1;
+		}
+		if (this.compressAbove > 0) {
+			deflater = new Deflater(Deflater.BEST_SPEED);
+			inflater = new Inflater();
+		}
+
+	}
+
+
+
+
+	/**
+	 * Gets the number of ints in the batch before it was encoded, from the 
+	 * header of an encoded batch starting at the offset.
+	 **/
+	public static int getRawLength(int[] wire, int offset) {
+		return wire[offset + 1];
+	}
+
+
+
+
+	/**
+	 * Encodes the <CODE>length</CODE> ints starting at <CODE>offset</CODE> 
+	 * in <CODE>raw</CODE>, a batch for the node <CODE>peer</CODE>, into 
+	 * the buffer starting at <CODE>wireOffset</CODE>, and returns the 
+	 * number of ints to send.
+	 **/
+	public int encode(int[] raw, int offset, int length, int peer, AgentBuffer wire, int wireOffset) {
+
+		long start = System.nanoTime();
+		int[] reference = previous[peer];
+		boolean delta = (previousLengths[peer] == length);
+		if (bytes.length < length * 5) {
+			bytes = new byte[length * 5];
+		}
+
+		int count = 0;
+		for (int i = 0; i < length; i++) {
+			int value = delta ? raw[offset + i] - reference[i] : raw[offset + i];
+			int zigzag = (value << 1) ^ (value >> 31);
+			while ((zigzag & ~0x7F) != 0) {
+				bytes[count++] = (byte) ((zigzag & 0x7F) | 0x80);
+				zigzag = zigzag >>> 7;
+			}
+			bytes[count++] = (byte) zigzag;
+		}
+
+		int flags = delta ? DELTA : 0;
+		byte[] payload = bytes;
+		int payloadLength = count;
+		if ((compressAbove > 0) && (count >= compressAbove)) {
+			int squeezed = deflate(count);
+			if (squeezed > 0) {
+				flags = flags | DEFLATED;
+				payload = deflated;
+				payloadLength = squeezed;
+				deflatedBatches++;
+			}
+		}
+
+		int words = (payloadLength + 3) / 4;
+		wire.ensureLength(wireOffset + HEADER_SIZE + words);
+		int[] out = wire.getInts();
+		out[wireOffset] = flags;
+		out[wireOffset + 1] = length;
+		out[wireOffset + 2] = payloadLength;
+		for (int w = 0; w < words; w++) {
+			int b = w * 4;
+			out[wireOffset + HEADER_SIZE + w] = ((payload[b] & 0xFF) << 24) 
+				| (((b + 1 < payloadLength) ? payload[b + 1] & 0xFF : 0) << 16) 
+				| (((b + 2 < payloadLength) ? payload[b + 2] & 0xFF : 0) << 8) 
+				| ((b + 3 < payloadLength) ? payload[b + 3] & 0xFF : 0);
+		}
+
+		remember(peer, raw, offset, length);
+		count(length, HEADER_SIZE + words, start);
+		return HEADER_SIZE + words;
+
+	}
+
+
+
+
+	/**
+	 * Decodes the batch from the node <CODE>peer</CODE> that starts at 
+	 * <CODE>wireOffset</CODE> in <CODE>wire</CODE> into the buffer, 
+	 * starting at <CODE>offset</CODE>, and returns the number of ints in it.
+	 * @throws IllegalStateException if the batch is corrupt, or was encoded against a different last batch.
+	 **/
+	public int decode(int[] wire, int wireOffset, int peer, AgentBuffer raw, int offset) {
+
+		long start = System.nanoTime();
+		int flags = wire[wireOffset];
+		int length = wire[wireOffset + 1];
+		int payloadLength = wire[wireOffset + 2];
+		int words = (payloadLength + 3) / 4;
+		if (bytes.length < Math.max(payloadLength, length * 5)) {
+			bytes = new byte[Math.max(payloadLength, length * 5)];
+		}
+		for (int w = 0; w < words; w++) {
+			int word = wire[wireOffset + HEADER_SIZE + w];
+			int b = w * 4;
+			for (int k = 0; (k < 4) && (b + k < payloadLength); k++) {
+				bytes[b + k] = (byte) (word >>> (24 - (8 * k)));
+			}
+		}
+		if ((flags & DEFLATED) != 0) {
+			inflate(payloadLength);
+		}
+
+		boolean delta = (flags & DELTA) != 0;
+		if (delta && (previousLengths[peer] != length)) {
+			throw new IllegalStateException("Batch from node " + peer + " is encoded against a batch this node doesn't have");
+		}
+		raw.ensureLength(offset + length);
+		int[] out = raw.getInts();
+		int[] reference = previous[peer];
+		int position = 0;
+		for (int i = 0; i < length; i++) {
+			int zigzag = 0;
+			int shift = 0;
+			int b = 0;
+			do {
+				b = bytes[position++];
+				zigzag = zigzag | ((b & 0x7F) << shift);
+				shift = shift + 7;
+			} while ((b & 0x80) != 0);
+			int value = (zigzag >>> 1) ^ -(zigzag & 1);
+			out[offset + i] = delta ? value + reference[i] : value;
+		}
+
+		remember(peer, out, offset, length);
+		count(length, HEADER_SIZE + words, start);
+		return length;
+
+	}
+
+
+
+
+	/**
+	 * Deflates the first <CODE>count</CODE> bytes of varints into 
+	 * <CODE>deflated</CODE>, returning how many bytes that took, or zero 
+	 * if it didn't make them any smaller.
+	 **/
+	private int deflate(int count) {
+
+		if (deflated.length < count) {
+			deflated = new byte[count];
+		}
+		deflater.reset();
+		deflater.setInput(bytes, 0, count);
+		deflater.finish();
+		int written = 0;
+		while (!deflater.finished() && (written < count)) {
+			written = written + deflater.deflate(deflated, written, count - written);
+		}
+		return (deflater.finished() && (written < count)) ? written : 0;
+
+	}
+
+
+
+
+	/**
+	 * Inflates the first <CODE>payloadLength</CODE> bytes back into the 
+	 * varints, in <CODE>bytes</CODE>.
+	 **/
+	private void inflate(int payloadLength) {
+
+		if (inflater == null) {
+			inflater = new Inflater();
+		}
+		if (deflated.length < payloadLength) {
+			deflated = new byte[payloadLength];
+		}
+		System.arraycopy(bytes, 0, deflated, 0, payloadLength);
+		inflater.reset();
+		inflater.setInput(deflated, 0, payloadLength);
+		try {
+			int read = 0;
+			while (!inflater.finished()) {
+				int inflated = inflater.inflate(bytes, read, bytes.length - read);
+				if ((inflated == 0) && (inflater.needsInput() || (read == bytes.length))) {
+					throw new IllegalStateException("Deflated batch is cut short");
+				}
+				read = read + inflated;
+			}
+		} catch (DataFormatException dfe) {
+			throw new IllegalStateException("Deflated batch is corrupt: " + dfe.getMessage());
+		}
+
+	}
+
+
+
+
+	/**
+	 * Keeps a copy of the last batch between this node and the peer.
+	 **/
+	private void remember(int peer, int[] batch, int offset, int length) {
+
+		if ((previous[peer] == null) || (previous[peer].length < length)) {
+			previous[peer] = new int[length];
+		}
+		System.arraycopy(batch, offset, previous[peer], 0, length);
+		previousLengths[peer] = length;
+
+	}
+
+
+
+
+	/**
+	 * Adds a batch to the counts.
+	 **/
+	private void count(int rawLength, int wireLength, long start) {
+
+		rawBytes = rawBytes + (4L * rawLength);
+		wireBytes = wireBytes + (4L * wireLength);
+		nanos = nanos + (System.nanoTime() - start);
+		batches++;
+
+	}
+
+
+
+
+	/**
+	 * Gets the bytes in the batches this node has encoded and decoded, before 
+	 * encoding.
+	 **/
+	public long getRawBytes() {
+		return rawBytes;
+	}
+
+
+
+
+	/**
+	 * Gets the bytes sent and received for them.
+	 **/
+	public long getWireBytes() {
+		return wireBytes;
+	}
+
+
+
+
+	/**
+	 * Gets the nanoseconds spent encoding and decoding them.
+	 **/
+	public long getNanos() {
+		return nanos;
+	}
+
+
+
+
+	/**
+	 * Gets the fraction of the bytes that encoding saved.
+	 **/
+	public double getSaving() {
+		return (rawBytes == 0) ? 0.0 : 1.0 - ((double) wireBytes / rawBytes);
+	}
+
+
+
+
+	/**
+	 * Gets a line summing up the bytes saved and the time it took.
+	 **/
+	public String getSummary() {
+		return batches + " batches, " + rawBytes + " bytes sent as " + wireBytes + " (" 
+			+ (Math.round(getSaving() * 1000.0) / 10.0) + "% saved, " + deflatedBatches 
+			+ " deflated) in " + (nanos / 1000000.0) + " ms";
+	}
+
+// End of WireCodec.
+}
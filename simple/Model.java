@@ -42,12 +42,16 @@ public class Model extends SimpleModel {
  	 * Changes:
 	 * v.1.1: HP: 17 Aug 2004: Extracted sendComand method so isn't repeated in step() etc. Fixed modelIteration on node zero.
 	 * v.1.1: AJE : 17 Aug 2004: Extracted sendComand matching code in atEnd().
+	 * v.1.3: 17 Oct 2026: sendCommand() broadcasts the command rather than sending it to each node in turn.
+	 * v.1.3: 17 Oct 2026: Added run-ahead command so other nodes can run several ticks between syncs.
 	 *
 	**/ 
 
 	private int nodeRank = 0;
     private int numberOfNodes = 0;
 	private int modelIteration = 0;
+	private int syncInterval = 1;
+	private int runAheadRemaining = 0;
     	
 
 	/**
@@ -66,7 +70,7 @@ public class Model extends SimpleModel {
 		if (nodeRank == 0) {
 
 			name = "Model";
-			params = new String[] {"RepastParams"};
+			params = new String[] {"RepastParams", "SyncInterval"};
 
 		} 
     	}
@@ -84,6 +88,9 @@ public class Model extends SimpleModel {
 	 * method itself directly, and we can't(?) do method calls across processors, 
      * this method allows node zero to use variable setting to initiate method 
 	 * calls on other processors.<P>
+	 * Command "4" is the run-ahead command. It comes with a second int, the 
+	 * number of ticks to run, and the node runs them all without waiting 
+	 * to be told about each phase.</P>
 	 * <P>To do</P>
 	 * <UL>
 	 * <LI>Not totally convinced the ints need wrapping in arrays...</LI>
@@ -92,7 +99,7 @@ public class Model extends SimpleModel {
 	public void waitForCommands () {
 
 		int whatToDo = 0;
-		int[] whatToDoArray = new int[1];
+		int[] whatToDoArray = new int[2];
 		whatToDoArray[0] = 0;
 
 		// Loop until whatToDo equal to a message to end - in this case "9".
@@ -103,7 +110,7 @@ public class Model extends SimpleModel {
 
 			try {
 
-			MPI.COMM_WORLD.Recv(whatToDoArray, 0, 1,  MPI.INT, 0, 50);
+			MPI.COMM_WORLD.Bcast(whatToDoArray, 0, 2, MPI.INT, 0);
 
 			} catch (MPIException mpiE) {
 				mpiE.printStackTrace();
@@ -144,6 +151,10 @@ public class Model extends SimpleModel {
 					postStep();
 					break;
 
+				case (4) :
+					runAhead(whatToDoArray[1]);
+					break;
+
 				case (9) :
 					atEnd();
 					break;
@@ -163,30 +174,45 @@ public class Model extends SimpleModel {
 	 * preStep(), step() or postStep() etc, depending on int whatToDo passed in. Remember that  
 	 * these nodes are waiting in the waitForCommands method, and this is where this message 
    	 * should be picked up.<BR> 
-	 * The waitForCommands method will then call this method on nodes greater than zero. 
+	 * The waitForCommands method will then call this method on nodes greater than zero.<P>
+	 * The command goes out as a broadcast from node zero rather than a Send to each node 
+	 * in turn, so the MPI library can fan it out as a tree and the cost grows with the 
+	 * log of the number of nodes rather than linearly. Because it is a collective, every 
+	 * other node must be sat in the matching Bcast in waitForCommands.</P>
 	**/  
 	public void sendCommand(int whatToDo) {
 
-		int[] whatToDoArray = new int[whatToDo];
-		whatToDoArray[0] = whatToDo;
+		sendCommand(whatToDo, 0);
 
-		for (int i = 1; i < numberOfNodes; i++) {
+	}
 
-	    		try {
 
-     		    		MPI.COMM_WORLD.Send(whatToDoArray, 0, 1,  MPI.INT, i, 50);	
 
-			} catch (MPIException mpiE) {
-					
-				mpiE.printStackTrace();
 
-			} catch (Exception e) {
-					
-				e.printStackTrace();
 
-			}
-		   	    
-		}  // end for
+	/**
+	 * As sendCommand(int), but with an int argument for the command to use, 
+	 * for example the number of ticks for a run-ahead.
+	**/  
+	public void sendCommand(int whatToDo, int argument) {
+
+		int[] whatToDoArray = new int[2];
+		whatToDoArray[0] = whatToDo;
+		whatToDoArray[1] = argument;
+
+    		try {
+
+     		    	MPI.COMM_WORLD.Bcast(whatToDoArray, 0, 2, MPI.INT, 0);	
+
+		} catch (MPIException mpiE) {
+				
+			mpiE.printStackTrace();
+
+		} catch (Exception e) {
+				
+			e.printStackTrace();
+
+		}
 
 	} // end what to do
 
@@ -220,7 +246,10 @@ public class Model extends SimpleModel {
 	 * On node zero, the method sends out messages to 
    	 * the other nodes telling them to preStep(). Remember that these nodes are waiting 
  	 * in the waitForCommands method, and this is where this message should be picked up. 
-	 * That method will then call this method on nodes greater than zero. 
+	 * That method will then call this method on nodes greater than zero.<P>
+	 * If the syncInterval is greater than one, node zero instead sends a single 
+	 * run-ahead command at the start of each block of syncInterval ticks, and 
+	 * sends nothing else until the block is over.</P>
 	**/  
 	public void preStep() {
 
@@ -231,7 +260,14 @@ public class Model extends SimpleModel {
 
 
 		if (nodeRank == 0) {
-			sendCommand(1);
+			if (runAheadRemaining > 0) {
+				// Other nodes are already running this tick.
+			} else if (syncInterval > 1) {
+				runAheadRemaining = syncInterval;
+				sendCommand(4, syncInterval);
+			} else {
+				sendCommand(1);
+			}
 		}
 
 		// This is where you'd do the preStep work on all the nodes 
@@ -256,7 +292,7 @@ public class Model extends SimpleModel {
 	**/  
     	public void step() {
 
-		if (nodeRank == 0) {
+		if (nodeRank == 0 && runAheadRemaining == 0) {
 			sendCommand(2);
 		}
 
@@ -282,7 +318,11 @@ public class Model extends SimpleModel {
     	public void postStep() {
 
 		if (nodeRank == 0) {
-			sendCommand(3);
+			if (runAheadRemaining > 0) {
+				runAheadRemaining--;
+			} else {
+				sendCommand(3);
+			}
 		}
 
 		// This is where you'd do the step work on all the nodes 
@@ -297,6 +337,57 @@ public class Model extends SimpleModel {
 
 
 
+	/**
+	 * Called on nodes other than zero by the run-ahead command.
+	 * Runs the given number of ticks, doing the preStep, step and postStep 
+	 * work as one superstep without waiting for a command between each.
+	**/
+	private void runAhead(int ticks) {
+
+		for (int t = 0; t < ticks; t++) {
+
+			modelIteration++;
+
+			// This is where you'd do the preStep, step and postStep 
+			// work for the tick.
+
+			System.out.println("Run-ahead tick done on processor " + nodeRank + " for model iteration " + modelIteration);
+
+		}
+
+	} // End of runAhead.
+
+
+
+
+
+	/**
+	 * Gets the number of ticks the other nodes run between syncs with node zero.
+	**/
+	public int getSyncInterval() {
+		return syncInterval;
+	}
+
+
+
+
+
+	/**
+	 * Sets the number of ticks the other nodes run between syncs with node zero.
+	 * One (the default) means the nodes are told about every phase of every tick.
+	 * Larger values take effect at the start of the next block.
+	**/
+	public void setSyncInterval(int syncInterval) {
+		if (syncInterval < 1) {
+			syncInterval = 1;
+		}
+		this.syncInterval = syncInterval;
+	}
+
+
+
+
+
 	/**
  	 * This is called by Repast at the end of the model.
 	 * On node zero, this signals to the other nodes to exit processing and 
@@ -0,0 +1,94 @@
+/**
+ * RunAheadStopTest
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+
+/**
+ * Checks the Model ends cleanly when it's stopped part way through a 
+ * run-ahead block, both when the other nodes weren't told to send their 
+ * Agents back at the end of the block, as in batch mode or with a 
+ * DisplayInterval longer than the SyncInterval, and when they were.<P>
+ * The nodes are run as threads over a LocalTransport, without a display. 
+ * Compile with <CODE>complex</CODE> and run this class; it exits with an 
+ * error if a check fails.</P>
+ * @version 1.3
+ */ 
+public class RunAheadStopTest {
+
+
+	private static final long TIMEOUT = 30000; // Milliseconds to wait for atEnd().
+
+
+
+
+	public static void main(String [] args) throws Exception {
+
+		check(4, 3, 1, 0); // No gather due at the end of the block.
+		check(4, 3, 2, 0); // One tick left in the block.
+		check(4, 3, 1, 1); // Rebalancing, so the Agents come back at the end of the block.
+		System.out.println("RunAheadStopTest passed");
+
+	}
+
+
+
+
+	/**
+	 * Runs the model on <CODE>nodes</CODE> nodes with the SyncInterval, 
+	 * stops it after <CODE>ticks</CODE> ticks, and checks atEnd() returns.
+	 **/
+	private static void check(int nodes, int syncInterval, int ticks, int rebalanceInterval) throws Exception {
+
+		LocalTransport[] transports = LocalTransport.create(nodes);
+		Model.startNodes(transports);
+		final Model model = new Model(transports[0]);
+		model.setTotalNumberOfAgents(100);
+		model.setSyncInterval(syncInterval);
+		model.setRebalanceInterval(rebalanceInterval);
+		model.setMoveDistance(1);
+		model.setLogLevel("OFF");
+		model.setBatch(true);
+		model.buildModel();
+		for (int t = 0; t < ticks; t++) {
+			model.preStep();
+			model.step();
+			model.postStep();
+		}
+
+		final Throwable[] failure = new Throwable[1];
+		Thread ending = new Thread(new Runnable() {
+			public void run() {
+				try {
+					model.atEnd();
+				} catch (Throwable t) {
+					failure[0] = t;
+				}
+			}
+		});
+		ending.setDaemon(true);
+		ending.start();
+		ending.join(TIMEOUT);
+		if (ending.isAlive()) {
+			throw new AssertionError("atEnd() hung after " + ticks + " of " + syncInterval 
+				+ " ticks run ahead on " + nodes + " nodes");
+		}
+		if (failure[0] != null) {
+			throw new AssertionError("atEnd() failed after " + ticks + " of " + syncInterval 
+				+ " ticks run ahead on " + nodes + " nodes: " + failure[0]);
+		}
+
+	}
+
+// End of RunAheadStopTest.
+}
@@ -0,0 +1,119 @@
+/**
+ * TorusDecompositionTest
+ *
+ * Basic Parallel Model Code : Copyright (c) University of Leeds.  All rights reserved.
+ * 
+ * This code may be distributed in source and binary code, with or without
+ * modification, provided that the copyright/licence statement here and above is 
+ * reproduced, and versions developed outside the University of Leeds have attached 
+ * one or more of the Open Source Licenses available at:
+ * http://www.opensource.org/licenses/ 
+ * This work is offered "as is" and without warranty.
+ * 
+**/
+package uk.ac.leeds.ccg.modeling.parallelrepast.complex;
+
+
+/**
+ * Checks a TorusDecomposition keeps each tile's cells, and fills its halo 
+ * from the right places, when a tile spans the whole width or height of 
+ * the world, as with one worker, two, or any prime number of them.<P>
+ * The tiles are run as threads over a LocalTransport. Compile with 
+ * <CODE>complex</CODE> and run this class; it exits with an error if 
+ * a check fails.</P>
+ * @version 1.3
+ */ 
+public class TorusDecompositionTest {
+
+
+
+
+	public static void main(String [] args) throws Exception {
+
+		check(10, 10, 1, 1); // One tile, the whole world.
+		check(10, 6, 2, 1); // A single row of tiles.
+		check(6, 10, 2, 2); // A single column of tiles.
+		check(12, 12, 3, 1); // A prime number of tiles.
+		check(12, 12, 4, 2); // Tiles with neighbours all round.
+		System.out.println("TorusDecompositionTest passed");
+
+	}
+
+
+
+
+	/**
+	 * Splits a world between the tiles, has each set every cell in its tile 
+	 * to a value made from x and y, swaps halos, and checks every cell in 
+	 * the tile and its halo has the value for where it is in the world.
+	 **/
+	private static void check(final int width, final int height, int tiles, final int haloWidth) throws Exception {
+
+		final LocalTransport[] transports = LocalTransport.create(tiles);
+		final Throwable[] failure = new Throwable[1];
+		Thread[] threads = new Thread[tiles];
+		for (int i = 0; i < tiles; i++) {
+			final int rank = i;
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						checkTile(width, height, transports, rank, haloWidth);
+					} catch (Throwable t) {
+						failure[0] = t;
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (int i = 0; i < tiles; i++) {
+			threads[i].join();
+		}
+		if (failure[0] != null) {
+			throw new AssertionError("World of " + width + " by " + height + " in " + tiles 
+				+ " tiles: " + failure[0]);
+		}
+
+	}
+
+
+
+
+	private static void checkTile(int width, int height, Transport[] transports, int rank, int haloWidth) throws Exception {
+
+		TorusDecomposition decomposition = new TorusDecomposition(width, height, transports.length, haloWidth);
+		decomposition.connect(transports[rank]);
+		int[] bounds = decomposition.getBounds();
+		for (int x = bounds[0]; x < bounds[2]; x++) {
+			for (int y = bounds[1]; y < bounds[3]; y++) {
+				decomposition.setCell(x, y, getValue(x, y, width, height));
+			}
+		}
+		decomposition.exchangeHalos();
+
+		for (int x = bounds[0] - haloWidth; x < bounds[2] + haloWidth; x++) {
+			for (int y = bounds[1] - haloWidth; y < bounds[3] + haloWidth; y++) {
+				int expected = getValue(x, y, width, height);
+				int found = decomposition.getCell(x, y);
+				if (found != expected) {
+					throw new AssertionError("tile " + rank + " has " + found + " at " + x + ", " + y 
+						+ " rather than " + expected);
+				}
+			}
+		}
+
+	}
+
+
+
+
+	/**
+	 * Gets the value for the cell at x, y, wrapped round the world.
+	 **/
+	private static int getValue(int x, int y, int width, int height) {
+		x = ((x % width) + width) % width;
+		y = ((y % height) + height) % height;
+		return (1000 * x) + y + 1;
+	}
+
+// End of TorusDecompositionTest.
+}